@@ -1,26 +1,35 @@
 package net.meloniumcraft.pge.backend.opengl;
 
+import net.meloniumcraft.pge.backend.BackendCapability;
 import net.meloniumcraft.pge.backend.PGEBackend;
 import net.meloniumcraft.pge.core.callbacks.KeyCallback;
 import net.meloniumcraft.pge.core.callbacks.MouseClickCallback;
 import net.meloniumcraft.pge.core.callbacks.MouseMoveCallback;
 import net.meloniumcraft.pge.core.callbacks.ScrollCallback;
+import net.meloniumcraft.pge.core.drawlist.DrawListGeometry;
 import net.meloniumcraft.pge.core.input.ClickType;
 import net.meloniumcraft.pge.core.input.Key;
 import net.meloniumcraft.pge.core.types.*;
-import net.meloniumcraft.utils.list.ReverseListIterator;
 import org.lwjgl.glfw.*;
 import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
 import org.lwjgl.opengl.GL32;
 import org.lwjgl.stb.STBImage;
+import org.lwjgl.stb.STBTTFontinfo;
+import org.lwjgl.stb.STBTruetype;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static org.lwjgl.system.MemoryUtil.NULL;
 
@@ -34,6 +43,13 @@ public final class PGEBackendImpl extends PGEBackend {
         public Pixel tint;
         public boolean bShow;
         public final int id;
+        public int order;
+        public int divisor = 1;
+        public VI2D size;
+        public boolean mipmaps;
+        public Pixel.Mode blend = Pixel.Mode.ALPHA;
+        // drawn into since its mipmaps were last generated
+        public boolean dirty;
         
         public LayerDesc(int texID, int frambufferID, int id) {
             this.texID = texID;
@@ -52,17 +68,186 @@ public final class PGEBackendImpl extends PGEBackend {
         public VF2D[] uv = new VF2D[] {new VF2D(0, 0), new VF2D(1, 0), new VF2D(1, 1), new VF2D(0, 1)};
         public float[] w = new float[4];
         public Pixel[] tint = new Pixel[] {Pixel.WHITE, Pixel.WHITE, Pixel.WHITE, Pixel.WHITE};
+        public ParticleBatch particles;
+        public QuadBatch quads;
+        public Pixel.Mode mode = Pixel.Mode.ALPHA;
+        public int blendSrc = GL32.GL_SRC_ALPHA;
+        public int blendDst = GL32.GL_ONE_MINUS_SRC_ALPHA;
+        public int pickId;
+        // only drawn into the pick buffer, for sprites that already sit in the layer's pixels
+        public boolean pickOnly;
+        public Sprite pickSprite;
     }
+    private static class ParticleBatch {
+        public static final int STRIDE = 12;
+        public Decal decal;
+        public float size;
+        public int count;
+        public ByteBuffer vertices;
+    }
+    private static class QuadBatch {
+        public static final int STRIDE = 20;
+        public Decal decal;
+        public int count;
+        public ByteBuffer vertices;
+    }
+    private static class DrawListDesc {
+        public int buffer;
+        public Sprite[] sprites;
+        public int[] modes;
+        public int[] firsts;
+        public int[] lengths;
+    }
+    private static class FontDesc {
+        public ByteBuffer data;
+        public STBTTFontinfo info;
+        public float scale;
+        public int ascent;
+        public int lineHeight;
+        // every glyph of the font fits a cell of this size
+        public int cellWidth;
+        public int cellHeight;
+    }
+    private static class Glyph {
+        // the glyph's cell in the atlas, the cell size is zero for blank glyphs
+        public int x;
+        public int y;
+        public int cellWidth;
+        public int cellHeight;
+        public int w;
+        public int h;
+        public int xOffset;
+        public int yOffset;
+        public float advance;
+        public long lastUse;
+    }
+    private static class GlyphShelf {
+        public int y;
+        public int next;
+        public int cellWidth;
+        public int cellHeight;
+    }
+    private static class PostPass {
+        public final int program;
+        public final int divisor;
+        public boolean enabled = true;
+        public final int textureLocation;
+        public final int resolutionLocation;
+        public final int sourceResolutionLocation;
+        public final int timeLocation;
+        public final List<PostUniform> uniforms = new ArrayList<>();
+        
+        public PostPass(int program, int divisor) {
+            this.program = program;
+            this.divisor = divisor;
+            textureLocation = GL32.glGetUniformLocation(program, "uTexture");
+            resolutionLocation = GL32.glGetUniformLocation(program, "uResolution");
+            sourceResolutionLocation = GL32.glGetUniformLocation(program, "uSourceResolution");
+            timeLocation = GL32.glGetUniformLocation(program, "uTime");
+        }
+    }
+    private static class PostUniform {
+        public String name;
+        public int location;
+        public float[] values;
+    }
+    private static class RenderTarget {
+        public int texID;
+        public int frambufferID;
+        public VI2D size;
+    }
+    
+    private static final String POST_VERTEX_SHADER =
+            "#version 120\n" +
+            "varying vec2 vTexCoord;\n" +
+            "void main() {\n" +
+            "    vTexCoord = gl_MultiTexCoord0.xy;\n" +
+            "    gl_Position = gl_Vertex;\n" +
+            "}\n";
+    private static final String POST_COPY_SHADER =
+            "#version 120\n" +
+            "uniform sampler2D uTexture;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(uTexture, vTexCoord);\n" +
+            "}\n";
+    private static final String SPRITE_VERTEX_SHADER =
+            "#version 120\n" +
+            "varying vec4 vTexCoord;\n" +
+            "varying vec4 vColor;\n" +
+            "void main() {\n" +
+            "    vTexCoord = gl_MultiTexCoord0;\n" +
+            "    vColor = gl_Color;\n" +
+            "    gl_Position = ftransform();\n" +
+            "}\n";
+    private static final String PALETTE_FRAGMENT_SHADER =
+            "#version 120\n" +
+            "uniform sampler2D uIndices;\n" +
+            "uniform sampler2D uPalette;\n" +
+            "varying vec4 vTexCoord;\n" +
+            "varying vec4 vColor;\n" +
+            "void main() {\n" +
+            "    float index = texture2D(uIndices, vTexCoord.xy / vTexCoord.w).r;\n" +
+            "    gl_FragColor = texture2D(uPalette, vec2((index * 255.0 + 0.5) / 256.0, 0.5)) * vColor;\n" +
+            "}\n";
+    // uMode is 0 for untextured shapes, 1 for textures and 2 for palette indexed sprites
+    private static final String PICK_FRAGMENT_SHADER =
+            "#version 120\n" +
+            "uniform sampler2D uTexture;\n" +
+            "uniform sampler2D uPalette;\n" +
+            "uniform int uMode;\n" +
+            "uniform vec4 uId;\n" +
+            "varying vec4 vTexCoord;\n" +
+            "void main() {\n" +
+            "    vec2 uv = vTexCoord.xy / vTexCoord.w;\n" +
+            "    float alpha = 1.0;\n" +
+            "    if (uMode == 1)\n" +
+            "        alpha = texture2D(uTexture, uv).a;\n" +
+            "    else if (uMode == 2)\n" +
+            "        alpha = texture2D(uPalette, vec2((texture2D(uTexture, uv).r * 255.0 + 0.5) / 256.0, 0.5)).a;\n" +
+            "    if (alpha == 0.0)\n" +
+            "        discard;\n" +
+            "    gl_FragColor = uId;\n" +
+            "}\n";
     
     private VI2D screenSize;
+    private VI2D renderSize;
+    private float renderScale = 1;
     private VI2D windowSize;
     private VI2D windowOffset;
     private long window;
     
     private Sprite fontSprite;
     private Decal fontDecal;
+    private Palette fontPalette;
+    
+    private int paletteProgram;
+    private int appliedProgram;
+    
+    private int pickProgram;
+    private int pickIdLocation;
+    private int pickModeLocation;
+    private int pickId;
+    // the id buffer and two pixel pack buffers read back alternately, only allocated while picking
+    private RenderTarget pickTarget;
+    private final int[] pickBuffers = new int[2];
+    private final int[] pickWidths = new int[2];
+    private final int[] pickHeights = new int[2];
+    private int pickFrame;
+    private int pickX, pickY, pickW, pickH;
+    private int[] pickedIds = new int[0];
+    private int pickedWidth;
+    private int pickedHeight;
+    
+    // GLFW is process wide, so it stays initialised while any backend instance is alive
+    private static final Object glfwLock = new Object();
+    private static int glfwUsers;
+    private static GLFWErrorCallback errorCallback;
+    
+    private static final int PROBE_SIZE = 256;
+    private static final int PROBE_QUADS = 4096;
+    private static final int PROBE_FRAMES = 16;
     
-    private final GLFWErrorCallback errorCallback = GLFWErrorCallback.createPrint(System.err);
     private GLFWKeyCallback keyCallback;
     private GLFWMouseButtonCallback mouseButtonCallback;
     private GLFWCursorPosCallback cursorPosCallback;
@@ -73,42 +258,116 @@ public final class PGEBackendImpl extends PGEBackend {
     private List<MouseClickCallback> mouseClickCallbacks;
     private List<ScrollCallback> scrollCallbacks;
     
-    private static final Map<Integer, Key> keyMap = Stream.of(new Object[][] {
-            {GLFW.GLFW_KEY_A, Key.A}, {GLFW.GLFW_KEY_B, Key.B}, {GLFW.GLFW_KEY_C, Key.C}, {GLFW.GLFW_KEY_D, Key.D},
-            {GLFW.GLFW_KEY_E, Key.E}, {GLFW.GLFW_KEY_F, Key.F}, {GLFW.GLFW_KEY_G, Key.G}, {GLFW.GLFW_KEY_H, Key.H},
-            {GLFW.GLFW_KEY_I, Key.I}, {GLFW.GLFW_KEY_J, Key.J}, {GLFW.GLFW_KEY_K, Key.K}, {GLFW.GLFW_KEY_L, Key.L},
-            {GLFW.GLFW_KEY_M, Key.M}, {GLFW.GLFW_KEY_N, Key.N}, {GLFW.GLFW_KEY_O, Key.O}, {GLFW.GLFW_KEY_P, Key.P},
-            {GLFW.GLFW_KEY_Q, Key.Q}, {GLFW.GLFW_KEY_R, Key.R}, {GLFW.GLFW_KEY_S, Key.S}, {GLFW.GLFW_KEY_T, Key.T},
-            {GLFW.GLFW_KEY_U, Key.U}, {GLFW.GLFW_KEY_V, Key.V}, {GLFW.GLFW_KEY_W, Key.W}, {GLFW.GLFW_KEY_X, Key.X},
-            {GLFW.GLFW_KEY_Y, Key.Y}, {GLFW.GLFW_KEY_Z, Key.Z}, {GLFW.GLFW_KEY_0, Key.K0}, {GLFW.GLFW_KEY_1, Key.K1},
-            {GLFW.GLFW_KEY_2, Key.K2}, {GLFW.GLFW_KEY_3, Key.K3}, {GLFW.GLFW_KEY_4, Key.K4}, {GLFW.GLFW_KEY_5, Key.K5},
-            {GLFW.GLFW_KEY_6, Key.K6}, {GLFW.GLFW_KEY_7, Key.K7}, {GLFW.GLFW_KEY_8, Key.K8}, {GLFW.GLFW_KEY_9, Key.K9},
-            {GLFW.GLFW_KEY_F1, Key.F1}, {GLFW.GLFW_KEY_F2, Key.F2}, {GLFW.GLFW_KEY_F3, Key.F3},
-            {GLFW.GLFW_KEY_F4, Key.F4}, {GLFW.GLFW_KEY_F5, Key.F5}, {GLFW.GLFW_KEY_F6, Key.F6},
-            {GLFW.GLFW_KEY_F7, Key.F7}, {GLFW.GLFW_KEY_F8, Key.F8}, {GLFW.GLFW_KEY_F9, Key.F9},
-            {GLFW.GLFW_KEY_F10, Key.F10}, {GLFW.GLFW_KEY_F11, Key.F11}, {GLFW.GLFW_KEY_F12, Key.F12},
-            {GLFW.GLFW_KEY_UP, Key.UP}, {GLFW.GLFW_KEY_DOWN, Key.DOWN}, {GLFW.GLFW_KEY_LEFT, Key.LEFT},
-            {GLFW.GLFW_KEY_RIGHT, Key.RIGHT}, {GLFW.GLFW_KEY_SPACE, Key.SPACE}, {GLFW.GLFW_KEY_TAB, Key.TAB},
-            {GLFW.GLFW_KEY_LEFT_SHIFT, Key.SHIFT}, {GLFW.GLFW_KEY_RIGHT_SHIFT, Key.SHIFT},
-            {GLFW.GLFW_KEY_LEFT_CONTROL, Key.CTRL}, {GLFW.GLFW_KEY_RIGHT_CONTROL, Key.CTRL},
-            {GLFW.GLFW_KEY_INSERT, Key.INS}, {GLFW.GLFW_KEY_DELETE, Key.DEL}, {GLFW.GLFW_KEY_HOME, Key.HOME},
-            {GLFW.GLFW_KEY_END, Key.END}, {GLFW.GLFW_KEY_PAGE_UP, Key.PGUP}, {GLFW.GLFW_KEY_PAGE_DOWN, Key.PGDN},
-            {GLFW.GLFW_KEY_BACKSPACE, Key.BACK}, {GLFW.GLFW_KEY_ESCAPE, Key.ESCAPE}, {GLFW.GLFW_KEY_ENTER, Key.RETURN},
-            {GLFW.GLFW_KEY_KP_ENTER, Key.ENTER}, {GLFW.GLFW_KEY_PAUSE, Key.PAUSE},
-            {GLFW.GLFW_KEY_SCROLL_LOCK, Key.SCROLL}, {GLFW.GLFW_KEY_KP_0, Key.NP0}, {GLFW.GLFW_KEY_KP_1, Key.NP1},
-            {GLFW.GLFW_KEY_KP_2, Key.NP2}, {GLFW.GLFW_KEY_KP_3, Key.NP3}, {GLFW.GLFW_KEY_KP_4, Key.NP4},
-            {GLFW.GLFW_KEY_KP_5, Key.NP5}, {GLFW.GLFW_KEY_KP_6, Key.NP6}, {GLFW.GLFW_KEY_KP_7, Key.NP7},
-            {GLFW.GLFW_KEY_KP_8, Key.NP8}, {GLFW.GLFW_KEY_KP_9, Key.NP9}, {GLFW.GLFW_KEY_KP_MULTIPLY, Key.NP_MUL},
-            {GLFW.GLFW_KEY_KP_DIVIDE, Key.NP_ADD}, {GLFW.GLFW_KEY_KP_ADD, Key.NP_ADD},
-            {GLFW.GLFW_KEY_KP_SUBTRACT, Key.NP_SUB}, {GLFW.GLFW_KEY_KP_DECIMAL, Key.NP_DECIMAL},
-            {GLFW.GLFW_KEY_PERIOD, Key.PERIOD},
-    }).collect(Collectors.collectingAndThen(Collectors.toMap(data -> (Integer)data[0], data -> (Key)data[1]), Collections::<Integer, Key>unmodifiableMap));
+    // indexed by GLFW key code, the letter, digit, function and keypad keys are consecutive in both
+    private static final Key[] keyMap = new Key[GLFW.GLFW_KEY_LAST + 1];
+    static {
+        Arrays.fill(keyMap, Key.NONE);
+        MapKeys(GLFW.GLFW_KEY_A, Key.A, 26);
+        MapKeys(GLFW.GLFW_KEY_0, Key.K0, 10);
+        MapKeys(GLFW.GLFW_KEY_F1, Key.F1, 12);
+        MapKeys(GLFW.GLFW_KEY_KP_0, Key.NP0, 10);
+        keyMap[GLFW.GLFW_KEY_UP] = Key.UP;
+        keyMap[GLFW.GLFW_KEY_DOWN] = Key.DOWN;
+        keyMap[GLFW.GLFW_KEY_LEFT] = Key.LEFT;
+        keyMap[GLFW.GLFW_KEY_RIGHT] = Key.RIGHT;
+        keyMap[GLFW.GLFW_KEY_SPACE] = Key.SPACE;
+        keyMap[GLFW.GLFW_KEY_TAB] = Key.TAB;
+        keyMap[GLFW.GLFW_KEY_LEFT_SHIFT] = Key.SHIFT;
+        keyMap[GLFW.GLFW_KEY_RIGHT_SHIFT] = Key.SHIFT;
+        keyMap[GLFW.GLFW_KEY_LEFT_CONTROL] = Key.CTRL;
+        keyMap[GLFW.GLFW_KEY_RIGHT_CONTROL] = Key.CTRL;
+        keyMap[GLFW.GLFW_KEY_INSERT] = Key.INS;
+        keyMap[GLFW.GLFW_KEY_DELETE] = Key.DEL;
+        keyMap[GLFW.GLFW_KEY_HOME] = Key.HOME;
+        keyMap[GLFW.GLFW_KEY_END] = Key.END;
+        keyMap[GLFW.GLFW_KEY_PAGE_UP] = Key.PGUP;
+        keyMap[GLFW.GLFW_KEY_PAGE_DOWN] = Key.PGDN;
+        keyMap[GLFW.GLFW_KEY_BACKSPACE] = Key.BACK;
+        keyMap[GLFW.GLFW_KEY_ESCAPE] = Key.ESCAPE;
+        keyMap[GLFW.GLFW_KEY_ENTER] = Key.RETURN;
+        keyMap[GLFW.GLFW_KEY_KP_ENTER] = Key.ENTER;
+        keyMap[GLFW.GLFW_KEY_PAUSE] = Key.PAUSE;
+        keyMap[GLFW.GLFW_KEY_SCROLL_LOCK] = Key.SCROLL;
+        keyMap[GLFW.GLFW_KEY_KP_MULTIPLY] = Key.NP_MUL;
+        keyMap[GLFW.GLFW_KEY_KP_DIVIDE] = Key.NP_DIV;
+        keyMap[GLFW.GLFW_KEY_KP_ADD] = Key.NP_ADD;
+        keyMap[GLFW.GLFW_KEY_KP_SUBTRACT] = Key.NP_SUB;
+        keyMap[GLFW.GLFW_KEY_KP_DECIMAL] = Key.NP_DECIMAL;
+        keyMap[GLFW.GLFW_KEY_PERIOD] = Key.PERIOD;
+    }
+    
+    private static void MapKeys(int first, Key firstKey, int count) {
+        Key[] keys = Key.values();
+        for (int i = 0; i < count; i++)
+            keyMap[first + i] = keys[firstKey.ordinal() + i];
+    }
     
     private LayerDesc layer;
+    // indexed by layer id, deleted layers leave a null behind so ids stay stable
     private List<LayerDesc> layers;
+    private LayerDesc[] drawOrder = new LayerDesc[0];
+    private boolean drawOrderDirty;
+    
+    // lowest order first, ties put newer layers further back
+    private static final Comparator<LayerDesc> layerOrder = (a, b) -> a.order != b.order ? Integer.compare(a.order, b.order) : Integer.compare(b.id, a.id);
+    
+    private final List<ParticleBatch> particleBatches = new ArrayList<>();
+    private int particleBatchesUsed;
+    private final List<QuadBatch> quadBatches = new ArrayList<>();
+    private int quadBatchesUsed;
+    
+    // x, y as floats followed by the packed colour
+    private static final int PRIMITIVE_STRIDE = 12;
+    private ByteBuffer primitiveVertices;
+    
+    // indexed by draw list id like the layers
+    private final List<DrawListDesc> drawLists = new ArrayList<>();
+    
+    // TrueType glyphs of every font share one indexed atlas, its palette maps coverage to white with that alpha
+    private static final int GLYPH_ATLAS_SIZE = 1024;
+    private final List<FontDesc> fonts = new ArrayList<>();
+    private Sprite glyphAtlas;
+    private Palette glyphPalette;
+    // access ordered, so iteration starts at the least recently drawn glyph
+    private final LinkedHashMap<Long, Glyph> glyphs = new LinkedHashMap<>(256, .75f, true);
+    // cells of deleted fonts, reused by fonts with the same cell size
+    private final List<Glyph> freeGlyphCells = new ArrayList<>();
+    private final List<GlyphShelf> glyphShelves = new ArrayList<>();
+    private int glyphShelvesHeight;
+    // bumped by every string, glyphs it has drawn are never evicted while it is being drawn
+    private long glyphStamp;
+    private ByteBuffer glyphBitmap;
+    private ByteBuffer glyphVertices;
+    
+    // indexed by pass id like the layers, run in id order
+    private final List<PostPass> postPasses = new ArrayList<>();
+    // a ping-pong pair of targets per resolution divisor, the scene is composited into the first one at divisor 1
+    private final Map<Integer, RenderTarget[]> postTargets = new HashMap<>();
+    private int postCopyProgram;
+    private long postStartTime;
+    
+    private final Map<Integer, Integer> targetFramebuffers = new HashMap<>();
+    // width << 32 | height of the RGBA8 storage allocated for each sprite texture
+    private final Map<Integer, Long> spriteStorage = new HashMap<>();
+    private Sprite drawTarget;
+    
+    private Pixel.Mode pixelMode = Pixel.Mode.ALPHA;
+    private int blendSrc = GL32.GL_SRC_ALPHA;
+    private int blendDst = GL32.GL_ONE_MINUS_SRC_ALPHA;
+    private Pixel.Mode appliedMode;
+    private int appliedSrc;
+    private int appliedDst;
     
     @Override
     public int CreateLayer() {
+        // by default newer layers go behind the older ones
+        return CreateLayer(-layers.size(), 1);
+    }
+    
+    @Override
+    public int CreateLayer(int order, int divisor) {
+        if (divisor < 1)
+            throw new IllegalArgumentException("Layer resolution divisor must be at least 1");
         int id = layers.size();
         
         int bufferID = GL32.glGenFramebuffers();
@@ -116,21 +375,87 @@ public final class PGEBackendImpl extends PGEBackend {
         
         int texID = GL32.glGenTextures();
         
-        GL32.glBindTexture(GL32.GL_TEXTURE_2D, texID);
-        GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_RGBA8, screenSize.x, screenSize.y, 0, GL32.GL_RGBA, GL32.GL_UNSIGNED_BYTE, 0);
-        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MAG_FILTER, GL32.GL_NEAREST);
-        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MIN_FILTER, GL32.GL_NEAREST);
-        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+        LayerDesc desc = new LayerDesc(texID, bufferID, id);
+        desc.order = order;
+        desc.divisor = divisor;
+        AllocateLayer(desc);
         
         GL32.glFramebufferTexture(GL32.GL_FRAMEBUFFER, GL32.GL_COLOR_ATTACHMENT0, texID, 0);
         
         if (GL32.glCheckFramebufferStatus(GL32.GL_FRAMEBUFFER) != GL32.GL_FRAMEBUFFER_COMPLETE) throw new IllegalStateException("Couldn't create framebuffer");
         
-        layer = new LayerDesc(texID, bufferID, id);
+        layer = desc;
         layers.add(layer);
+        drawOrderDirty = true;
+        BindLayer(layer);
         return id;
     }
     
+    private void AllocateLayer(LayerDesc desc) {
+        desc.size = new VI2D((renderSize.x + desc.divisor - 1) / desc.divisor, (renderSize.y + desc.divisor - 1) / desc.divisor);
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, desc.texID);
+        GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_RGBA8, desc.size.x, desc.size.y, 0, GL32.GL_RGBA, GL32.GL_UNSIGNED_BYTE, 0);
+        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MAG_FILTER, desc.size.x < screenSize.x ? GL32.GL_LINEAR : GL32.GL_NEAREST);
+        ApplyLayerMinFilter(desc);
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+        desc.dirty = true;
+    }
+    
+    // moves a layer to storage of its new size and scales the old contents into it, so a
+    // layer that is only drawn once or when dirty survives a render scale change
+    private void ResizeLayer(LayerDesc desc) {
+        int bound = GL32.glGetInteger(GL32.GL_FRAMEBUFFER_BINDING);
+        int oldTexture = desc.texID;
+        int oldFramebuffer = desc.frambufferID;
+        VI2D oldSize = desc.size;
+        
+        desc.texID = GL32.glGenTextures();
+        desc.frambufferID = GL32.glGenFramebuffers();
+        AllocateLayer(desc);
+        GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, desc.frambufferID);
+        GL32.glFramebufferTexture(GL32.GL_FRAMEBUFFER, GL32.GL_COLOR_ATTACHMENT0, desc.texID, 0);
+        
+        GL32.glBindFramebuffer(GL32.GL_READ_FRAMEBUFFER, oldFramebuffer);
+        GL32.glBlitFramebuffer(0, 0, oldSize.x, oldSize.y, 0, 0, desc.size.x, desc.size.y, GL32.GL_COLOR_BUFFER_BIT, GL32.GL_LINEAR);
+        GL32.glDeleteFramebuffers(oldFramebuffer);
+        GL32.glDeleteTextures(oldTexture);
+        GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, bound == oldFramebuffer ? desc.frambufferID : bound);
+    }
+    
+    // low resolution layers are magnified linearly, so they also blend between mip levels
+    private void ApplyLayerMinFilter(LayerDesc desc) {
+        int filter = GL32.GL_NEAREST;
+        if (desc.mipmaps)
+            filter = desc.size.x < screenSize.x ? GL32.GL_LINEAR_MIPMAP_LINEAR : GL32.GL_NEAREST_MIPMAP_NEAREST;
+        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MIN_FILTER, filter);
+    }
+    
+    private void BindLayer(LayerDesc desc) {
+        GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, desc.frambufferID);
+        GL32.glViewport(0, 0, desc.size.x, desc.size.y);
+        desc.dirty = true;
+    }
+    
+    private LayerDesc Layer(int id) {
+        LayerDesc desc = id >= 0 && id < layers.size() ? layers.get(id) : null;
+        if (desc == null)
+            throw new IllegalArgumentException("Layer " + id + " does not exist");
+        return desc;
+    }
+    
+    @Override
+    public void DeleteLayer(int id) {
+        if (id == 0)
+            throw new IllegalArgumentException("The base layer can't be deleted");
+        LayerDesc desc = Layer(id);
+        GL32.glDeleteFramebuffers(desc.frambufferID);
+        GL32.glDeleteTextures(desc.texID);
+        layers.set(id, null);
+        drawOrderDirty = true;
+        if (layer == desc)
+            SetLayer(0);
+    }
+    
     @Override
     public int GetLayer() {
         return layer.id;
@@ -138,28 +463,200 @@ public final class PGEBackendImpl extends PGEBackend {
     
     @Override
     public void SetLayer(int layer) {
-        this.layer = layers.get(layer);
-        GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, this.layer.frambufferID);
+        this.layer = Layer(layer);
+        if (drawTarget != null)
+            SetDrawTarget(null);
+        else
+            BindLayer(this.layer);
     }
     
     @Override
     public void EnableLayer(int layer, boolean b) {
-        layers.get(layer).bShow = b;
+        Layer(layer).bShow = b;
     }
     
     @Override
     public void SetLayerOffset(int layer, float x, float y) {
-        layers.get(layer).offset = new VF2D(x, y);
+        Layer(layer).offset = new VF2D(x, y);
     }
     
     @Override
     public void SetLayerScale(int layer, float x, float y) {
-        layers.get(layer).scale = new VF2D(x, y);
+        Layer(layer).scale = new VF2D(x, y);
     }
     
     @Override
     public void SetLayerTint(int layer, Pixel tint) {
-        layers.get(layer).tint = tint;
+        Layer(layer).tint = tint;
+    }
+    
+    @Override
+    public void SetLayerBlend(int layer, Pixel.Mode mode) {
+        if (mode == Pixel.Mode.CUSTOM)
+            throw new IllegalArgumentException("Layers can't blend with custom factors");
+        Layer(layer).blend = mode;
+    }
+    
+    @Override
+    public void SetLayerOrder(int layer, int order) {
+        Layer(layer).order = order;
+        drawOrderDirty = true;
+    }
+    
+    @Override
+    public int GetLayerOrder(int layer) {
+        return Layer(layer).order;
+    }
+    
+    @Override
+    public void SetLayerResolution(int layer, int divisor) {
+        if (divisor < 1)
+            throw new IllegalArgumentException("Layer resolution divisor must be at least 1");
+        LayerDesc desc = Layer(layer);
+        if (desc.divisor == divisor)
+            return;
+        desc.divisor = divisor;
+        ResizeLayer(desc);
+        if (desc == this.layer && drawTarget == null)
+            BindLayer(desc);
+    }
+    
+    @Override
+    public void EnableLayerMipmaps(int layer, boolean enable) {
+        LayerDesc desc = Layer(layer);
+        desc.mipmaps = enable;
+        desc.dirty = true;
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, desc.texID);
+        ApplyLayerMinFilter(desc);
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+    }
+    
+    @Override
+    public void SetDrawTarget(Sprite target) {
+        if (drawTarget != null && drawTarget.isMipmapped()) {
+            GL32.glBindTexture(GL32.GL_TEXTURE_2D, drawTarget.getId());
+            GL32.glGenerateMipmap(GL32.GL_TEXTURE_2D);
+            GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+        }
+        drawTarget = target;
+        GL32.glLoadIdentity();
+        if (target == null) {
+            BindLayer(layer);
+            GL32.glOrtho(0, screenSize.x, screenSize.y, 0, -1, 1);
+            return;
+        }
+        
+        Integer bufferID = targetFramebuffers.get(target.getId());
+        if (bufferID == null) {
+            MakeSprite(target, target.getWidth(), target.getHeight());
+            bufferID = GL32.glGenFramebuffers();
+            GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, bufferID);
+            GL32.glFramebufferTexture(GL32.GL_FRAMEBUFFER, GL32.GL_COLOR_ATTACHMENT0, target.getId(), 0);
+            if (GL32.glCheckFramebufferStatus(GL32.GL_FRAMEBUFFER) != GL32.GL_FRAMEBUFFER_COMPLETE) throw new IllegalStateException("Couldn't create framebuffer");
+            targetFramebuffers.put(target.getId(), bufferID);
+        } else {
+            GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, bufferID);
+        }
+        GL32.glViewport(0, 0, target.getWidth(), target.getHeight());
+        // bottom-up so the texture ends up with the same orientation as a loaded sprite
+        GL32.glOrtho(0, target.getWidth(), 0, target.getHeight(), -1, 1);
+    }
+    
+    @Override
+    public void SetPixelMode(Pixel.Mode mode, Pixel.BlendFactor src, Pixel.BlendFactor dst) {
+        pixelMode = mode;
+        blendSrc = GLBlendFactor(src);
+        blendDst = GLBlendFactor(dst);
+        ApplyPixelMode(pixelMode, blendSrc, blendDst);
+    }
+    
+    @Override
+    public Pixel.Mode GetPixelMode() {
+        return pixelMode;
+    }
+    
+    private static int GLBlendFactor(Pixel.BlendFactor factor) {
+        switch (factor) {
+            case ZERO:                return GL32.GL_ZERO;
+            case ONE:                 return GL32.GL_ONE;
+            case SRC_COLOR:           return GL32.GL_SRC_COLOR;
+            case ONE_MINUS_SRC_COLOR: return GL32.GL_ONE_MINUS_SRC_COLOR;
+            case DST_COLOR:           return GL32.GL_DST_COLOR;
+            case ONE_MINUS_DST_COLOR: return GL32.GL_ONE_MINUS_DST_COLOR;
+            case SRC_ALPHA:           return GL32.GL_SRC_ALPHA;
+            case ONE_MINUS_SRC_ALPHA: return GL32.GL_ONE_MINUS_SRC_ALPHA;
+            case DST_ALPHA:           return GL32.GL_DST_ALPHA;
+            case ONE_MINUS_DST_ALPHA: return GL32.GL_ONE_MINUS_DST_ALPHA;
+            default:                  throw new IllegalArgumentException("Unknown blend factor " + factor);
+        }
+    }
+    
+    private void ApplyPixelMode(Pixel.Mode mode, int src, int dst) {
+        if (mode == appliedMode && src == appliedSrc && dst == appliedDst)
+            return;
+        appliedMode = mode;
+        appliedSrc = src;
+        appliedDst = dst;
+        switch (mode) {
+            case NORMAL:
+                GL32.glDisable(GL32.GL_BLEND);
+                GL32.glDisable(GL32.GL_ALPHA_TEST);
+                break;
+            case MASK:
+                GL32.glDisable(GL32.GL_BLEND);
+                GL32.glEnable(GL32.GL_ALPHA_TEST);
+                GL32.glAlphaFunc(GL32.GL_GEQUAL, 1.f);
+                break;
+            case ALPHA:
+                GL32.glEnable(GL32.GL_BLEND);
+                GL32.glDisable(GL32.GL_ALPHA_TEST);
+                GL32.glBlendFunc(GL32.GL_SRC_ALPHA, GL32.GL_ONE_MINUS_SRC_ALPHA);
+                break;
+            case ADDITIVE:
+                GL32.glEnable(GL32.GL_BLEND);
+                GL32.glDisable(GL32.GL_ALPHA_TEST);
+                GL32.glBlendFunc(GL32.GL_SRC_ALPHA, GL32.GL_ONE);
+                break;
+            case MULTIPLY:
+                // fully transparent texels would otherwise multiply the destination by their colour
+                GL32.glEnable(GL32.GL_BLEND);
+                GL32.glEnable(GL32.GL_ALPHA_TEST);
+                GL32.glAlphaFunc(GL32.GL_GREATER, 0.f);
+                GL32.glBlendFunc(GL32.GL_DST_COLOR, GL32.GL_ZERO);
+                break;
+            case CUSTOM:
+                GL32.glEnable(GL32.GL_BLEND);
+                GL32.glDisable(GL32.GL_ALPHA_TEST);
+                GL32.glBlendFunc(src, dst);
+                break;
+        }
+    }
+    
+    private void AddDecal(DecalInstance di) {
+        di.mode = pixelMode;
+        di.blendSrc = blendSrc;
+        di.blendDst = blendDst;
+        di.pickId = pickId;
+        layer.decals.add(di);
+    }
+    
+    // sprites are drawn into the layer right away, so their outline is kept for the pick pass
+    private void AddPickSprite(Sprite sprite, float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2) {
+        if (pickId == 0 || pickTarget == null || drawTarget != null)
+            return;
+        DecalInstance di = new DecalInstance();
+        di.pickOnly = true;
+        di.pickSprite = sprite;
+        di.pickId = pickId;
+        di.pos[0] = new VF2D(x1, y1);
+        di.pos[1] = new VF2D(x2, y1);
+        di.pos[2] = new VF2D(x2, y2);
+        di.pos[3] = new VF2D(x1, y2);
+        di.uv[0] = new VF2D(u1, v1);
+        di.uv[1] = new VF2D(u2, v1);
+        di.uv[2] = new VF2D(u2, v2);
+        di.uv[3] = new VF2D(u1, v2);
+        layer.decals.add(di);
     }
     
     @Override
@@ -174,6 +671,7 @@ public final class PGEBackendImpl extends PGEBackend {
         GL32.glColor4ub(p.r, p.g, p.b, p.a);
         GL32.glVertex2f(x+.5f, y+.5f);
         GL32.glEnd();
+        stats.drawCalls++;
     }
     
     @Override
@@ -183,6 +681,7 @@ public final class PGEBackendImpl extends PGEBackend {
         GL32.glVertex2f(x1+.5f, y1+.5f);
         GL32.glVertex2f(x2+.5f, y2+.5f);
         GL32.glEnd();
+        stats.drawCalls++;
     }
     
     @Override
@@ -254,6 +753,7 @@ public final class PGEBackendImpl extends PGEBackend {
         GL32.glVertex2f(nx2, ny2);
         GL32.glVertex2f(nx1, ny2);
         GL32.glEnd();
+        stats.drawCalls++;
     }
     
     @Override
@@ -267,6 +767,7 @@ public final class PGEBackendImpl extends PGEBackend {
         GL32.glVertex2i(nx, ny);
         GL32.glVertex2i(x, ny);
         GL32.glEnd();
+        stats.drawCalls++;
     }
     
     @Override
@@ -277,6 +778,7 @@ public final class PGEBackendImpl extends PGEBackend {
         GL32.glVertex2f(x2+.5f, y2+.5f);
         GL32.glVertex2f(x3+.5f, y3+.5f);
         GL32.glEnd();
+        stats.drawCalls++;
     }
     
     @Override
@@ -287,6 +789,117 @@ public final class PGEBackendImpl extends PGEBackend {
         GL32.glVertex2i(x2, y2);
         GL32.glVertex2i(x3, y3);
         GL32.glEnd();
+        stats.drawCalls++;
+    }
+    
+    @Override
+    public void DrawPoints(IntBuffer xy, IntBuffer rgba, int count) {
+        if (count <= 0)
+            return;
+        ByteBuffer vertices = PrimitiveVertices(count);
+        int c = xy.position();
+        for (int i = 0, o = 0; i < count; i++, c += 2)
+            o = PutPrimitiveVertex(vertices, o, xy.get(c) + .5f, xy.get(c + 1) + .5f, PrimitiveColour(rgba, i));
+        RenderPrimitives(GL32.GL_POINTS, count);
+    }
+    
+    @Override
+    public void DrawLines(IntBuffer xy, IntBuffer rgba, int count) {
+        if (count <= 0)
+            return;
+        ByteBuffer vertices = PrimitiveVertices(count * 2);
+        int c = xy.position();
+        for (int i = 0, o = 0; i < count; i++, c += 4) {
+            int colour = PrimitiveColour(rgba, i);
+            o = PutPrimitiveVertex(vertices, o, xy.get(c) + .5f, xy.get(c + 1) + .5f, colour);
+            o = PutPrimitiveVertex(vertices, o, xy.get(c + 2) + .5f, xy.get(c + 3) + .5f, colour);
+        }
+        // GL_LINES leaves out the last pixel, so the end points are drawn again as points
+        RenderPrimitives(GL32.GL_LINES, count * 2);
+        RenderPrimitives(GL32.GL_POINTS, count * 2);
+    }
+    
+    @Override
+    public void DrawPolyline(IntBuffer xy, int count, Pixel p) {
+        if (count <= 0)
+            return;
+        ByteBuffer vertices = PrimitiveVertices(count);
+        int colour = PackColour(p.toRGBA());
+        int c = xy.position();
+        for (int i = 0, o = 0; i < count; i++, c += 2)
+            o = PutPrimitiveVertex(vertices, o, xy.get(c) + .5f, xy.get(c + 1) + .5f, colour);
+        RenderPrimitives(GL32.GL_LINE_STRIP, count);
+        RenderPrimitives(GL32.GL_POINTS, count);
+    }
+    
+    @Override
+    public void FillRects(IntBuffer rects, IntBuffer rgba, int count) {
+        if (count <= 0)
+            return;
+        ByteBuffer vertices = PrimitiveVertices(count * 4);
+        int c = rects.position();
+        for (int i = 0, o = 0; i < count; i++, c += 4) {
+            int colour = PrimitiveColour(rgba, i);
+            float x1 = rects.get(c), y1 = rects.get(c + 1);
+            float x2 = x1 + rects.get(c + 2), y2 = y1 + rects.get(c + 3);
+            o = PutPrimitiveVertex(vertices, o, x1, y1, colour);
+            o = PutPrimitiveVertex(vertices, o, x2, y1, colour);
+            o = PutPrimitiveVertex(vertices, o, x2, y2, colour);
+            o = PutPrimitiveVertex(vertices, o, x1, y2, colour);
+        }
+        RenderPrimitives(GL32.GL_QUADS, count * 4);
+    }
+    
+    @Override
+    public void FillTriangles(IntBuffer xy, IntBuffer rgba, int count) {
+        if (count <= 0)
+            return;
+        ByteBuffer vertices = PrimitiveVertices(count * 3);
+        int c = xy.position();
+        for (int i = 0, o = 0; i < count; i++, c += 6) {
+            int colour = PrimitiveColour(rgba, i);
+            o = PutPrimitiveVertex(vertices, o, xy.get(c), xy.get(c + 1), colour);
+            o = PutPrimitiveVertex(vertices, o, xy.get(c + 2), xy.get(c + 3), colour);
+            o = PutPrimitiveVertex(vertices, o, xy.get(c + 4), xy.get(c + 5), colour);
+        }
+        RenderPrimitives(GL32.GL_TRIANGLES, count * 3);
+    }
+    
+    // the shared vertex stream of the bulk primitives, grown as needed and never shrunk
+    private ByteBuffer PrimitiveVertices(int vertices) {
+        int bytes = vertices * PRIMITIVE_STRIDE;
+        if (primitiveVertices == null)
+            primitiveVertices = MemoryUtil.memAlloc(bytes);
+        else if (primitiveVertices.capacity() < bytes)
+            primitiveVertices = MemoryUtil.memRealloc(primitiveVertices, bytes);
+        return primitiveVertices;
+    }
+    
+    private static int PackColour(int rgba) {
+        return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? Integer.reverseBytes(rgba) : rgba;
+    }
+    
+    private static int PrimitiveColour(IntBuffer rgba, int i) {
+        return rgba != null ? PackColour(rgba.get(rgba.position() + i)) : 0xffffffff;
+    }
+    
+    private static int PutPrimitiveVertex(ByteBuffer vertices, int o, float x, float y, int colour) {
+        vertices.putFloat(o, x);
+        vertices.putFloat(o + 4, y);
+        vertices.putInt(o + 8, colour);
+        return o + PRIMITIVE_STRIDE;
+    }
+    
+    private void RenderPrimitives(int mode, int vertices) {
+        long address = MemoryUtil.memAddress(primitiveVertices);
+        GL32.glEnableClientState(GL32.GL_VERTEX_ARRAY);
+        GL32.glEnableClientState(GL32.GL_COLOR_ARRAY);
+        GL32.glVertexPointer(2, GL32.GL_FLOAT, PRIMITIVE_STRIDE, address);
+        GL32.glColorPointer(4, GL32.GL_UNSIGNED_BYTE, PRIMITIVE_STRIDE, address + 8);
+        GL32.glDrawArrays(mode, 0, vertices);
+        stats.drawCalls++;
+        GL32.glDisableClientState(GL32.GL_COLOR_ARRAY);
+        GL32.glDisableClientState(GL32.GL_VERTEX_ARRAY);
     }
     
     @Override
@@ -313,7 +926,7 @@ public final class PGEBackendImpl extends PGEBackend {
                 v1 = 1;
         }
         GL32.glColor4f(1, 1, 1, 1);
-        GL32.glBindTexture(GL32.GL_TEXTURE_2D, sprite.getId());
+        BindSprite(sprite);
         GL32.glBegin(GL32.GL_QUADS);
         GL32.glTexCoord2f(u1, v1);
         GL32.glVertex2i(x, y);
@@ -324,7 +937,9 @@ public final class PGEBackendImpl extends PGEBackend {
         GL32.glTexCoord2f(u1, v2);
         GL32.glVertex2i(x, y + sprite.getHeight() * scale);
         GL32.glEnd();
-        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+        stats.drawCalls++;
+        BindSprite(null);
+        AddPickSprite(sprite, x, y, x + sprite.getWidth() * scale, y + sprite.getHeight() * scale, u1, v1, u2, v2);
     }
     
     @Override
@@ -342,7 +957,7 @@ public final class PGEBackendImpl extends PGEBackend {
         di.pos[2] = new VF2D(pos.x+w, pos.y+h);
         di.pos[3] = new VF2D(pos.x, pos.y+h);
         di.tint[0] = tint;
-        layer.decals.add(di);
+        AddDecal(di);
     }
     
     @Override
@@ -370,7 +985,7 @@ public final class PGEBackendImpl extends PGEBackend {
         di.uv[1] = new VF2D(u1, v2);
         di.uv[2] = new VF2D(u2, v2);
         di.uv[3] = new VF2D(u2, v1);
-        layer.decals.add(di);
+        AddDecal(di);
     }
     
     @Override
@@ -398,7 +1013,7 @@ public final class PGEBackendImpl extends PGEBackend {
         di.uv[1] = new VF2D(u1, v2);
         di.uv[2] = new VF2D(u2, v2);
         di.uv[3] = new VF2D(u2, v1);
-        layer.decals.add(di);
+        AddDecal(di);
     }
     
     @Override
@@ -408,7 +1023,7 @@ public final class PGEBackendImpl extends PGEBackend {
         di.pos = pos;
         di.uv = uv;
         di.tint = col;
-        layer.decals.add(di);
+        AddDecal(di);
     }
     
     @Override
@@ -429,7 +1044,7 @@ public final class PGEBackendImpl extends PGEBackend {
                 di.uv[i] = di.uv[i].multiply(q); di.w[i] *= q;
                 di.pos[i] = new VF2D(pos[i]);
             }
-            layer.decals.add(di);
+            AddDecal(di);
         }
     }
     
@@ -461,7 +1076,7 @@ public final class PGEBackendImpl extends PGEBackend {
                 di.uv[i] = di.uv[i].multiply(q); di.w[i] *= q;
                 di.pos[i] = new VF2D(pos[i]);
             }
-            layer.decals.add(di);
+            AddDecal(di);
         }
     }
     
@@ -482,111 +1097,1007 @@ public final class PGEBackendImpl extends PGEBackend {
     }
     
     @Override
-    public VI2D GetTextSize(String text) {
-        return null;
+    public void DrawParticles(Decal decal, float[] x, float[] y, int[] rgba, int count, float size) {
+        if (count <= 0)
+            return;
+        
+        if (particleBatchesUsed == particleBatches.size())
+            particleBatches.add(new ParticleBatch());
+        ParticleBatch batch = particleBatches.get(particleBatchesUsed++);
+        
+        int bytes = count * ParticleBatch.STRIDE;
+        if (batch.vertices == null)
+            batch.vertices = MemoryUtil.memAlloc(bytes);
+        else if (batch.vertices.capacity() < bytes)
+            batch.vertices = MemoryUtil.memRealloc(batch.vertices, bytes);
+        
+        ByteBuffer vertices = batch.vertices;
+        boolean swap = vertices.order() == ByteOrder.LITTLE_ENDIAN;
+        for (int i = 0, o = 0; i < count; i++, o += ParticleBatch.STRIDE) {
+            vertices.putFloat(o, x[i]);
+            vertices.putFloat(o + 4, y[i]);
+            vertices.putInt(o + 8, swap ? Integer.reverseBytes(rgba[i]) : rgba[i]);
+        }
+        batch.decal = decal;
+        batch.size = size;
+        batch.count = count;
+        
+        DecalInstance di = new DecalInstance();
+        di.decal = decal;
+        di.particles = batch;
+        AddDecal(di);
     }
     
     @Override
-    public void DrawString(int x, int y, String sText, Pixel col, int scale) {
-        int sx = 0;
-        int sy = 0;
-        GL32.glBindTexture(GL32.GL_TEXTURE_2D, fontSprite.getId());
-        GL32.glBegin(GL32.GL_QUADS);
-        GL32.glColor4ub(col.r, col.g, col.b, col.a);
-        for (char c : sText.toCharArray()) {
-            if (c == '\n') {
-                sx = 0;
-                sy += 8 * scale;
-            } else {
-                int ox = (c - 32) % 16;
-                int oy = (c - 32) / 16;
-                
-                GL32.glTexCoord2f((ox) / 16.f, (oy) / 6.f); GL32.glVertex2i(x+sx, y+sy);
-                GL32.glTexCoord2f((ox+1) / 16.f, (oy) / 6.f); GL32.glVertex2i(x+sx+8, y+sy);
-                GL32.glTexCoord2f((ox+1) / 16.f, (oy+1) / 6.f); GL32.glVertex2i(x+sx+8, y+sy+8);
-                GL32.glTexCoord2f((ox) / 16.f, (oy+1) / 6.f); GL32.glVertex2i(x+sx, y+sy+8);
-                
-                sx += 8 * scale;
-            }
+    public void DrawDecalQuads(Decal decal, float[] rects, float[] uvs, int[] rgba, int count) {
+        if (count <= 0)
+            return;
+        
+        QuadBatch batch = NextQuadBatch(decal, count);
+        ByteBuffer vertices = batch.vertices;
+        boolean swap = vertices.order() == ByteOrder.LITTLE_ENDIAN;
+        for (int i = 0, o = 0; i < count; i++) {
+            int r = i * 4;
+            float x1 = rects[r], y1 = rects[r + 1];
+            float x2 = x1 + rects[r + 2], y2 = y1 + rects[r + 3];
+            float u1 = uvs[r], v1 = uvs[r + 1], u2 = uvs[r + 2], v2 = uvs[r + 3];
+            int colour = swap ? Integer.reverseBytes(rgba[i]) : rgba[i];
+            o = PutQuad(vertices, o, x1, y1, x2, y2, u1, v1, u2, v2, colour);
         }
-        GL32.glEnd();
-        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+        SubmitQuads(batch);
     }
     
     @Override
-    public void DrawStringDecal(VF2D pos, String sText, Pixel col, VF2D scale) {
+    public void DrawDecalInstances(Decal decal, float[] xy, float[] scale, int[] rgba, int count) {
+        if (count <= 0)
+            return;
+        
+        QuadBatch batch = NextQuadBatch(decal, count);
+        ByteBuffer vertices = batch.vertices;
+        boolean swap = vertices.order() == ByteOrder.LITTLE_ENDIAN;
+        // a null decal draws untextured unit quads, like the other batched paths
+        float w = decal != null ? decal.getSprite().getWidth() : 1, h = decal != null ? decal.getSprite().getHeight() : 1;
+        int white = swap ? Integer.reverseBytes(Pixel.WHITE.toRGBA()) : Pixel.WHITE.toRGBA();
+        for (int i = 0, o = 0; i < count; i++) {
+            float x1 = xy[i * 2], y1 = xy[i * 2 + 1];
+            float s = scale != null ? scale[i] : 1;
+            int colour = rgba == null ? white : swap ? Integer.reverseBytes(rgba[i]) : rgba[i];
+            o = PutQuad(vertices, o, x1, y1, x1 + w * s, y1 + h * s, 0, 0, 1, 1, colour);
+        }
+        SubmitQuads(batch);
     }
     
     @Override
-    public int CreateSprite() {
-        return GL32.glGenTextures();
+    public void DrawDecalInstances(Decal decal, FloatBuffer xy, FloatBuffer scale, IntBuffer rgba, int count) {
+        if (count <= 0)
+            return;
+        
+        QuadBatch batch = NextQuadBatch(decal, count);
+        ByteBuffer vertices = batch.vertices;
+        boolean swap = vertices.order() == ByteOrder.LITTLE_ENDIAN;
+        // a null decal draws untextured unit quads, like the other batched paths
+        float w = decal != null ? decal.getSprite().getWidth() : 1, h = decal != null ? decal.getSprite().getHeight() : 1;
+        int white = swap ? Integer.reverseBytes(Pixel.WHITE.toRGBA()) : Pixel.WHITE.toRGBA();
+        // absolute reads, so the caller's buffer positions stay where they were
+        int xyBase = xy.position();
+        int scaleBase = scale != null ? scale.position() : 0;
+        int rgbaBase = rgba != null ? rgba.position() : 0;
+        for (int i = 0, o = 0; i < count; i++) {
+            float x1 = xy.get(xyBase + i * 2), y1 = xy.get(xyBase + i * 2 + 1);
+            float s = scale != null ? scale.get(scaleBase + i) : 1;
+            int colour = white;
+            if (rgba != null)
+                colour = swap ? Integer.reverseBytes(rgba.get(rgbaBase + i)) : rgba.get(rgbaBase + i);
+            o = PutQuad(vertices, o, x1, y1, x1 + w * s, y1 + h * s, 0, 0, 1, 1, colour);
+        }
+        SubmitQuads(batch);
     }
     
-    @Override
-    public void MakeSprite(Sprite sprite, int width, int height) {
-        GL32.glBindTexture(GL32.GL_TEXTURE_2D, sprite.getId());
-        GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_RGBA8, width, height, 0, GL32.GL_RGBA, GL32.GL_UNSIGNED_BYTE, 0);
-        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MAG_FILTER, GL32.GL_NEAREST);
-        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MIN_FILTER, GL32.GL_NEAREST);
-        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+    // takes a pooled batch with room for count quads; the vertices are filled in by the caller
+    private QuadBatch NextQuadBatch(Decal decal, int count) {
+        if (quadBatchesUsed == quadBatches.size())
+            quadBatches.add(new QuadBatch());
+        QuadBatch batch = quadBatches.get(quadBatchesUsed++);
+        
+        int bytes = count * 4 * QuadBatch.STRIDE;
+        if (batch.vertices == null)
+            batch.vertices = MemoryUtil.memAlloc(bytes);
+        else if (batch.vertices.capacity() < bytes)
+            batch.vertices = MemoryUtil.memRealloc(batch.vertices, bytes);
+        batch.decal = decal;
+        batch.count = count;
+        return batch;
     }
     
-    @Override
-    public void LoadSpriteTexture(Sprite sprite, String path, boolean packed) {
-        if (!packed) {
-            int w, h;
-            ByteBuffer image;
-            try (MemoryStack stack = MemoryStack.stackPush()) {
-                IntBuffer width = stack.mallocInt(1);
-                IntBuffer height = stack.mallocInt(1);
-                IntBuffer comp = stack.mallocInt(1);
-                
-                image = STBImage.stbi_load(path, width, height, comp, 4);
-                
-                w = width.get();
-                h = height.get();
-            }
-            sprite.setWidth(w);
-            sprite.setHeight(h);
-            GL32.glBindTexture(GL32.GL_TEXTURE_2D, sprite.getId());
-            GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_RGBA8, w, h, 0, GL32.GL_RGBA, GL32.GL_UNSIGNED_BYTE, image);
-            GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MAG_FILTER, GL32.GL_NEAREST);
-            GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MIN_FILTER, GL32.GL_NEAREST);
+    private void SubmitQuads(QuadBatch batch) {
+        DecalInstance di = new DecalInstance();
+        di.decal = batch.decal;
+        di.quads = batch;
+        AddDecal(di);
+    }
+    
+    private static int PutQuad(ByteBuffer vertices, int o, float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2, int colour) {
+        o = PutQuadVertex(vertices, o, x1, y1, u1, v1, colour);
+        o = PutQuadVertex(vertices, o, x1, y2, u1, v2, colour);
+        o = PutQuadVertex(vertices, o, x2, y2, u2, v2, colour);
+        return PutQuadVertex(vertices, o, x2, y1, u2, v1, colour);
+    }
+    
+    private static int PutQuadVertex(ByteBuffer vertices, int o, float x, float y, float u, float v, int colour) {
+        vertices.putFloat(o, x);
+        vertices.putFloat(o + 4, y);
+        vertices.putFloat(o + 8, u);
+        vertices.putFloat(o + 12, v);
+        vertices.putInt(o + 16, colour);
+        return o + QuadBatch.STRIDE;
+    }
+    
+    private void RenderQuads(QuadBatch batch) {
+        BindSprite(batch.decal != null ? batch.decal.getSprite() : null);
+        RenderQuadVertices(batch.vertices, batch.count);
+    }
+    
+    private void RenderQuadVertices(ByteBuffer vertices, int quads) {
+        long address = MemoryUtil.memAddress(vertices);
+        GL32.glEnableClientState(GL32.GL_VERTEX_ARRAY);
+        GL32.glEnableClientState(GL32.GL_TEXTURE_COORD_ARRAY);
+        GL32.glEnableClientState(GL32.GL_COLOR_ARRAY);
+        GL32.glVertexPointer(2, GL32.GL_FLOAT, QuadBatch.STRIDE, address);
+        GL32.glTexCoordPointer(2, GL32.GL_FLOAT, QuadBatch.STRIDE, address + 8);
+        GL32.glColorPointer(4, GL32.GL_UNSIGNED_BYTE, QuadBatch.STRIDE, address + 16);
+        GL32.glDrawArrays(GL32.GL_QUADS, 0, quads * 4);
+        stats.drawCalls++;
+        GL32.glDisableClientState(GL32.GL_COLOR_ARRAY);
+        GL32.glDisableClientState(GL32.GL_TEXTURE_COORD_ARRAY);
+        GL32.glDisableClientState(GL32.GL_VERTEX_ARRAY);
+    }
+    
+    private void RenderParticles(ParticleBatch batch) {
+        long address = MemoryUtil.memAddress(batch.vertices);
+        // point sprite coordinates only reach the fixed function pipeline, so particles ignore palettes
+        UseProgram(0);
+        GL32.glPointSize(Math.max(1.f, batch.size * windowSize.x / screenSize.x));
+        if (batch.decal != null) {
+            GL32.glBindTexture(GL32.GL_TEXTURE_2D, batch.decal.getId());
+            stats.textureBinds++;
+            GL32.glEnable(GL32.GL_POINT_SPRITE);
+            GL32.glTexEnvi(GL32.GL_POINT_SPRITE, GL32.GL_COORD_REPLACE, GL32.GL_TRUE);
+        } else {
             GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
         }
+        GL32.glEnableClientState(GL32.GL_VERTEX_ARRAY);
+        GL32.glEnableClientState(GL32.GL_COLOR_ARRAY);
+        GL32.glVertexPointer(2, GL32.GL_FLOAT, ParticleBatch.STRIDE, address);
+        GL32.glColorPointer(4, GL32.GL_UNSIGNED_BYTE, ParticleBatch.STRIDE, address + 8);
+        GL32.glDrawArrays(GL32.GL_POINTS, 0, batch.count);
+        stats.drawCalls++;
+        GL32.glDisableClientState(GL32.GL_COLOR_ARRAY);
+        GL32.glDisableClientState(GL32.GL_VERTEX_ARRAY);
+        if (batch.decal != null) {
+            GL32.glTexEnvi(GL32.GL_POINT_SPRITE, GL32.GL_COORD_REPLACE, GL32.GL_FALSE);
+            GL32.glDisable(GL32.GL_POINT_SPRITE);
+        }
+        GL32.glPointSize(1.f);
     }
     
     @Override
-    public void DeleteSprite(Sprite sprite) {
-        GL32.glDeleteTextures(sprite.getId());
+    public int AddPostPass(String fragmentShader, int divisor) {
+        if (divisor < 1)
+            throw new IllegalArgumentException("Post pass resolution divisor must be at least 1");
+        postPasses.add(new PostPass(LinkPostProgram(fragmentShader), divisor));
+        return postPasses.size() - 1;
+    }
+    
+    private PostPass Pass(int id) {
+        PostPass pass = id >= 0 && id < postPasses.size() ? postPasses.get(id) : null;
+        if (pass == null)
+            throw new IllegalArgumentException("Post pass " + id + " does not exist");
+        return pass;
     }
     
     @Override
-    public int CreateDecal(Sprite s) {
-        return s.getId();
+    public void RemovePostPass(int id) {
+        GL32.glDeleteProgram(Pass(id).program);
+        postPasses.set(id, null);
     }
     
     @Override
-    public void DeleteDecal(Decal decal) { }
+    public void EnablePostPass(int id, boolean b) {
+        Pass(id).enabled = b;
+    }
     
     @Override
-    public void Create(int screenW, int screenH, int pixelW, int pixelH, boolean fullScreen, boolean vSync) {
-        GLFW.glfwSetErrorCallback(errorCallback);
-        GLFW.glfwInit();
-        GLFW.glfwWindowHint(GLFW.GLFW_RESIZABLE, GLFW.GLFW_FALSE);
-        
-        this.screenSize = new VI2D(screenW, screenH);
+    public void SetPostPassUniform(int id, String name, float... values) {
+        if (values.length == 0)
+            throw new IllegalArgumentException("Post pass uniform " + name + " needs a value");
+        PostPass pass = Pass(id);
+        for (PostUniform uniform : pass.uniforms) {
+            if (uniform.name.equals(name)) {
+                uniform.values = values.clone();
+                return;
+            }
+        }
+        PostUniform uniform = new PostUniform();
+        uniform.name = name;
+        uniform.location = GL32.glGetUniformLocation(pass.program, name);
+        uniform.values = values.clone();
+        pass.uniforms.add(uniform);
+    }
+    
+    @Override
+    public int CreateDrawList(DrawListGeometry geometry) {
+        DrawListDesc desc = new DrawListDesc();
+        int runs = geometry.getRunCount();
+        desc.sprites = new Sprite[runs];
+        desc.modes = new int[runs];
+        desc.firsts = new int[runs];
+        desc.lengths = new int[runs];
+        for (int i = 0; i < runs; i++) {
+            desc.sprites[i] = geometry.getRunSprite(i);
+            desc.modes[i] = DrawListMode(geometry.getRunMode(i));
+            desc.firsts[i] = geometry.getRunFirst(i);
+            desc.lengths[i] = geometry.getRunLength(i);
+        }
         
-        long monitor = NULL;
-        int width, height;
+        int count = geometry.getVertexCount();
+        if (count > 0) {
+            ByteBuffer vertices = MemoryUtil.memAlloc(count * QuadBatch.STRIDE);
+            float[] v = geometry.getVertices();
+            int[] colours = geometry.getColours();
+            boolean swap = vertices.order() == ByteOrder.LITTLE_ENDIAN;
+            for (int i = 0, o = 0; i < count; i++) {
+                int colour = swap ? Integer.reverseBytes(colours[i]) : colours[i];
+                o = PutQuadVertex(vertices, o, v[i * 4], v[i * 4 + 1], v[i * 4 + 2], v[i * 4 + 3], colour);
+            }
+            desc.buffer = GL32.glGenBuffers();
+            GL32.glBindBuffer(GL32.GL_ARRAY_BUFFER, desc.buffer);
+            GL32.glBufferData(GL32.GL_ARRAY_BUFFER, vertices, GL32.GL_STATIC_DRAW);
+            GL32.glBindBuffer(GL32.GL_ARRAY_BUFFER, 0);
+            MemoryUtil.memFree(vertices);
+        }
         
-        if (fullScreen) {
-            float ratio = (float)screenW / screenH;
-            
-            monitor = GLFW.glfwGetPrimaryMonitor();
-            GLFWVidMode mode = GLFW.glfwGetVideoMode(monitor);
-            if (mode == null) {
-                GLFW.glfwTerminate();
+        drawLists.add(desc);
+        return drawLists.size() - 1;
+    }
+    
+    private static int DrawListMode(int mode) {
+        switch (mode) {
+            case DrawListGeometry.POINTS: return GL32.GL_POINTS;
+            case DrawListGeometry.LINES:  return GL32.GL_LINES;
+            default:                      return GL32.GL_TRIANGLES;
+        }
+    }
+    
+    private DrawListDesc DrawList(int id) {
+        DrawListDesc desc = id >= 0 && id < drawLists.size() ? drawLists.get(id) : null;
+        if (desc == null)
+            throw new IllegalArgumentException("Draw list " + id + " does not exist");
+        return desc;
+    }
+    
+    @Override
+    public void DeleteDrawList(int id) {
+        DrawListDesc desc = DrawList(id);
+        if (desc.buffer != 0)
+            GL32.glDeleteBuffers(desc.buffer);
+        drawLists.set(id, null);
+    }
+    
+    @Override
+    public void ReplayDrawList(int id, int x, int y) {
+        DrawListDesc desc = DrawList(id);
+        if (desc.buffer == 0)
+            return;
+        
+        GL32.glPushMatrix();
+        GL32.glTranslatef(x, y, 0);
+        GL32.glBindBuffer(GL32.GL_ARRAY_BUFFER, desc.buffer);
+        GL32.glEnableClientState(GL32.GL_VERTEX_ARRAY);
+        GL32.glEnableClientState(GL32.GL_TEXTURE_COORD_ARRAY);
+        GL32.glEnableClientState(GL32.GL_COLOR_ARRAY);
+        GL32.glVertexPointer(2, GL32.GL_FLOAT, QuadBatch.STRIDE, 0);
+        GL32.glTexCoordPointer(2, GL32.GL_FLOAT, QuadBatch.STRIDE, 8);
+        GL32.glColorPointer(4, GL32.GL_UNSIGNED_BYTE, QuadBatch.STRIDE, 16);
+        for (int i = 0; i < desc.modes.length; i++) {
+            BindSprite(desc.sprites[i]);
+            GL32.glDrawArrays(desc.modes[i], desc.firsts[i], desc.lengths[i]);
+            stats.drawCalls++;
+        }
+        BindSprite(null);
+        GL32.glDisableClientState(GL32.GL_COLOR_ARRAY);
+        GL32.glDisableClientState(GL32.GL_TEXTURE_COORD_ARRAY);
+        GL32.glDisableClientState(GL32.GL_VERTEX_ARRAY);
+        GL32.glBindBuffer(GL32.GL_ARRAY_BUFFER, 0);
+        GL32.glPopMatrix();
+    }
+    
+    private static int CompileShader(int type, String source) {
+        int shader = GL32.glCreateShader(type);
+        GL32.glShaderSource(shader, source);
+        GL32.glCompileShader(shader);
+        if (GL32.glGetShaderi(shader, GL32.GL_COMPILE_STATUS) == GL32.GL_FALSE) {
+            String log = GL32.glGetShaderInfoLog(shader);
+            GL32.glDeleteShader(shader);
+            throw new IllegalStateException("Couldn't compile shader: " + log);
+        }
+        return shader;
+    }
+    
+    private static int LinkPostProgram(String fragmentShader) {
+        return LinkProgram(POST_VERTEX_SHADER, fragmentShader);
+    }
+    
+    private static int LinkProgram(String vertexShader, String fragmentShader) {
+        int vertex = CompileShader(GL32.GL_VERTEX_SHADER, vertexShader);
+        int fragment;
+        try {
+            fragment = CompileShader(GL32.GL_FRAGMENT_SHADER, fragmentShader);
+        } catch (IllegalStateException e) {
+            GL32.glDeleteShader(vertex);
+            throw e;
+        }
+        int program = GL32.glCreateProgram();
+        GL32.glAttachShader(program, vertex);
+        GL32.glAttachShader(program, fragment);
+        GL32.glLinkProgram(program);
+        GL32.glDeleteShader(vertex);
+        GL32.glDeleteShader(fragment);
+        if (GL32.glGetProgrami(program, GL32.GL_LINK_STATUS) == GL32.GL_FALSE) {
+            String log = GL32.glGetProgramInfoLog(program);
+            GL32.glDeleteProgram(program);
+            throw new IllegalStateException("Couldn't link shader program: " + log);
+        }
+        return program;
+    }
+    
+    @Override
+    public VI2D GetTextSize(String text) {
+        int width = 0;
+        int line = 0;
+        int lines = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                line = 0;
+                lines++;
+            } else {
+                width = Math.max(width, ++line);
+            }
+        }
+        return new VI2D(width * 8, lines * 8);
+    }
+    
+    @Override
+    public void DrawString(int x, int y, String sText, Pixel col, int scale) {
+        int sx = 0;
+        int sy = 0;
+        BindSprite(FontSprite());
+        GL32.glBegin(GL32.GL_QUADS);
+        GL32.glColor4ub(col.r, col.g, col.b, col.a);
+        for (char c : sText.toCharArray()) {
+            if (c == '\n') {
+                sx = 0;
+                sy += 8 * scale;
+            } else {
+                // the built in font only has printable ASCII, anything else leaves a gap
+                if (c >= 32 && c < 128) {
+                    int ox = (c - 32) % 16;
+                    int oy = (c - 32) / 16;
+                    int s = 8 * scale;
+                    
+                    GL32.glTexCoord2f((ox) / 16.f, (oy) / 6.f); GL32.glVertex2i(x+sx, y+sy);
+                    GL32.glTexCoord2f((ox+1) / 16.f, (oy) / 6.f); GL32.glVertex2i(x+sx+s, y+sy);
+                    GL32.glTexCoord2f((ox+1) / 16.f, (oy+1) / 6.f); GL32.glVertex2i(x+sx+s, y+sy+s);
+                    GL32.glTexCoord2f((ox) / 16.f, (oy+1) / 6.f); GL32.glVertex2i(x+sx, y+sy+s);
+                }
+                
+                sx += 8 * scale;
+            }
+        }
+        GL32.glEnd();
+        stats.drawCalls++;
+        BindSprite(null);
+    }
+    
+    @Override
+    public void DrawStringDecal(VF2D pos, String sText, Pixel col, VF2D scale) {
+    }
+    
+    @Override
+    public int CreateFont(String path, float pixelHeight) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(Paths.get(path));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Couldn't load " + path + ": " + e.getMessage(), e);
+        }
+        // stb reads the font data on every glyph, so it stays in native memory until the font is deleted
+        FontDesc font = new FontDesc();
+        font.data = MemoryUtil.memAlloc(bytes.length);
+        font.data.put(bytes).flip();
+        font.info = STBTTFontinfo.malloc();
+        if (!STBTruetype.stbtt_InitFont(font.info, font.data)) {
+            FreeFont(font);
+            throw new IllegalArgumentException("Couldn't load " + path + ": not a TrueType font");
+        }
+        
+        font.scale = STBTruetype.stbtt_ScaleForPixelHeight(font.info, pixelHeight);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer ascent = stack.mallocInt(1);
+            IntBuffer descent = stack.mallocInt(1);
+            IntBuffer lineGap = stack.mallocInt(1);
+            STBTruetype.stbtt_GetFontVMetrics(font.info, ascent, descent, lineGap);
+            font.ascent = Math.round(ascent.get(0) * font.scale);
+            font.lineHeight = Math.round((ascent.get(0) - descent.get(0) + lineGap.get(0)) * font.scale);
+            
+            IntBuffer x0 = stack.mallocInt(1);
+            IntBuffer y0 = stack.mallocInt(1);
+            IntBuffer x1 = stack.mallocInt(1);
+            IntBuffer y1 = stack.mallocInt(1);
+            STBTruetype.stbtt_GetFontBoundingBox(font.info, x0, y0, x1, y1);
+            font.cellWidth = (int)Math.ceil((x1.get(0) - x0.get(0)) * font.scale) + 1;
+            font.cellHeight = (int)Math.ceil((y1.get(0) - y0.get(0)) * font.scale) + 1;
+        }
+        if (font.cellWidth > GLYPH_ATLAS_SIZE || font.cellHeight > GLYPH_ATLAS_SIZE) {
+            FreeFont(font);
+            throw new IllegalArgumentException("Font size " + pixelHeight + " doesn't fit the glyph atlas");
+        }
+        
+        if (glyphAtlas == null) {
+            int[] coverage = new int[Palette.SIZE];
+            for (int i = 0; i < coverage.length; i++)
+                coverage[i] = 0xffffff00 | i;
+            glyphPalette = new Palette(this);
+            glyphPalette.Set(0, coverage);
+            glyphAtlas = new Sprite(this);
+            glyphAtlas.MakeIndexed(GLYPH_ATLAS_SIZE, GLYPH_ATLAS_SIZE, new byte[GLYPH_ATLAS_SIZE * GLYPH_ATLAS_SIZE], glyphPalette);
+        }
+        
+        fonts.add(font);
+        return fonts.size() - 1;
+    }
+    
+    private FontDesc Font(Font font) {
+        int id = font.getId();
+        FontDesc desc = id >= 0 && id < fonts.size() ? fonts.get(id) : null;
+        if (desc == null)
+            throw new IllegalArgumentException("Font " + id + " does not exist");
+        return desc;
+    }
+    
+    private static void FreeFont(FontDesc font) {
+        font.info.free();
+        MemoryUtil.memFree(font.data);
+    }
+    
+    @Override
+    public void DeleteFont(Font font) {
+        FreeFont(Font(font));
+        long id = font.getId();
+        Iterator<Map.Entry<Long, Glyph>> it = glyphs.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Glyph> entry = it.next();
+            if (entry.getKey() >>> 32 == id) {
+                if (entry.getValue().cellWidth > 0)
+                    freeGlyphCells.add(entry.getValue());
+                it.remove();
+            }
+        }
+        fonts.set(font.getId(), null);
+    }
+    
+    @Override
+    public VI2D GetTextSize(Font font, String text) {
+        FontDesc desc = Font(font);
+        float width = 0;
+        float line = 0;
+        int lines = 1;
+        int previous = -1;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer advance = stack.mallocInt(1);
+            IntBuffer bearing = stack.mallocInt(1);
+            for (int i = 0; i < text.length(); ) {
+                int c = text.codePointAt(i);
+                i += Character.charCount(c);
+                if (c == '\n') {
+                    width = Math.max(width, line);
+                    line = 0;
+                    lines++;
+                    previous = -1;
+                    continue;
+                }
+                if (previous != -1)
+                    line += STBTruetype.stbtt_GetCodepointKernAdvance(desc.info, previous, c) * desc.scale;
+                STBTruetype.stbtt_GetCodepointHMetrics(desc.info, c, advance, bearing);
+                line += advance.get(0) * desc.scale;
+                previous = c;
+            }
+        }
+        return new VI2D((int)Math.ceil(Math.max(width, line)), lines * desc.lineHeight);
+    }
+    
+    @Override
+    public void DrawString(Font font, int x, int y, String sText, Pixel col) {
+        FontDesc desc = Font(font);
+        int colour = PackColour(col.toRGBA());
+        float texel = 1.f / GLYPH_ATLAS_SIZE;
+        glyphStamp++;
+        
+        ByteBuffer vertices = GlyphVertices(sText.length());
+        int o = 0;
+        int quads = 0;
+        float sx = x;
+        int baseline = y + desc.ascent;
+        int previous = -1;
+        for (int i = 0; i < sText.length(); ) {
+            int c = sText.codePointAt(i);
+            i += Character.charCount(c);
+            if (c == '\n') {
+                sx = x;
+                baseline += desc.lineHeight;
+                previous = -1;
+                continue;
+            }
+            
+            Glyph glyph = CacheGlyph(desc, font.getId(), c);
+            if (glyph == null) {
+                // every cell that fits is taken by this string: draw what it has so far and start a fresh atlas
+                RenderGlyphs(quads);
+                o = 0;
+                quads = 0;
+                ResetGlyphAtlas();
+                glyph = CacheGlyph(desc, font.getId(), c);
+            }
+            if (previous != -1)
+                sx += STBTruetype.stbtt_GetCodepointKernAdvance(desc.info, previous, c) * desc.scale;
+            if (glyph.w > 0) {
+                float gx = Math.round(sx) + glyph.xOffset;
+                float gy = baseline + glyph.yOffset;
+                o = PutQuad(vertices, o, gx, gy, gx + glyph.w, gy + glyph.h,
+                        glyph.x * texel, glyph.y * texel, (glyph.x + glyph.w) * texel, (glyph.y + glyph.h) * texel, colour);
+                quads++;
+            }
+            sx += glyph.advance;
+            previous = c;
+        }
+        RenderGlyphs(quads);
+    }
+    
+    // looks the glyph up, rasterising it on a miss; null if the atlas has no room left for it
+    private Glyph CacheGlyph(FontDesc font, int fontId, int codepoint) {
+        long key = (long)fontId << 32 | codepoint;
+        Glyph glyph = glyphs.get(key);
+        if (glyph != null) {
+            glyph.lastUse = glyphStamp;
+            return glyph;
+        }
+        
+        glyph = new Glyph();
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer advance = stack.mallocInt(1);
+            IntBuffer bearing = stack.mallocInt(1);
+            STBTruetype.stbtt_GetCodepointHMetrics(font.info, codepoint, advance, bearing);
+            glyph.advance = advance.get(0) * font.scale;
+            
+            IntBuffer x0 = stack.mallocInt(1);
+            IntBuffer y0 = stack.mallocInt(1);
+            IntBuffer x1 = stack.mallocInt(1);
+            IntBuffer y1 = stack.mallocInt(1);
+            STBTruetype.stbtt_GetCodepointBitmapBox(font.info, codepoint, font.scale, font.scale, x0, y0, x1, y1);
+            glyph.xOffset = x0.get(0);
+            glyph.yOffset = y0.get(0);
+            glyph.w = Math.min(x1.get(0) - x0.get(0), font.cellWidth);
+            glyph.h = Math.min(y1.get(0) - y0.get(0), font.cellHeight);
+        }
+        
+        if (glyph.w > 0 && glyph.h > 0) {
+            if (!AllocateGlyphCell(glyph, font.cellWidth, font.cellHeight))
+                return null;
+            RasteriseGlyph(font, glyph, codepoint);
+        } else {
+            glyph.w = 0;
+            glyph.h = 0;
+        }
+        glyph.lastUse = glyphStamp;
+        glyphs.put(key, glyph);
+        return glyph;
+    }
+    
+    private boolean AllocateGlyphCell(Glyph glyph, int cellWidth, int cellHeight) {
+        glyph.cellWidth = cellWidth;
+        glyph.cellHeight = cellHeight;
+        for (int i = 0; i < freeGlyphCells.size(); i++) {
+            Glyph free = freeGlyphCells.get(i);
+            if (free.cellWidth == cellWidth && free.cellHeight == cellHeight) {
+                freeGlyphCells.set(i, freeGlyphCells.get(freeGlyphCells.size() - 1));
+                freeGlyphCells.remove(freeGlyphCells.size() - 1);
+                glyph.x = free.x;
+                glyph.y = free.y;
+                return true;
+            }
+        }
+        
+        // shelves hold cells of one size, so an evicted cell always fits the glyph replacing it
+        for (GlyphShelf shelf : glyphShelves) {
+            if (shelf.cellWidth == cellWidth && shelf.cellHeight == cellHeight && shelf.next + cellWidth <= GLYPH_ATLAS_SIZE) {
+                glyph.x = shelf.next;
+                glyph.y = shelf.y;
+                shelf.next += cellWidth;
+                return true;
+            }
+        }
+        if (glyphShelvesHeight + cellHeight <= GLYPH_ATLAS_SIZE) {
+            GlyphShelf shelf = new GlyphShelf();
+            shelf.y = glyphShelvesHeight;
+            shelf.next = cellWidth;
+            shelf.cellWidth = cellWidth;
+            shelf.cellHeight = cellHeight;
+            glyphShelves.add(shelf);
+            glyphShelvesHeight += cellHeight;
+            glyph.x = 0;
+            glyph.y = shelf.y;
+            return true;
+        }
+        
+        // evict the least recently drawn glyph of the same cell size, stopping at the glyphs of the current string
+        Iterator<Glyph> it = glyphs.values().iterator();
+        while (it.hasNext()) {
+            Glyph old = it.next();
+            if (old.lastUse == glyphStamp)
+                break;
+            if (old.cellWidth == cellWidth && old.cellHeight == cellHeight) {
+                it.remove();
+                glyph.x = old.x;
+                glyph.y = old.y;
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void ResetGlyphAtlas() {
+        glyphs.clear();
+        freeGlyphCells.clear();
+        glyphShelves.clear();
+        glyphShelvesHeight = 0;
+    }
+    
+    private void RasteriseGlyph(FontDesc font, Glyph glyph, int codepoint) {
+        int bytes = glyph.w * glyph.h;
+        if (glyphBitmap == null)
+            glyphBitmap = MemoryUtil.memAlloc(bytes);
+        else if (glyphBitmap.capacity() < bytes)
+            glyphBitmap = MemoryUtil.memRealloc(glyphBitmap, bytes);
+        glyphBitmap.clear();
+        STBTruetype.stbtt_MakeCodepointBitmap(font.info, glyphBitmap, glyph.w, glyph.h, glyph.w, font.scale, font.scale, codepoint);
+        
+        // the coverage bytes are the palette indices
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, glyphAtlas.getId());
+        GL32.glPixelStorei(GL32.GL_UNPACK_ALIGNMENT, 1);
+        GL32.glTexSubImage2D(GL32.GL_TEXTURE_2D, 0, glyph.x, glyph.y, glyph.w, glyph.h, GL32.GL_RED, GL32.GL_UNSIGNED_BYTE, glyphBitmap);
+        GL32.glPixelStorei(GL32.GL_UNPACK_ALIGNMENT, 4);
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+        stats.uploadBytes += bytes;
+    }
+    
+    // the vertex stream of the TrueType text, grown as needed and never shrunk
+    private ByteBuffer GlyphVertices(int quads) {
+        int bytes = Math.max(1, quads) * 4 * QuadBatch.STRIDE;
+        if (glyphVertices == null)
+            glyphVertices = MemoryUtil.memAlloc(bytes);
+        else if (glyphVertices.capacity() < bytes)
+            glyphVertices = MemoryUtil.memRealloc(glyphVertices, bytes);
+        return glyphVertices;
+    }
+    
+    private void RenderGlyphs(int quads) {
+        if (quads == 0)
+            return;
+        BindSprite(glyphAtlas);
+        RenderQuadVertices(glyphVertices, quads);
+        BindSprite(null);
+    }
+    
+    @Override
+    public int CreateSprite() {
+        return GL32.glGenTextures();
+    }
+    
+    @Override
+    public void MakeSprite(Sprite sprite, int width, int height) {
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, sprite.getId());
+        GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_RGBA8, width, height, 0, GL32.GL_RGBA, GL32.GL_UNSIGNED_BYTE, 0);
+        spriteStorage.put(sprite.getId(), StorageSize(width, height));
+        ApplySpriteFilter(sprite);
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+    }
+    
+    private static long StorageSize(int width, int height) {
+        return (long)width << 32 | height;
+    }
+    
+    @Override
+    public void UpdateSpritePixels(Sprite sprite, int[] rgba) {
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, sprite.getId());
+        // the storage is only reallocated on the first upload or a resize
+        long size = StorageSize(sprite.getWidth(), sprite.getHeight());
+        Long allocated = spriteStorage.get(sprite.getId());
+        if (allocated != null && allocated == size) {
+            GL32.glTexSubImage2D(GL32.GL_TEXTURE_2D, 0, 0, 0, sprite.getWidth(), sprite.getHeight(), GL32.GL_RGBA, GL32.GL_UNSIGNED_INT_8_8_8_8, rgba);
+        } else {
+            GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_RGBA8, sprite.getWidth(), sprite.getHeight(), 0, GL32.GL_RGBA, GL32.GL_UNSIGNED_INT_8_8_8_8, rgba);
+            spriteStorage.put(sprite.getId(), size);
+        }
+        ApplySpriteFilter(sprite);
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+        stats.uploadBytes += (long)sprite.getWidth() * sprite.getHeight() * 4;
+    }
+    
+    @Override
+    public void UpdateSpriteFilter(Sprite sprite) {
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, sprite.getId());
+        ApplySpriteFilter(sprite);
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+    }
+    
+    // sets the sampling of the bound sprite texture and regenerates its mipmaps if it has them
+    private static void ApplySpriteFilter(Sprite sprite) {
+        boolean linear = sprite.getFilter() == Sprite.Filter.LINEAR;
+        int min = linear ? GL32.GL_LINEAR : GL32.GL_NEAREST;
+        if (sprite.isMipmapped())
+            min = linear ? GL32.GL_LINEAR_MIPMAP_LINEAR : GL32.GL_NEAREST_MIPMAP_NEAREST;
+        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MAG_FILTER, linear ? GL32.GL_LINEAR : GL32.GL_NEAREST);
+        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MIN_FILTER, min);
+        if (sprite.isMipmapped())
+            GL32.glGenerateMipmap(GL32.GL_TEXTURE_2D);
+    }
+    
+    @Override
+    public void LoadSpriteTexture(Sprite sprite, String path, boolean packed) {
+        if (!packed) {
+            long start = System.nanoTime();
+            int w, h;
+            ByteBuffer image;
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                IntBuffer width = stack.mallocInt(1);
+                IntBuffer height = stack.mallocInt(1);
+                IntBuffer comp = stack.mallocInt(1);
+                
+                image = STBImage.stbi_load(path, width, height, comp, 4);
+                
+                w = width.get();
+                h = height.get();
+            }
+            sprite.setWidth(w);
+            sprite.setHeight(h);
+            GL32.glBindTexture(GL32.GL_TEXTURE_2D, sprite.getId());
+            GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_RGBA8, w, h, 0, GL32.GL_RGBA, GL32.GL_UNSIGNED_BYTE, image);
+            spriteStorage.put(sprite.getId(), StorageSize(w, h));
+            ApplySpriteFilter(sprite);
+            GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+            stats.uploadBytes += (long)w * h * 4;
+            stats.AssetLoaded(path, System.nanoTime() - start, (long)w * h * 4);
+        }
+    }
+    
+    @Override
+    public void DeleteSprite(Sprite sprite) {
+        Integer bufferID = targetFramebuffers.remove(sprite.getId());
+        if (bufferID != null) {
+            if (sprite == drawTarget)
+                SetDrawTarget(null);
+            GL32.glDeleteFramebuffers(bufferID);
+        }
+        spriteStorage.remove(sprite.getId());
+        GL32.glDeleteTextures(sprite.getId());
+    }
+    
+    @Override
+    public void MakeIndexedSprite(Sprite sprite, byte[] indices) {
+        ByteBuffer data = MemoryUtil.memAlloc(sprite.getWidth() * sprite.getHeight());
+        data.put(indices, 0, data.capacity()).flip();
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, sprite.getId());
+        GL32.glPixelStorei(GL32.GL_UNPACK_ALIGNMENT, 1);
+        GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_R8, sprite.getWidth(), sprite.getHeight(), 0, GL32.GL_RED, GL32.GL_UNSIGNED_BYTE, data);
+        spriteStorage.remove(sprite.getId());
+        stats.uploadBytes += data.capacity();
+        GL32.glPixelStorei(GL32.GL_UNPACK_ALIGNMENT, 4);
+        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MAG_FILTER, GL32.GL_NEAREST);
+        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MIN_FILTER, GL32.GL_NEAREST);
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+        MemoryUtil.memFree(data);
+    }
+    
+    @Override
+    public void LoadIndexedSpriteTexture(Sprite sprite, String path, Palette palette) {
+        long start = System.nanoTime();
+        int w, h;
+        ByteBuffer image;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer width = stack.mallocInt(1);
+            IntBuffer height = stack.mallocInt(1);
+            IntBuffer comp = stack.mallocInt(1);
+            
+            image = STBImage.stbi_load(path, width, height, comp, 4);
+            if (image == null)
+                throw new IllegalArgumentException("Couldn't load " + path + ": " + STBImage.stbi_failure_reason());
+            
+            w = width.get();
+            h = height.get();
+        }
+        
+        byte[] indices = new byte[w * h];
+        Map<Integer, Integer> colours = new HashMap<>();
+        try {
+            image.order(ByteOrder.BIG_ENDIAN);
+            for (int i = 0; i < indices.length; i++) {
+                int rgba = image.getInt(i * 4);
+                Integer index = colours.get(rgba);
+                if (index == null) {
+                    if (colours.size() == Palette.SIZE)
+                        throw new IllegalArgumentException(path + " has more than " + Palette.SIZE + " colours");
+                    index = colours.size();
+                    colours.put(rgba, index);
+                    palette.Set(index, rgba);
+                }
+                indices[i] = (byte)(int)index;
+            }
+        } finally {
+            STBImage.stbi_image_free(image);
+        }
+        sprite.setWidth(w);
+        sprite.setHeight(h);
+        MakeIndexedSprite(sprite, indices);
+        stats.AssetLoaded(path, System.nanoTime() - start, indices.length);
+    }
+    
+    @Override
+    public int CreatePalette() {
+        int id = GL32.glGenTextures();
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, id);
+        GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_RGBA8, Palette.SIZE, 1, 0, GL32.GL_RGBA, GL32.GL_UNSIGNED_BYTE, 0);
+        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MAG_FILTER, GL32.GL_NEAREST);
+        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MIN_FILTER, GL32.GL_NEAREST);
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+        return id;
+    }
+    
+    @Override
+    public void DeletePalette(Palette palette) {
+        GL32.glDeleteTextures(palette.getId());
+    }
+    
+    private void UseProgram(int program) {
+        if (program != appliedProgram) {
+            GL32.glUseProgram(program);
+            appliedProgram = program;
+        }
+    }
+    
+    // binds a sprite's texture, switching to the palette lookup program for indexed sprites
+    private void BindSprite(Sprite sprite) {
+        if (sprite != null && sprite.isIndexed()) {
+            BindPalette(sprite.getPalette());
+            UseProgram(PaletteProgram());
+        } else {
+            UseProgram(0);
+        }
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, sprite != null ? sprite.getId() : 0);
+        if (sprite != null)
+            stats.textureBinds++;
+    }
+    
+    private void BindPalette(Palette palette) {
+        GL32.glActiveTexture(GL32.GL_TEXTURE1);
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, palette.getId());
+        stats.textureBinds++;
+        if (palette.isDirty()) {
+            // 0xRRGGBBAA ints are exactly GL_UNSIGNED_INT_8_8_8_8
+            GL32.glTexSubImage2D(GL32.GL_TEXTURE_2D, 0, 0, 0, Palette.SIZE, 1, GL32.GL_RGBA, GL32.GL_UNSIGNED_INT_8_8_8_8, palette.getColours());
+            stats.uploadBytes += Palette.SIZE * 4;
+            palette.ClearDirty();
+        }
+        GL32.glActiveTexture(GL32.GL_TEXTURE0);
+    }
+    
+    @Override
+    public int CreateDecal(Sprite s) {
+        return s.getId();
+    }
+    
+    @Override
+    public void DeleteDecal(Decal decal) { }
+    
+    @Override
+    public String getName() {
+        return "OpenGL";
+    }
+    
+    @Override
+    public Set<BackendCapability> getCapabilities() {
+        return EnumSet.of(BackendCapability.INSTANCING, BackendCapability.SHADERS, BackendCapability.MULTITHREADED_RECORDING);
+    }
+    
+    // draws batches of blended quads into an offscreen target of a hidden window and returns quads per second
+    @Override
+    public double Probe() {
+        AcquireGLFW();
+        GLFW.glfwDefaultWindowHints();
+        GLFW.glfwWindowHint(GLFW.GLFW_VISIBLE, GLFW.GLFW_FALSE);
+        long probe = GLFW.glfwCreateWindow(PROBE_SIZE, PROBE_SIZE, "", NULL, NULL);
+        GLFW.glfwDefaultWindowHints();
+        if (probe == NULL) {
+            ReleaseGLFW();
+            return 0;
+        }
+        long previous = GLFW.glfwGetCurrentContext();
+        GLCapabilities previousCapabilities = previous != NULL ? GL.getCapabilities() : null;
+        GLFW.glfwMakeContextCurrent(probe);
+        GL.createCapabilities();
+        
+        ByteBuffer vertices = MemoryUtil.memAlloc(PROBE_QUADS * 4 * QuadBatch.STRIDE);
+        int texture = GL32.glGenTextures();
+        int framebuffer = GL32.glGenFramebuffers();
+        try {
+            int colour = PackColour(0xffffff80);
+            for (int i = 0, o = 0; i < PROBE_QUADS; i++) {
+                float x = i * 37 % PROBE_SIZE;
+                float y = i * 91 % PROBE_SIZE;
+                o = PutQuad(vertices, o, x, y, x + 16, y + 16, 0, 0, 1, 1, colour);
+            }
+            
+            GL32.glBindTexture(GL32.GL_TEXTURE_2D, texture);
+            GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_RGBA8, PROBE_SIZE, PROBE_SIZE, 0, GL32.GL_RGBA, GL32.GL_UNSIGNED_BYTE, 0);
+            GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MIN_FILTER, GL32.GL_NEAREST);
+            GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+            GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, framebuffer);
+            GL32.glFramebufferTexture(GL32.GL_FRAMEBUFFER, GL32.GL_COLOR_ATTACHMENT0, texture, 0);
+            GL32.glViewport(0, 0, PROBE_SIZE, PROBE_SIZE);
+            GL32.glLoadIdentity();
+            GL32.glOrtho(0, PROBE_SIZE, PROBE_SIZE, 0, -1, 1);
+            GL32.glEnable(GL32.GL_BLEND);
+            GL32.glBlendFunc(GL32.GL_SRC_ALPHA, GL32.GL_ONE_MINUS_SRC_ALPHA);
+            
+            // the first frame warms the driver up and isn't timed
+            long start = 0;
+            for (int frame = 0; frame <= PROBE_FRAMES; frame++) {
+                if (frame == 1) {
+                    GL32.glFinish();
+                    start = System.nanoTime();
+                }
+                GL32.glClear(GL32.GL_COLOR_BUFFER_BIT);
+                RenderQuadVertices(vertices, PROBE_QUADS);
+            }
+            GL32.glFinish();
+            return (double)PROBE_QUADS * PROBE_FRAMES / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            GL32.glDeleteFramebuffers(framebuffer);
+            GL32.glDeleteTextures(texture);
+            MemoryUtil.memFree(vertices);
+            GLFW.glfwMakeContextCurrent(previous);
+            GL.setCapabilities(previousCapabilities);
+            GLFW.glfwDestroyWindow(probe);
+            ReleaseGLFW();
+        }
+    }
+    
+    @Override
+    public void Create(int screenW, int screenH, int pixelW, int pixelH, boolean fullScreen, boolean vSync) {
+        AcquireGLFW();
+        GLFW.glfwWindowHint(GLFW.GLFW_RESIZABLE, GLFW.GLFW_FALSE);
+        
+        this.screenSize = new VI2D(screenW, screenH);
+        this.renderSize = new VI2D(Math.max(1, Math.round(screenW * renderScale)), Math.max(1, Math.round(screenH * renderScale)));
+        
+        long monitor = NULL;
+        int width, height;
+        
+        if (fullScreen) {
+            float ratio = (float)screenW / screenH;
+            
+            monitor = GLFW.glfwGetPrimaryMonitor();
+            GLFWVidMode mode = GLFW.glfwGetVideoMode(monitor);
+            if (mode == null) {
+                ReleaseGLFW();
                 throw new RuntimeException("Failed to get the GLFW Video Mode");
             }
             
@@ -611,8 +2122,10 @@ public final class PGEBackendImpl extends PGEBackend {
             this.windowOffset = new VI2D(0, 0);
         }
         window = GLFW.glfwCreateWindow(width, height, "", monitor, NULL);
+        startup.Mark("window");
         GLFW.glfwMakeContextCurrent(window);
         GL.createCapabilities();
+        startup.Mark("GL context");
         
         keyCallbacks = new LinkedList<>();
         mouseMoveCallbacks = new LinkedList<>();
@@ -620,7 +2133,7 @@ public final class PGEBackendImpl extends PGEBackend {
         scrollCallbacks = new LinkedList<>();
         
         GLFW.glfwSetKeyCallback(window, keyCallback = GLFWKeyCallback.create((window, key, scancode, action, mods) -> {
-            Key k = keyMap.getOrDefault(key, Key.NONE);
+            Key k = key >= 0 && key < keyMap.length ? keyMap[key] : Key.NONE;
             ClickType type;
             switch(action) {
                 case GLFW.GLFW_PRESS:
@@ -666,8 +2179,7 @@ public final class PGEBackendImpl extends PGEBackend {
         
         GLFW.glfwSwapInterval(vSync ? 1 : 0);
         
-        GL32.glBlendFunc(GL32.GL_SRC_ALPHA, GL32.GL_ONE_MINUS_SRC_ALPHA);
-        GL32.glEnable(GL32.GL_BLEND);
+        ApplyPixelMode(pixelMode, blendSrc, blendDst);
         
         GL32.glEnable(GL32.GL_TEXTURE_2D);
         
@@ -677,79 +2189,132 @@ public final class PGEBackendImpl extends PGEBackend {
         GL32.glLoadIdentity();
         GL32.glOrtho(0, screenW, screenH, 0, -1, 1);
         
-        CreateFont();
-    }
-    
-    private void CreateFont() {
-        fontSprite = new Sprite();
-        
-        ByteBuffer image = MemoryUtil.memAlloc(128 * 48 * 4);
-        
-        char[] data = ("?Q`0001oOch0o01o@F40o0<AGD4090LAGD<090@A7ch0?00O7Q`0600>00000000" +
-                "O000000nOT0063Qo4d8>?7a14Gno94AA4gno94AaOT0>o3`oO400o7QN00000400" +
-                "Of80001oOg<7O7moBGT7O7lABET024@aBEd714AiOdl717a_=TH013Q>00000000" +
-                "720D000V?V5oB3Q_HdUoE7a9@DdDE4A9@DmoE4A;Hg]oM4Aj8S4D84@`00000000" +
-                "OaPT1000Oa`^13P1@AI[?g`1@A=[OdAoHgljA4Ao?WlBA7l1710007l100000000" +
-                "ObM6000oOfMV?3QoBDD`O7a0BDDH@5A0BDD<@5A0BGeVO5ao@CQR?5Po00000000" +
-                "Oc``000?Ogij70PO2D]??0Ph2DUM@7i`2DTg@7lh2GUj?0TO0C1870T?00000000" +
-                "70<4001o?P<7?1QoHg43O;`h@GT0@:@LB@d0>:@hN@L0@?aoN@<0O7ao0000?000" +
-                "OcH0001SOglLA7mg24TnK7ln24US>0PL24U140PnOgl0>7QgOcH0K71S0000A000" +
-                "00H00000@Dm1S007@DUSg00?OdTnH7YhOfTL<7Yh@Cl0700?@Ah0300700000000" +
-                "<008001QL00ZA41a@6HnI<1i@FHLM81M@@0LG81?O`0nC?Y7?`0ZA7Y300080000" +
-                "O`082000Oh0827mo6>Hn?Wmo?6HnMb11MP08@C11H`08@FP0@@0004@000000000" +
-                "00P00001Oab00003OcKP0006@6=PMgl<@440MglH@000000`@000001P00000000" +
-                "Ob@8@@00Ob@8@Ga13R@8Mga172@8?PAo3R@827QoOb@820@0O`0007`0000007P0" +
-                "O`000P08Od400g`<3V=P0G`673IP0`@3>1`00P@6O`P00g`<O`000GP800000000" +
-                "?P9PL020O`<`N3R0@E4HC7b0@ET<ATB0@@l6C4B0O`H3N7b0?P01L3R000000020").toCharArray();
-        
-        int px = 0;
-        int py = 0;
-        
-        for (int b = 0; b < 1024; b += 4) {
-            int sym1 = (int)data[b] - 48;
-            int sym2 = (int)data[b + 1] - 48;
-            int sym3 = (int)data[b + 2] - 48;
-            int sym4 = (int)data[b + 3] - 48;
-            
-            int r = sym1 << 18 | sym2 << 12 | sym3 << 6 | sym4;
-            for (int i = 0; i < 24; i++) {
-                byte k;
-                
-                if ((r & (1 << i)) == 0) {
-                    k = (byte)0;
-                } else {
-                    k = (byte)255;
-                }
-                
-                image.put((py * 128 + px) * 4, k);
-                image.put((py * 128 + px) * 4 + 1, k);
-                image.put((py * 128 + px) * 4 + 2, k);
-                image.put((py * 128 + px) * 4 + 3, k);
-                
-                if (++py == 48) {px++; py = 0;}
-            }
+        // shader programs and the built in font are created on first use, keeping them off the time to the first frame
+        postStartTime = System.nanoTime();
+        startup.Mark("GL setup");
+    }
+    
+    private int PaletteProgram() {
+        if (paletteProgram == 0) {
+            paletteProgram = LinkProgram(SPRITE_VERTEX_SHADER, PALETTE_FRAGMENT_SHADER);
+            GL32.glUseProgram(paletteProgram);
+            GL32.glUniform1i(GL32.glGetUniformLocation(paletteProgram, "uIndices"), 0);
+            GL32.glUniform1i(GL32.glGetUniformLocation(paletteProgram, "uPalette"), 1);
+            GL32.glUseProgram(appliedProgram);
+        }
+        return paletteProgram;
+    }
+    
+    private int PickProgram() {
+        if (pickProgram == 0) {
+            pickProgram = LinkProgram(SPRITE_VERTEX_SHADER, PICK_FRAGMENT_SHADER);
+            GL32.glUseProgram(pickProgram);
+            GL32.glUniform1i(GL32.glGetUniformLocation(pickProgram, "uTexture"), 0);
+            GL32.glUniform1i(GL32.glGetUniformLocation(pickProgram, "uPalette"), 1);
+            pickIdLocation = GL32.glGetUniformLocation(pickProgram, "uId");
+            pickModeLocation = GL32.glGetUniformLocation(pickProgram, "uMode");
+            GL32.glUseProgram(appliedProgram);
+        }
+        return pickProgram;
+    }
+    
+    private int PostCopyProgram() {
+        if (postCopyProgram == 0)
+            postCopyProgram = LinkPostProgram(POST_COPY_SHADER);
+        return postCopyProgram;
+    }
+    
+    private Sprite FontSprite() {
+        if (fontSprite == null)
+            CreateDefaultFont();
+        return fontSprite;
+    }
+    
+    // the 1 bit font is prebuilt as one palette index per pixel, 0 transparent and 1 white
+    private void CreateDefaultFont() {
+        byte[] image = new byte[128 * 48];
+        InputStream resource = PGEBackendImpl.class.getResourceAsStream("font.bin");
+        if (resource == null)
+            throw new IllegalStateException("The built in font resource is missing");
+        try (DataInputStream in = new DataInputStream(resource)) {
+            in.readFully(image);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't load the built in font", e);
         }
         
-        GL32.glBindTexture(GL32.GL_TEXTURE_2D, fontSprite.getId());
-        GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_RGBA8, 128, 48, 0, GL32.GL_RGBA, GL32.GL_UNSIGNED_BYTE, image);
-        GL32.glTexParameterf(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MIN_FILTER, GL32.GL_NEAREST);
-        GL32.glTexParameterf(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MAG_FILTER, GL32.GL_NEAREST);
-        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
-        
-        MemoryUtil.memFree(image);
-        
+        fontSprite = new Sprite(this);
+        fontPalette = new Palette(this);
+        fontPalette.Set(1, 0xffffffff);
+        fontSprite.MakeIndexed(128, 48, image, fontPalette);
         fontDecal = new Decal(fontSprite);
     }
     
     @Override
     public void Destroy() {
-        layers.forEach(layer -> {
+        layers.stream().filter(Objects::nonNull).forEach(layer -> {
             GL32.glDeleteFramebuffers(layer.frambufferID);
             GL32.glDeleteTextures(layer.texID);
             layer.frambufferID = 0;
             layer.texID = 0;
         });
         
+        targetFramebuffers.values().forEach(GL32::glDeleteFramebuffers);
+        targetFramebuffers.clear();
+        
+        particleBatches.forEach(batch -> {
+            if (batch.vertices != null)
+                MemoryUtil.memFree(batch.vertices);
+            batch.vertices = null;
+        });
+        particleBatches.clear();
+        
+        quadBatches.forEach(batch -> {
+            if (batch.vertices != null)
+                MemoryUtil.memFree(batch.vertices);
+            batch.vertices = null;
+        });
+        quadBatches.clear();
+        
+        if (primitiveVertices != null)
+            MemoryUtil.memFree(primitiveVertices);
+        primitiveVertices = null;
+        
+        drawLists.stream().filter(Objects::nonNull).filter(list -> list.buffer != 0).forEach(list -> GL32.glDeleteBuffers(list.buffer));
+        drawLists.clear();
+        
+        fonts.stream().filter(Objects::nonNull).forEach(PGEBackendImpl::FreeFont);
+        fonts.clear();
+        ResetGlyphAtlas();
+        if (glyphAtlas != null) {
+            glyphAtlas.Delete();
+            glyphPalette.Delete();
+            glyphAtlas = null;
+        }
+        if (glyphBitmap != null)
+            MemoryUtil.memFree(glyphBitmap);
+        glyphBitmap = null;
+        if (glyphVertices != null)
+            MemoryUtil.memFree(glyphVertices);
+        glyphVertices = null;
+        
+        postPasses.stream().filter(Objects::nonNull).forEach(pass -> GL32.glDeleteProgram(pass.program));
+        postPasses.clear();
+        GL32.glDeleteProgram(postCopyProgram);
+        GL32.glDeleteProgram(paletteProgram);
+        GL32.glDeleteProgram(pickProgram);
+        EnablePicking(false);
+        if (fontPalette != null)
+            fontPalette.Delete();
+        postTargets.values().forEach(pair -> {
+            for (RenderTarget target : pair) {
+                if (target != null) {
+                    GL32.glDeleteFramebuffers(target.frambufferID);
+                    GL32.glDeleteTextures(target.texID);
+                }
+            }
+        });
+        postTargets.clear();
+        
         keyCallback.free();
         mouseButtonCallback.free();
         cursorPosCallback.free();
@@ -757,8 +2322,27 @@ public final class PGEBackendImpl extends PGEBackend {
         
         GLFW.glfwDestroyWindow(window);
         
-        GLFW.glfwTerminate();
-        errorCallback.free();
+        ReleaseGLFW();
+    }
+    
+    private static void AcquireGLFW() {
+        synchronized (glfwLock) {
+            if (glfwUsers++ == 0) {
+                errorCallback = GLFWErrorCallback.createPrint(System.err);
+                GLFW.glfwSetErrorCallback(errorCallback);
+                GLFW.glfwInit();
+            }
+        }
+    }
+    
+    private static void ReleaseGLFW() {
+        synchronized (glfwLock) {
+            if (--glfwUsers == 0) {
+                GLFW.glfwTerminate();
+                errorCallback.free();
+                errorCallback = null;
+            }
+        }
     }
     
     @Override
@@ -771,26 +2355,74 @@ public final class PGEBackendImpl extends PGEBackend {
         GLFW.glfwSetWindowShouldClose(window, close);
     }
     
+    @Override
+    public void SetRenderScale(float scale) {
+        renderScale = scale;
+        if (screenSize == null)
+            return;
+        
+        VI2D size = new VI2D(Math.max(1, Math.round(screenSize.x * scale)), Math.max(1, Math.round(screenSize.y * scale)));
+        if (size.equals(renderSize))
+            return;
+        renderSize = size;
+        
+        // the projection stays in screen coordinates, only the backing store shrinks
+        for (LayerDesc layer : layers)
+            if (layer != null)
+                ResizeLayer(layer);
+        BindLayer(layer);
+    }
+    
     @Override
     public void OnPreUpdate() {
-        GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, layer.frambufferID);
-        GL32.glViewport(0, 0, screenSize.x, screenSize.y);
+        BindLayer(layer);
+        ApplyPixelMode(pixelMode, blendSrc, blendDst);
     }
     
     @Override
     public void OnPostUpdate() {
-        GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, 0);
-        GL32.glViewport(windowOffset.x, windowOffset.y, windowSize.x, windowSize.y);
+        long compositeStart = stats.isEnabled() ? System.nanoTime() : 0;
+        if (drawTarget != null)
+            SetDrawTarget(null);
+        
+        if (drawOrderDirty) {
+            drawOrder = layers.stream().filter(Objects::nonNull).sorted(layerOrder).toArray(LayerDesc[]::new);
+            drawOrderDirty = false;
+        }
+        
+        if (pickTarget != null)
+            RenderPickPass();
+        
+        RenderTarget scene = null;
+        for (PostPass pass : postPasses) {
+            if (pass != null && pass.enabled) {
+                scene = PostTarget(1, null);
+                break;
+            }
+        }
+        if (scene != null) {
+            GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, scene.frambufferID);
+            GL32.glViewport(0, 0, scene.size.x, scene.size.y);
+        } else {
+            GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, 0);
+            GL32.glViewport(windowOffset.x, windowOffset.y, windowSize.x, windowSize.y);
+        }
         
         GL32.glClearColor(0, 0, 0, 1);
         GL32.glClear(GL32.GL_COLOR_BUFFER_BIT);
         
-        for (LayerDesc layer : new ReverseListIterator<>(layers)) {
+        for (LayerDesc layer : drawOrder) {
             if (layer.bShow) {
                 Pixel tint = layer.tint;
                 VF2D scale = layer.scale;
                 VF2D offset = layer.offset;
+                ApplyPixelMode(layer.blend, GL32.GL_SRC_ALPHA, GL32.GL_ONE_MINUS_SRC_ALPHA);
                 GL32.glBindTexture(GL32.GL_TEXTURE_2D, layer.texID);
+                stats.textureBinds++;
+                if (layer.mipmaps && layer.dirty) {
+                    GL32.glGenerateMipmap(GL32.GL_TEXTURE_2D);
+                    layer.dirty = false;
+                }
                 GL32.glBegin(GL32.GL_QUADS);
                 GL32.glColor4ub(tint.r, tint.g, tint.b, tint.a);
                 GL32.glTexCoord2f(0.f * scale.x + offset.x, 0.f * scale.y + offset.y);
@@ -802,10 +2434,22 @@ public final class PGEBackendImpl extends PGEBackend {
                 GL32.glTexCoord2f(0.f * scale.x + offset.x, 1.f * scale.y + offset.y);
                 GL32.glVertex2i(0, 0);
                 GL32.glEnd();
+                stats.drawCalls++;
                 
                 for (DecalInstance decal : layer.decals) {
+                    if (decal.pickOnly)
+                        continue;
+                    ApplyPixelMode(decal.mode, decal.blendSrc, decal.blendDst);
+                    if (decal.particles != null) {
+                        RenderParticles(decal.particles);
+                        continue;
+                    }
+                    if (decal.quads != null) {
+                        RenderQuads(decal.quads);
+                        continue;
+                    }
                     if (decal.decal == null) {
-                        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+                        BindSprite(null);
                         GL32.glBegin(GL32.GL_QUADS);
                         GL32.glColor4ub(decal.tint[0].r, decal.tint[0].g, decal.tint[0].b, decal.tint[0].a);
                         GL32.glTexCoord4f(decal.uv[0].x, decal.uv[0].y, 0, decal.w[0]);
@@ -818,7 +2462,7 @@ public final class PGEBackendImpl extends PGEBackend {
                         GL32.glVertex2f(decal.pos[2].x, decal.pos[2].y);
                         GL32.glColor4ub(decal.tint[3].r, decal.tint[0].g, decal.tint[3].b, decal.tint[3].a);
                     } else {
-                        GL32.glBindTexture(GL32.GL_TEXTURE_2D, decal.decal.getId());
+                        BindSprite(decal.decal.getSprite());
                         GL32.glBegin(GL32.GL_QUADS);
                         GL32.glColor4ub(decal.tint[0].r, decal.tint[0].g, decal.tint[0].b, decal.tint[0].a);
                         GL32.glTexCoord4f(decal.uv[0].x, decal.uv[0].y, 0, decal.w[0]);
@@ -831,17 +2475,310 @@ public final class PGEBackendImpl extends PGEBackend {
                     GL32.glTexCoord4f(decal.uv[3].x, decal.uv[3].y, 0, decal.w[3]);
                     GL32.glVertex2f(decal.pos[3].x, decal.pos[3].y);
                     GL32.glEnd();
+                    stats.drawCalls++;
                 }
-                layer.decals.clear();
             }
+            stats.SetLayerDecals(layer.id, layer.decals.size());
+            // hidden layers drop their decals too, they reference this frame's particle batches
+            layer.decals.clear();
         }
+        BindSprite(null);
+        particleBatchesUsed = 0;
+        quadBatchesUsed = 0;
+        
+        if (scene != null)
+            RunPostPasses(scene);
         
         GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
         
-        GLFW.glfwSwapBuffers(window);
+        if (stats.isEnabled()) {
+            long swapStart = System.nanoTime();
+            stats.compositeNanos = swapStart - compositeStart;
+            GLFW.glfwSwapBuffers(window);
+            stats.swapNanos = System.nanoTime() - swapStart;
+        } else {
+            GLFW.glfwSwapBuffers(window);
+        }
         GLFW.glfwPollEvents();
     }
     
+    @Override
+    public void EnablePicking(boolean enable) {
+        if (enable == (pickTarget != null))
+            return;
+        if (!enable) {
+            GL32.glDeleteFramebuffers(pickTarget.frambufferID);
+            GL32.glDeleteTextures(pickTarget.texID);
+            GL32.glDeleteBuffers(pickBuffers);
+            pickTarget = null;
+            pickedWidth = 0;
+            pickedHeight = 0;
+            return;
+        }
+        
+        RenderTarget target = new RenderTarget();
+        target.size = new VI2D(screenSize.x, screenSize.y);
+        target.frambufferID = GL32.glGenFramebuffers();
+        GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, target.frambufferID);
+        target.texID = GL32.glGenTextures();
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, target.texID);
+        GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_RGBA8, target.size.x, target.size.y, 0, GL32.GL_RGBA, GL32.GL_UNSIGNED_BYTE, 0);
+        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MAG_FILTER, GL32.GL_NEAREST);
+        GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MIN_FILTER, GL32.GL_NEAREST);
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+        GL32.glFramebufferTexture(GL32.GL_FRAMEBUFFER, GL32.GL_COLOR_ATTACHMENT0, target.texID, 0);
+        if (GL32.glCheckFramebufferStatus(GL32.GL_FRAMEBUFFER) != GL32.GL_FRAMEBUFFER_COMPLETE) throw new IllegalStateException("Couldn't create framebuffer");
+        GL32.glGenBuffers(pickBuffers);
+        pickWidths[0] = pickWidths[1] = 0;
+        pickHeights[0] = pickHeights[1] = 0;
+        pickFrame = 0;
+        pickTarget = target;
+        
+        if (drawTarget != null)
+            SetDrawTarget(drawTarget);
+        else
+            BindLayer(layer);
+    }
+    
+    @Override
+    public void SetPickId(int id) {
+        pickId = id;
+    }
+    
+    @Override
+    public void SetPickRegion(int x, int y, int w, int h) {
+        pickX = x;
+        pickY = y;
+        pickW = w;
+        pickH = h;
+    }
+    
+    @Override
+    public int GetPickedId() {
+        if (pickedWidth == 0 || pickedHeight == 0)
+            return 0;
+        return pickedIds[pickedHeight / 2 * pickedWidth + pickedWidth / 2];
+    }
+    
+    @Override
+    public int GetPickedIds(int[] ids) {
+        int count = Math.min(ids.length, pickedWidth * pickedHeight);
+        System.arraycopy(pickedIds, 0, ids, 0, count);
+        return count;
+    }
+    
+    private void RenderPickPass() {
+        GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, pickTarget.frambufferID);
+        GL32.glViewport(0, 0, pickTarget.size.x, pickTarget.size.y);
+        GL32.glClearColor(0, 0, 0, 0);
+        GL32.glClear(GL32.GL_COLOR_BUFFER_BIT);
+        ApplyPixelMode(Pixel.Mode.NORMAL, GL32.GL_ONE, GL32.GL_ZERO);
+        UseProgram(PickProgram());
+        
+        for (LayerDesc layer : drawOrder) {
+            if (!layer.bShow || layer.scale.x == 0 || layer.scale.y == 0)
+                continue;
+            // sprites sit in the layer's pixels, so they follow the offset and scale the layer is composited with
+            GL32.glPushMatrix();
+            GL32.glScalef(1 / layer.scale.x, 1 / layer.scale.y, 1);
+            GL32.glTranslatef(-layer.offset.x * screenSize.x, -screenSize.y * (1 - layer.offset.y - layer.scale.y), 0);
+            for (DecalInstance decal : layer.decals)
+                if (decal.pickOnly)
+                    RenderPickShape(decal);
+            GL32.glPopMatrix();
+            for (DecalInstance decal : layer.decals)
+                if (!decal.pickOnly && decal.pickId != 0 && decal.particles == null)
+                    RenderPickShape(decal);
+        }
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+        UseProgram(0);
+        
+        ReadPickRegion();
+    }
+    
+    private void RenderPickShape(DecalInstance decal) {
+        int id = decal.pickId;
+        GL32.glUniform4f(pickIdLocation, (id >>> 24) / 255.f, (id >>> 16 & 0xff) / 255.f, (id >>> 8 & 0xff) / 255.f, (id & 0xff) / 255.f);
+        Sprite sprite = decal.decal != null ? decal.decal.getSprite() : decal.pickSprite;
+        if (sprite != null && sprite.isIndexed())
+            BindPalette(sprite.getPalette());
+        GL32.glUniform1i(pickModeLocation, sprite == null ? 0 : sprite.isIndexed() ? 2 : 1);
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, sprite != null ? sprite.getId() : 0);
+        if (sprite != null)
+            stats.textureBinds++;
+        
+        if (decal.quads != null) {
+            long address = MemoryUtil.memAddress(decal.quads.vertices);
+            GL32.glEnableClientState(GL32.GL_VERTEX_ARRAY);
+            GL32.glEnableClientState(GL32.GL_TEXTURE_COORD_ARRAY);
+            GL32.glVertexPointer(2, GL32.GL_FLOAT, QuadBatch.STRIDE, address);
+            GL32.glTexCoordPointer(2, GL32.GL_FLOAT, QuadBatch.STRIDE, address + 8);
+            GL32.glDrawArrays(GL32.GL_QUADS, 0, decal.quads.count * 4);
+            stats.drawCalls++;
+            GL32.glDisableClientState(GL32.GL_TEXTURE_COORD_ARRAY);
+            GL32.glDisableClientState(GL32.GL_VERTEX_ARRAY);
+            return;
+        }
+        GL32.glBegin(GL32.GL_QUADS);
+        for (int i = 0; i < 4; i++) {
+            GL32.glTexCoord4f(decal.uv[i].x, decal.uv[i].y, 0, decal.w[i]);
+            GL32.glVertex2f(decal.pos[i].x, decal.pos[i].y);
+        }
+        GL32.glEnd();
+        stats.drawCalls++;
+    }
+    
+    private void ReadPickRegion() {
+        int current = pickFrame & 1;
+        int x = Math.max(0, pickX);
+        int y = Math.max(0, pickY);
+        int w = Math.min(pickTarget.size.x, pickX + pickW) - x;
+        int h = Math.min(pickTarget.size.y, pickY + pickH) - y;
+        pickWidths[current] = Math.max(0, w);
+        pickHeights[current] = Math.max(0, h);
+        GL32.glBindBuffer(GL32.GL_PIXEL_PACK_BUFFER, pickBuffers[current]);
+        if (w > 0 && h > 0) {
+            GL32.glBufferData(GL32.GL_PIXEL_PACK_BUFFER, (long)w * h * 4, GL32.GL_STREAM_READ);
+            // the id buffer is bottom-up, the region top-down
+            GL32.glReadPixels(x, pickTarget.size.y - y - h, w, h, GL32.GL_RGBA, GL32.GL_UNSIGNED_BYTE, 0);
+        }
+        
+        // the other buffer was filled last frame, so its transfer has finished by now
+        int previous = current ^ 1;
+        int pw = pickWidths[previous];
+        int ph = pickHeights[previous];
+        pickedWidth = 0;
+        pickedHeight = 0;
+        if (pickFrame > 0 && pw > 0 && ph > 0) {
+            GL32.glBindBuffer(GL32.GL_PIXEL_PACK_BUFFER, pickBuffers[previous]);
+            ByteBuffer data = GL32.glMapBufferRange(GL32.GL_PIXEL_PACK_BUFFER, 0, (long)pw * ph * 4, GL32.GL_MAP_READ_BIT);
+            if (data != null) {
+                if (pickedIds.length < pw * ph)
+                    pickedIds = new int[pw * ph];
+                data.order(ByteOrder.BIG_ENDIAN);
+                for (int row = 0; row < ph; row++)
+                    for (int column = 0; column < pw; column++)
+                        pickedIds[row * pw + column] = data.getInt(((ph - 1 - row) * pw + column) * 4);
+                GL32.glUnmapBuffer(GL32.GL_PIXEL_PACK_BUFFER);
+                pickedWidth = pw;
+                pickedHeight = ph;
+            }
+        }
+        GL32.glBindBuffer(GL32.GL_PIXEL_PACK_BUFFER, 0);
+        pickFrame++;
+    }
+    
+    private RenderTarget PostTarget(int divisor, RenderTarget avoid) {
+        RenderTarget[] pair = postTargets.computeIfAbsent(divisor, d -> new RenderTarget[2]);
+        int i = pair[0] != null && pair[0] == avoid ? 1 : 0;
+        if (pair[i] == null) {
+            RenderTarget target = new RenderTarget();
+            target.size = new VI2D(Math.max(1, windowSize.x / divisor), Math.max(1, windowSize.y / divisor));
+            target.frambufferID = GL32.glGenFramebuffers();
+            GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, target.frambufferID);
+            target.texID = GL32.glGenTextures();
+            GL32.glBindTexture(GL32.GL_TEXTURE_2D, target.texID);
+            GL32.glTexImage2D(GL32.GL_TEXTURE_2D, 0, GL32.GL_RGBA8, target.size.x, target.size.y, 0, GL32.GL_RGBA, GL32.GL_UNSIGNED_BYTE, 0);
+            GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MAG_FILTER, GL32.GL_LINEAR);
+            GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_MIN_FILTER, GL32.GL_LINEAR);
+            GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_WRAP_S, GL32.GL_CLAMP_TO_EDGE);
+            GL32.glTexParameteri(GL32.GL_TEXTURE_2D, GL32.GL_TEXTURE_WRAP_T, GL32.GL_CLAMP_TO_EDGE);
+            GL32.glBindTexture(GL32.GL_TEXTURE_2D, 0);
+            GL32.glFramebufferTexture(GL32.GL_FRAMEBUFFER, GL32.GL_COLOR_ATTACHMENT0, target.texID, 0);
+            if (GL32.glCheckFramebufferStatus(GL32.GL_FRAMEBUFFER) != GL32.GL_FRAMEBUFFER_COMPLETE) throw new IllegalStateException("Couldn't create framebuffer");
+            pair[i] = target;
+        }
+        return pair[i];
+    }
+    
+    private void RunPostPasses(RenderTarget source) {
+        ApplyPixelMode(Pixel.Mode.NORMAL, GL32.GL_ONE, GL32.GL_ZERO);
+        
+        int last = -1;
+        for (int i = 0; i < postPasses.size(); i++) {
+            PostPass pass = postPasses.get(i);
+            if (pass != null && pass.enabled)
+                last = i;
+        }
+        
+        float time = (System.nanoTime() - postStartTime) / 1e9f;
+        for (int i = 0; i <= last; i++) {
+            PostPass pass = postPasses.get(i);
+            if (pass == null || !pass.enabled)
+                continue;
+            // a full resolution last pass writes straight to the window, saving the final copy
+            RenderTarget output = i == last && pass.divisor == 1 ? null : PostTarget(pass.divisor, source);
+            VI2D size = BindPostOutput(output);
+            
+            UseProgram(pass.program);
+            GL32.glUniform1i(pass.textureLocation, 0);
+            GL32.glUniform2f(pass.resolutionLocation, size.x, size.y);
+            GL32.glUniform2f(pass.sourceResolutionLocation, source.size.x, source.size.y);
+            GL32.glUniform1f(pass.timeLocation, time);
+            for (int u = 0; u < pass.uniforms.size(); u++)
+                SetUniform(pass.uniforms.get(u));
+            DrawPostQuad(source);
+            
+            source = output;
+        }
+        
+        if (source != null) {
+            BindPostOutput(null);
+            UseProgram(PostCopyProgram());
+            DrawPostQuad(source);
+        }
+        UseProgram(0);
+    }
+    
+    private VI2D BindPostOutput(RenderTarget output) {
+        if (output == null) {
+            GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, 0);
+            GL32.glClearColor(0, 0, 0, 1);
+            GL32.glClear(GL32.GL_COLOR_BUFFER_BIT);
+            GL32.glViewport(windowOffset.x, windowOffset.y, windowSize.x, windowSize.y);
+            return windowSize;
+        }
+        GL32.glBindFramebuffer(GL32.GL_FRAMEBUFFER, output.frambufferID);
+        GL32.glViewport(0, 0, output.size.x, output.size.y);
+        return output.size;
+    }
+    
+    private static void SetUniform(PostUniform uniform) {
+        float[] v = uniform.values;
+        switch (v.length) {
+            case 1: GL32.glUniform1f(uniform.location, v[0]); break;
+            case 2: GL32.glUniform2f(uniform.location, v[0], v[1]); break;
+            case 3: GL32.glUniform3f(uniform.location, v[0], v[1], v[2]); break;
+            case 4: GL32.glUniform4f(uniform.location, v[0], v[1], v[2], v[3]); break;
+            default: GL32.glUniform1fv(uniform.location, v); break;
+        }
+    }
+    
+    private void DrawPostQuad(RenderTarget source) {
+        // the vertex shader passes positions through, so this is a clip space quad
+        GL32.glBindTexture(GL32.GL_TEXTURE_2D, source.texID);
+        stats.textureBinds++;
+        GL32.glBegin(GL32.GL_QUADS);
+        GL32.glTexCoord2f(0, 0);
+        GL32.glVertex2f(-1, -1);
+        GL32.glTexCoord2f(1, 0);
+        GL32.glVertex2f(1, -1);
+        GL32.glTexCoord2f(1, 1);
+        GL32.glVertex2f(1, 1);
+        GL32.glTexCoord2f(0, 1);
+        GL32.glVertex2f(-1, 1);
+        GL32.glEnd();
+        stats.drawCalls++;
+    }
+    
+    @Override
+    public void PollEvents(double timeout) {
+        if (timeout > 0)
+            GLFW.glfwWaitEventsTimeout(timeout);
+        else
+            GLFW.glfwPollEvents();
+    }
+    
     @Override
     public void SetTitle(String title) {
         GLFW.glfwSetWindowTitle(window, title);
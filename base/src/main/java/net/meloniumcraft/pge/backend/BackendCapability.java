@@ -0,0 +1,16 @@
+package net.meloniumcraft.pge.backend;
+
+/**
+ * Optional features a {@link PGEBackend} declares through {@link PGEBackend#getCapabilities()},
+ * so an engine can ask {@link BackendRegistry} for a backend that has the ones it needs.
+ */
+public enum BackendCapability {
+    /** Draws many copies of a decal as one batch rather than one call per copy. */
+    INSTANCING,
+    /** Runs custom shaders, which post passes and palette indexed sprites need. */
+    SHADERS,
+    /** Runs without a window or display. */
+    HEADLESS,
+    /** Accepts draw calls recorded by jobs on other threads. */
+    MULTITHREADED_RECORDING
+}
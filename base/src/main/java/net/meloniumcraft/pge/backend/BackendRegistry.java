@@ -0,0 +1,70 @@
+package net.meloniumcraft.pge.backend;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Finds the {@link PGEBackend} implementations registered as services on the classpath.
+ * Every call creates fresh instances, so each engine gets a backend of its own.
+ */
+public final class BackendRegistry {
+    private BackendRegistry() {}
+    
+    /**
+     * Every registered backend, highest priority first.
+     */
+    public static List<PGEBackend> Discover() {
+        List<PGEBackend> backends = new ArrayList<>();
+        for (PGEBackend backend : ServiceLoader.load(PGEBackend.class))
+            backends.add(backend);
+        backends.sort((a, b) -> Integer.compare(b.getPriority(), a.getPriority()));
+        return backends;
+    }
+    
+    public static PGEBackend Select(String name) {
+        for (PGEBackend backend : Discover())
+            if (backend.getName().equalsIgnoreCase(name))
+                return backend;
+        throw new IllegalStateException("BackendRegistry: No backend named " + name + " is registered!");
+    }
+    
+    /**
+     * The highest priority backend that has every capability in {@code required}.
+     */
+    public static PGEBackend Select(Collection<BackendCapability> required) {
+        return Candidates(required).get(0);
+    }
+    
+    /**
+     * Runs {@link PGEBackend#Probe()} on every backend that has the required capabilities
+     * and returns the one that scored highest on this machine. Backends that can't be
+     * probed score 0, so ties and unprobed backends fall back to priority order.
+     */
+    public static PGEBackend SelectFastest(Collection<BackendCapability> required) {
+        List<PGEBackend> candidates = Candidates(required);
+        if (candidates.size() == 1)
+            return candidates.get(0);
+        PGEBackend fastest = null;
+        double best = -1;
+        for (PGEBackend backend : candidates) {
+            double score = backend.Probe();
+            if (score > best) {
+                fastest = backend;
+                best = score;
+            }
+        }
+        return fastest;
+    }
+    
+    private static List<PGEBackend> Candidates(Collection<BackendCapability> required) {
+        List<PGEBackend> candidates = Discover();
+        if (candidates.isEmpty())
+            throw new IllegalStateException("BackendRegistry: No backend is registered!");
+        candidates.removeIf(backend -> !backend.getCapabilities().containsAll(required));
+        if (candidates.isEmpty())
+            throw new IllegalStateException("BackendRegistry: No backend has all of " + required + "!");
+        return candidates;
+    }
+}
@@ -1,16 +1,89 @@
 package net.meloniumcraft.pge.backend;
 
 import net.meloniumcraft.pge.core.callbacks.*;
+import net.meloniumcraft.pge.core.drawlist.DrawListGeometry;
+import net.meloniumcraft.pge.core.metrics.RenderStats;
+import net.meloniumcraft.pge.core.metrics.StartupReport;
 import net.meloniumcraft.pge.core.types.*;
 
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+
 public abstract class PGEBackend {
+    private static final ThreadLocal<PGEBackend> current = new ThreadLocal<>();
+    
+    protected final RenderStats stats = new RenderStats();
+    protected final StartupReport startup = new StartupReport();
+    
+    /**
+     * The backend new sprites and decals bind to on the calling thread, set by the engine
+     * that owns it on construction and when it starts.
+     */
+    public static PGEBackend Current() {
+        PGEBackend backend = current.get();
+        if (backend == null)
+            throw new IllegalStateException("PGEBackend: No engine is current on this thread!");
+        return backend;
+    }
+    
+    public final void MakeCurrent() {
+        current.set(this);
+    }
+    
+    public final RenderStats getStats() {
+        return stats;
+    }
+    
+    public final StartupReport getStartup() {
+        return startup;
+    }
+    
+    /**
+     * The name {@link BackendRegistry#Select(String)} finds this backend by.
+     */
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+    
+    public Set<BackendCapability> getCapabilities() {
+        return EnumSet.noneOf(BackendCapability.class);
+    }
+    
+    /**
+     * Backends with a higher priority are preferred when several fit.
+     */
+    public int getPriority() {
+        return 0;
+    }
+    
+    /**
+     * Runs a short drawing benchmark before {@link #Create} and returns a score that is
+     * higher the faster this backend draws on this machine, or 0 if it can't be probed.
+     * The backend must still be usable afterwards.
+     */
+    public double Probe() {
+        return 0;
+    }
+    
     public abstract int CreateLayer();
+    public abstract int CreateLayer(int order, int divisor);
+    public abstract void DeleteLayer(int layer);
     public abstract int GetLayer();
     public abstract void SetLayer(int layer);
     public abstract void EnableLayer(int layer, boolean b);
     public abstract void SetLayerOffset(int layer, float x, float y);
     public abstract void SetLayerScale(int layer, float x, float y);
     public abstract void SetLayerTint(int layer, Pixel tint);
+    public abstract void SetLayerBlend(int layer, Pixel.Mode mode);
+    public abstract void SetLayerOrder(int layer, int order);
+    public abstract int GetLayerOrder(int layer);
+    public abstract void SetLayerResolution(int layer, int divisor);
+    public abstract void EnableLayerMipmaps(int layer, boolean enable);
+    public abstract void SetDrawTarget(Sprite target);
+    public abstract void SetPixelMode(Pixel.Mode mode, Pixel.BlendFactor src, Pixel.BlendFactor dst);
+    public abstract Pixel.Mode GetPixelMode();
     
     public abstract void Clear(Pixel p);
     public abstract void Draw(int x, int y, Pixel p);
@@ -22,6 +95,12 @@ public abstract class PGEBackend {
     public abstract void DrawTriangle(int x1, int y1, int x2, int y2, int x3, int y3, Pixel p);
     public abstract void FillTriangle(int x1, int y1, int x2, int y2, int x3, int y3, Pixel p);
     
+    public abstract void DrawPoints(IntBuffer xy, IntBuffer rgba, int count);
+    public abstract void DrawLines(IntBuffer xy, IntBuffer rgba, int count);
+    public abstract void DrawPolyline(IntBuffer xy, int count, Pixel p);
+    public abstract void FillRects(IntBuffer rects, IntBuffer rgba, int count);
+    public abstract void FillTriangles(IntBuffer xy, IntBuffer rgba, int count);
+    
     public abstract void DrawSprite(int x, int y, Sprite sprite, int scale, Sprite.FLIP flip);
     public abstract void DrawPartialSprite(int x, int y, Sprite sprite, int ox, int oy, int w, int h, int scale, Sprite.FLIP flip);
     
@@ -35,15 +114,44 @@ public abstract class PGEBackend {
     public abstract void DrawPartialRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D source_pos, VF2D source_size, VF2D scale, Pixel tint);
     public abstract void FillRectDecal(VF2D pos, VF2D size, Pixel col);
     public abstract void GradientFillRectDecal(VF2D pos, VF2D size, Pixel colTL, Pixel colBL, Pixel colBR, Pixel colTR);
+    public abstract void DrawParticles(Decal decal, float[] x, float[] y, int[] rgba, int count, float size);
+    public abstract void DrawDecalQuads(Decal decal, float[] rects, float[] uvs, int[] rgba, int count);
+    public abstract void DrawDecalInstances(Decal decal, float[] xy, float[] scale, int[] rgba, int count);
+    public abstract void DrawDecalInstances(Decal decal, FloatBuffer xy, FloatBuffer scale, IntBuffer rgba, int count);
+    
+    public abstract int AddPostPass(String fragmentShader, int divisor);
+    public abstract void RemovePostPass(int pass);
+    public abstract void EnablePostPass(int pass, boolean b);
+    public abstract void SetPostPassUniform(int pass, String name, float... values);
+    
+    public abstract int CreateDrawList(DrawListGeometry geometry);
+    public abstract void DeleteDrawList(int list);
+    public abstract void ReplayDrawList(int list, int x, int y);
+    
+    public abstract void EnablePicking(boolean enable);
+    public abstract void SetPickId(int id);
+    public abstract void SetPickRegion(int x, int y, int w, int h);
+    public abstract int GetPickedId();
+    public abstract int GetPickedIds(int[] ids);
     
     public abstract VI2D GetTextSize(String text);
     public abstract void DrawString(int x, int y, String sText, Pixel col, int scale);
     public abstract void DrawStringDecal(VF2D pos, String sText, Pixel col, VF2D scale);
+    public abstract VI2D GetTextSize(Font font, String text);
+    public abstract void DrawString(Font font, int x, int y, String sText, Pixel col);
     
     public abstract int CreateSprite();
     public abstract void MakeSprite(Sprite sprite, int width, int height);
     public abstract void LoadSpriteTexture(Sprite sprite, String path, boolean packed);
     public abstract void DeleteSprite(Sprite sprite);
+    public abstract void UpdateSpriteFilter(Sprite sprite);
+    public abstract void UpdateSpritePixels(Sprite sprite, int[] rgba);
+    public abstract void MakeIndexedSprite(Sprite sprite, byte[] indices);
+    public abstract void LoadIndexedSpriteTexture(Sprite sprite, String path, Palette palette);
+    public abstract int CreatePalette();
+    public abstract void DeletePalette(Palette palette);
+    public abstract int CreateFont(String path, float pixelHeight);
+    public abstract void DeleteFont(Font font);
     public abstract int CreateDecal(Sprite s);
     public abstract void DeleteDecal(Decal decal);
     
@@ -51,8 +159,10 @@ public abstract class PGEBackend {
     public abstract void Destroy();
     public abstract boolean ShouldClose();
     public abstract void CloseHint(boolean close);
+    public abstract void SetRenderScale(float scale);
     public abstract void OnPreUpdate();
     public abstract void OnPostUpdate();
+    public abstract void PollEvents(double timeout);
     public abstract void SetTitle(String title);
     public abstract int GetMouseButtonCount();
     
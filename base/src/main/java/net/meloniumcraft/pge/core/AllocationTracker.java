@@ -0,0 +1,80 @@
+package net.meloniumcraft.pge.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+final class AllocationTracker {
+    private final com.sun.management.ThreadMXBean threads;
+    // bytes one Sample() allocates by itself, on JVMs where reading the counter isn't free
+    private final long sampleBytes;
+    
+    private long frameStart;
+    private long updateStart;
+    private long updateBytes;
+    private long backendBytes;
+    private long frames;
+    
+    private long limit = -1;
+    private int warmupFrames;
+    private boolean fail;
+    
+    AllocationTracker() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean) || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+            throw new UnsupportedOperationException("AllocationTracker: this JVM can't measure per thread allocations!");
+        threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 16; i++) {
+            long first = Sample();
+            overhead = Math.min(overhead, Sample() - first);
+        }
+        sampleBytes = Math.max(0, overhead);
+    }
+    
+    private long Sample() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    void SetLimit(long limit, int warmupFrames, boolean fail) {
+        this.limit = limit;
+        this.warmupFrames = warmupFrames;
+        this.fail = fail;
+        this.frames = 0;
+    }
+    
+    long getUpdateBytes() {
+        return updateBytes;
+    }
+    
+    long getBackendBytes() {
+        return backendBytes;
+    }
+    
+    void BeginFrame() {
+        frameStart = Sample();
+    }
+    
+    void BeginUpdate() {
+        updateStart = Sample();
+    }
+    
+    void EndUpdate() {
+        updateBytes = Math.max(0, Sample() - updateStart - sampleBytes);
+    }
+    
+    void EndFrame() {
+        // the frame window also holds the two update samples
+        backendBytes = Math.max(0, Sample() - frameStart - 3 * sampleBytes - updateBytes);
+        if (limit < 0 || ++frames <= warmupFrames)
+            return;
+        long total = updateBytes + backendBytes;
+        if (total <= limit)
+            return;
+        String message = "AllocationTracker: frame " + frames + " allocated " + total + " bytes (update " + updateBytes
+                + ", backend " + backendBytes + "), the limit is " + limit + "!";
+        if (fail)
+            throw new IllegalStateException(message);
+        System.err.println(message);
+    }
+}
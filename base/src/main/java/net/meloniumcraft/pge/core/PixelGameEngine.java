@@ -1,22 +1,42 @@
 package net.meloniumcraft.pge.core;
 
+import net.meloniumcraft.pge.backend.BackendCapability;
+import net.meloniumcraft.pge.backend.BackendRegistry;
 import net.meloniumcraft.pge.backend.PGEBackend;
 import net.meloniumcraft.pge.core.callbacks.KeyCallback;
 import net.meloniumcraft.pge.core.callbacks.MouseClickCallback;
 import net.meloniumcraft.pge.core.callbacks.MouseMoveCallback;
 import net.meloniumcraft.pge.core.callbacks.ScrollCallback;
+import net.meloniumcraft.pge.core.drawlist.DrawList;
+import net.meloniumcraft.pge.core.drawlist.DrawListGeometry;
+import net.meloniumcraft.pge.core.drawlist.DrawListRecorder;
+import net.meloniumcraft.pge.core.input.ClickType;
 import net.meloniumcraft.pge.core.input.HWButton;
 import net.meloniumcraft.pge.core.input.Key;
+import net.meloniumcraft.pge.core.jobs.CommandBuffer;
+import net.meloniumcraft.pge.core.jobs.Job;
+import net.meloniumcraft.pge.core.jobs.JobSystem;
+import net.meloniumcraft.pge.core.metrics.FrameMetrics;
+import net.meloniumcraft.pge.core.metrics.FrameMetricsMBean;
+import net.meloniumcraft.pge.core.metrics.StartupReport;
 import net.meloniumcraft.pge.core.types.*;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.ServiceLoader;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 public abstract class PixelGameEngine {
     protected String sAppName = "";
     
     private final PGEBackend backend;
+    private final JobSystem jobs = new JobSystem();
     
     private int screenW;
     private int screenH;
@@ -25,22 +45,63 @@ public abstract class PixelGameEngine {
     private boolean fullScreen;
     private boolean vSync;
     
-    private Map<Key, HWButton> keyStates;
+    private boolean lowLatencyInput;
+    private double inputWaitTimeout;
+    private long frameStartTime;
+    
+    private ResolutionScaler resolutionScaler;
+    private float renderScale = 1;
+    
+    private AllocationTracker allocations;
+    private FrameMetrics metrics;
+    private ObjectName metricsName;
+    private DrawListRecorder drawList;
+    
+    private boolean startupReport;
+    
+    // indexed by Key ordinal
+    private HWButton[] keyStates;
     private HWButton[] mouseStates;
     private int mouseX;
     private int mouseY;
     private int wheelDelta;
     
-    public PixelGameEngine() {
-        backend = ServiceLoader.load(PGEBackend.class).iterator().next();
-        Sprite.setBackend(backend);
-        Decal.setBackend(backend);
+    /**
+     * Runs on the highest priority registered backend, or on the backend with the given
+     * name or with every required capability. {@link BackendRegistry#SelectFastest} picks
+     * one by benchmarking the candidates instead.
+     */
+    public PixelGameEngine() { this(EnumSet.noneOf(BackendCapability.class)); }
+    protected PixelGameEngine(String backendName) { this(LoadBackend(() -> BackendRegistry.Select(backendName))); }
+    protected PixelGameEngine(Set<BackendCapability> required) { this(LoadBackend(() -> BackendRegistry.Select(required))); }
+    /**
+     * Uses {@code backend} directly, which skips the service lookup of the other
+     * constructors at startup.
+     */
+    protected PixelGameEngine(PGEBackend backend) {
+        this.backend = backend;
+        backend.MakeCurrent();
+    }
+    
+    private static PGEBackend LoadBackend(Supplier<PGEBackend> lookup) {
+        long start = System.nanoTime();
+        PGEBackend backend = lookup.get();
+        backend.getStartup().Begin(start);
+        backend.getStartup().Mark("backend lookup");
+        return backend;
     }
     
     protected boolean OnUserCreate() { return true; }
     protected abstract boolean OnUserUpdate(float fElapsedTime);
     protected boolean OnUserDestroy() { return true; }
     
+    private PGEBackend target() {
+        CommandBuffer recorder = jobs.getRecorder();
+        if (recorder != null)
+            return recorder;
+        return drawList != null ? drawList : backend;
+    }
+    
     public boolean Construct(int screenW, int screenH, int pixelW, int pixelH) { return Construct(screenW, screenH, pixelW, pixelH, false); }
     public boolean Construct(int screenW, int screenH, int pixelW, int pixelH, boolean fullScreen) { return Construct(screenW, screenH, pixelW, pixelH, fullScreen, false); }
     public boolean Construct(int screenW, int screenH, int pixelW, int pixelH, boolean fullScreen, boolean vSync) {
@@ -54,22 +115,24 @@ public abstract class PixelGameEngine {
         this.fullScreen = fullScreen;
         this.vSync = vSync;
         
-        keyStates = new HashMap<>();
-        for (Key k : Key.values())
-            keyStates.put(k, new HWButton());
+        keyStates = new HWButton[Key.values().length];
+        for (int i = 0; i < keyStates.length; i++)
+            keyStates[i] = new HWButton();
         
         mouseStates = new HWButton[backend.GetMouseButtonCount()];
         for (int i = 0; i < mouseStates.length; i++) {
             mouseStates[i] = new HWButton();
         }
         
+        backend.getStartup().Mark("construct");
         return true;
     }
     
     public final void Start() {
+        backend.MakeCurrent();
         backend.Create(screenW, screenH, pixelW, pixelH, fullScreen, vSync);
         
-        long lastTime = System.currentTimeMillis();
+        long lastTime = System.nanoTime();
         long time, elapsedTime;
         
         float timeCount = 0;
@@ -77,33 +140,9 @@ public abstract class PixelGameEngine {
         
         String baseName = "Pixel Game Engine - " + sAppName + " - FPS: ";
         
-        backend.RegisterKeyCallBack((key, type) -> {
-            HWButton button = keyStates.get(key);
-            switch (type) {
-                case PRESSED:
-                    button.bPressed = true;
-                    button.bHeld = true;
-                    break;
-                case RELEASED:
-                    button.bReleased = true;
-                    button.bHeld = false;
-                    break;
-            }
-        });
+        backend.RegisterKeyCallBack((key, type) -> UpdateButton(keyStates[key.ordinal()], type));
         
-        backend.RegisterMouseClickCallback((mouseButton, type) -> {
-            HWButton button = mouseStates[mouseButton];
-            switch(type) {
-                case PRESSED:
-                    button.bPressed = true;
-                    button.bHeld = true;
-                    break;
-                case RELEASED:
-                    button.bReleased = true;
-                    button.bHeld = false;
-                    break;
-            }
-        });
+        backend.RegisterMouseClickCallback((mouseButton, type) -> UpdateButton(mouseStates[mouseButton], type));
         
         backend.RegisterMouseMoveCallback((x, y) -> {
             mouseX = x;
@@ -114,133 +153,413 @@ public abstract class PixelGameEngine {
         
         if (!OnUserCreate())
             backend.CloseHint(true);
+        backend.getStartup().Mark("OnUserCreate");
         
         backend.SetTitle(baseName + 0);
         
-        while (!backend.ShouldClose()) {
+        try {
             while (!backend.ShouldClose()) {
-                time = System.currentTimeMillis();
-                elapsedTime = time - lastTime;
-                lastTime = time;
-                timeCount += elapsedTime;
-                
-                backend.OnPreUpdate();
-                if (!OnUserUpdate(elapsedTime / 1000.f))
-                    backend.CloseHint(true);
-                
-                keyStates.values().forEach(state -> {
-                    state.bPressed = false;
-                    state.bReleased = false;
-                });
-                
-                for (HWButton state : mouseStates) {
-                    state.bPressed = false;
-                    state.bReleased = false;
-                }
-                
-                backend.OnPostUpdate();
-                
-                fps++;
-                while(timeCount >= 1000) {
-                    backend.SetTitle(baseName + fps);
-                    fps = 0;
-                    timeCount -= 1000;
+                while (!backend.ShouldClose()) {
+                    time = System.nanoTime();
+                    elapsedTime = time - lastTime;
+                    lastTime = time;
+                    timeCount += elapsedTime / 1e6f;
+                    frameStartTime = time;
+                    
+                    if (metrics != null)
+                        metrics.BeginFrame();
+                    if (allocations != null)
+                        allocations.BeginFrame();
+                    backend.OnPreUpdate();
+                    if (lowLatencyInput)
+                        backend.PollEvents(inputWaitTimeout);
+                    if (allocations != null)
+                        allocations.BeginUpdate();
+                    if (metrics != null)
+                        metrics.BeginUpdate();
+                    boolean keepRunning = OnUserUpdate(elapsedTime / 1e9f);
+                    if (metrics != null)
+                        metrics.EndUpdate();
+                    if (allocations != null)
+                        allocations.EndUpdate();
+                    if (!keepRunning)
+                        backend.CloseHint(true);
+                    jobs.EndFrame(backend);
+                    
+                    for (HWButton state : keyStates)
+                        ResetButton(state);
+                    
+                    for (HWButton state : mouseStates)
+                        ResetButton(state);
+                    
+                    backend.OnPostUpdate();
+                    if (!backend.getStartup().isFinished()) {
+                        backend.getStartup().Finish("first frame");
+                        if (startupReport)
+                            System.err.println(backend.getStartup());
+                    }
+                    // the metrics bracket the allocation window, so their own bookkeeping isn't counted
+                    if (allocations != null)
+                        allocations.EndFrame();
+                    if (metrics != null)
+                        metrics.EndFrame();
+                    
+                    if (resolutionScaler != null) {
+                        float scale = resolutionScaler.Update((System.nanoTime() - time) / 1e9f, renderScale);
+                        if (scale != renderScale)
+                            SetRenderScale(scale);
+                    }
+                    
+                    fps++;
+                    while(timeCount >= 1000) {
+                        if (allocations != null)
+                            backend.SetTitle(baseName + fps + " - Alloc: " + (allocations.getUpdateBytes() + allocations.getBackendBytes()) + " B/frame");
+                        else
+                            backend.SetTitle(baseName + fps);
+                        fps = 0;
+                        timeCount -= 1000;
+                    }
                 }
+                if (!OnUserDestroy())
+                    backend.CloseHint(false);
             }
-            if (!OnUserDestroy())
-                backend.CloseHint(false);
+        } finally {
+            // the pool, the MBean and the window must not outlive the engine, even when a frame throws
+            jobs.Shutdown();
+            EnableMetrics(false);
+            backend.Destroy();
+        }
+    }
+    
+    private static void UpdateButton(HWButton button, ClickType type) {
+        long time = System.nanoTime();
+        switch (type) {
+            case PRESSED:
+                button.bPressed = true;
+                button.bHeld = true;
+                button.nPresses++;
+                button.pressTime = time;
+                break;
+            case RELEASED:
+                button.bReleased = true;
+                button.bHeld = false;
+                button.nReleases++;
+                button.releaseTime = time;
+                break;
         }
-        backend.Destroy();
     }
     
-    public final int  CreateLayer()                               { return backend.CreateLayer();              }
-    public final int  GetLayer()                                  { return backend.GetLayer();                 }
-    public final void SetLayer(int layer)                         { backend.SetLayer(layer);                   }
-    public final void EnableLayer(int layer, boolean b)           { backend.EnableLayer(layer, b);             }
-    public final void SetLayerOffset(int layer, VF2D offset)      { SetLayerOffset(layer, offset.x, offset.y); }
-    public final void SetLayerOffset(int layer, float x, float y) { backend.SetLayerOffset(layer, x, y);       }
-    public final void SetLayerScale(int layer, VF2D offset)       { SetLayerScale(layer, offset.x, offset.y);  }
-    public final void SetLayerScale(int layer, float x, float y)  { backend.SetLayerScale(layer, x, y);        }
-    public final void SetLayerTint(int layer, Pixel tint)         { backend.SetLayerTint(layer, tint);         }
+    private static void ResetButton(HWButton button) {
+        button.bPressed = false;
+        button.bReleased = false;
+        button.nPresses = 0;
+        button.nReleases = 0;
+    }
+    
+    public final void SetLowLatencyInput(boolean enabled)                       { SetLowLatencyInput(enabled, 0); }
+    public final void SetLowLatencyInput(boolean enabled, double waitTimeout) {
+        lowLatencyInput = enabled;
+        inputWaitTimeout = waitTimeout;
+    }
+    
+    public final int ScreenWidth() {
+        return screenW;
+    }
+    
+    public final int ScreenHeight() {
+        return screenH;
+    }
+    
+    public final long GetFrameStartTime() {
+        return frameStartTime;
+    }
+    
+    public final void EnableDynamicResolution(float targetFrameTime, float minScale, float maxScale) {
+        resolutionScaler = new ResolutionScaler(targetFrameTime, minScale, maxScale);
+        SetRenderScale(resolutionScaler.clamp(renderScale));
+    }
+    
+    public final void DisableDynamicResolution() {
+        resolutionScaler = null;
+        SetRenderScale(1);
+    }
+    
+    public final float GetRenderScale() {
+        return renderScale;
+    }
     
-    public final void Clear(Pixel p)                                                        { backend.Clear(p);                                                }
+    public final void SetRenderScale(float scale) {
+        if (scale <= 0 || scale > 1)
+            throw new IllegalArgumentException("PixelGameEngine: render scale must be in (0, 1]!");
+        renderScale = scale;
+        backend.SetRenderScale(scale);
+    }
+    
+    public final void EnableAllocationTracking(boolean enable) {
+        if (!enable)
+            allocations = null;
+        else if (allocations == null)
+            allocations = new AllocationTracker();
+    }
+    
+    /**
+     * Checks every frame after the first {@code warmupFrames} against {@code maxBytesPerFrame}
+     * of garbage on the render thread, and either logs the offending frame or throws if
+     * {@code fail} is set. Turns on allocation tracking.
+     */
+    public final void SetAllocationLimit(long maxBytesPerFrame, int warmupFrames, boolean fail) {
+        if (allocations == null)
+            allocations = new AllocationTracker();
+        allocations.SetLimit(maxBytesPerFrame, warmupFrames, fail);
+    }
+    
+    public final long GetUpdateAllocatedBytes() {
+        return allocations != null ? allocations.getUpdateBytes() : 0;
+    }
+    
+    public final long GetBackendAllocatedBytes() {
+        return allocations != null ? allocations.getBackendBytes() : 0;
+    }
+    
+    /**
+     * Collects frame timings and backend counters into {@link #GetMetrics()} and registers
+     * them as an MBean named {@code net.meloniumcraft.pge:type=FrameMetrics}. While a Flight
+     * Recorder recording runs, every frame is also emitted as a {@code net.meloniumcraft.pge.Frame}
+     * event. Disabled, the frame loop skips all of it.
+     */
+    public final void EnableMetrics(boolean enable) {
+        if (enable == (metrics != null))
+            return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (enable) {
+                metrics = new FrameMetrics(backend.getStats());
+                metricsName = new ObjectName("net.meloniumcraft.pge:type=FrameMetrics,name=" + ObjectName.quote(sAppName) + ",id=" + System.identityHashCode(this));
+                server.registerMBean(metrics, metricsName);
+            } else {
+                metrics.Close();
+                metrics = null;
+                server.unregisterMBean(metricsName);
+                metricsName = null;
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("PixelGameEngine: couldn't " + (enable ? "register" : "unregister") + " the metrics MBean!", e);
+        }
+    }
+    
+    public final FrameMetricsMBean GetMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Prints the {@link StartupReport} to stderr once the first frame has been shown.
+     * The phases are timed either way and can be read through {@link #GetStartupReport()}.
+     */
+    public final void EnableStartupReport(boolean enable) {
+        startupReport = enable;
+    }
+    
+    public final StartupReport GetStartupReport() {
+        return backend.getStartup();
+    }
+    
+    public final void MakeCurrent()                                     { backend.MakeCurrent();                        }
+    public final int  GetJobThreadCount()                               { return jobs.getParallelism();                 }
+    public final Job  ScheduleJob(Runnable work, Job... dependencies)   { return jobs.Schedule(work, dependencies);     }
+    public final void ParallelFor(int start, int end, IntConsumer body) { jobs.ParallelFor(start, end, body, target()); }
+    
+    public final int  CreateLayer()                               { return backend.CreateLayer();                }
+    public final int  CreateLayer(int order, int divisor)         { return backend.CreateLayer(order, divisor);  }
+    public final void DeleteLayer(int layer)                      { backend.DeleteLayer(layer);                  }
+    public final int  GetLayer()                                  { return backend.GetLayer();                   }
+    public final void SetLayer(int layer)                         { target().SetLayer(layer);                    }
+    public final void EnableLayer(int layer, boolean b)           { target().EnableLayer(layer, b);              }
+    public final void SetLayerOffset(int layer, VF2D offset)      { SetLayerOffset(layer, offset.x, offset.y);   }
+    public final void SetLayerOffset(int layer, float x, float y) { target().SetLayerOffset(layer, x, y);        }
+    public final void SetLayerScale(int layer, VF2D offset)       { SetLayerScale(layer, offset.x, offset.y);    }
+    public final void SetLayerScale(int layer, float x, float y)  { target().SetLayerScale(layer, x, y);         }
+    public final void SetLayerTint(int layer, Pixel tint)         { target().SetLayerTint(layer, tint);          }
+    public final void SetLayerBlend(int layer, Pixel.Mode mode)   { target().SetLayerBlend(layer, mode);         }
+    public final void SetLayerOrder(int layer, int order)         { target().SetLayerOrder(layer, order);        }
+    public final int  GetLayerOrder(int layer)                    { return backend.GetLayerOrder(layer);         }
+    public final void SetLayerResolution(int layer, int divisor)  { target().SetLayerResolution(layer, divisor); }
+    public final void EnableLayerMipmaps(int layer, boolean b)    { target().EnableLayerMipmaps(layer, b);       }
+    public final void SetDrawTarget(Sprite target)                { target().SetDrawTarget(target);              }
+    
+    /**
+     * Post passes run in creation order over the composited frame. Their fragment shaders
+     * are GLSL 1.20 and read the previous image through {@code uTexture} at {@code vTexCoord},
+     * with {@code uResolution}, {@code uSourceResolution} and {@code uTime} available. A pass
+     * renders at its divisor's fraction of the window size.
+     */
+    public final int  AddPostPass(String fragmentShader)                         { return AddPostPass(fragmentShader, 1);               }
+    public final int  AddPostPass(String fragmentShader, int divisor)            { return backend.AddPostPass(fragmentShader, divisor); }
+    public final void RemovePostPass(int pass)                                   { target().RemovePostPass(pass);                       }
+    public final void EnablePostPass(int pass, boolean b)                        { target().EnablePostPass(pass, b);                    }
+    public final void SetPostPassUniform(int pass, String name, float... values) { target().SetPostPassUniform(pass, name, values);     }
+    
+    /**
+     * Starts recording a draw list. Until {@link #EndDrawList()} the shape, sprite and
+     * decal calls made on the render thread are tessellated into the list instead of
+     * drawn; any other drawing state call throws.
+     */
+    public final void BeginDrawList() {
+        if (drawList != null)
+            throw new IllegalStateException("PixelGameEngine: a draw list is already being recorded!");
+        drawList = new DrawListRecorder();
+    }
+    
+    public final DrawList EndDrawList() {
+        if (drawList == null)
+            throw new IllegalStateException("PixelGameEngine: no draw list is being recorded!");
+        DrawListGeometry geometry = drawList.getGeometry();
+        drawList = null;
+        return new DrawList(this, backend.CreateDrawList(geometry));
+    }
+    
+    public final void ReplayDrawList(DrawList list, int x, int y) { target().ReplayDrawList(list.getId(), x, y); }
+    public final void DeleteDrawList(DrawList list)               { backend.DeleteDrawList(list.getId());       }
+    
+    /**
+     * Picking renders the pick id of every sprite and decal drawn while one is set into a
+     * hidden id buffer, and reads the pick region back without stalling, so results arrive
+     * one frame late. {@link #GetPickedIds(int[])} copies the region row by row and
+     * {@link #GetPickedId()} returns its centre. Id 0 means nothing was hit; textured
+     * shapes only count where their texture isn't fully transparent.
+     */
+    public final void EnablePicking(boolean enable)             { backend.EnablePicking(enable);               }
+    public final void SetPickId(int id)                         { target().SetPickId(id);                      }
+    public final void SetPickRegion(int x, int y, int w, int h) { target().SetPickRegion(x, y, w, h);          }
+    public final void SetPickRegion(VI2D pos, VI2D size)        { SetPickRegion(pos.x, pos.y, size.x, size.y); }
+    public final int  GetPickedId()                             { return backend.GetPickedId();                }
+    public final int  GetPickedIds(int[] ids)                   { return backend.GetPickedIds(ids);            }
+    
+    public final void SetPixelMode(Pixel.Mode mode)                                               { SetPixelMode(mode, Pixel.BlendFactor.SRC_ALPHA, Pixel.BlendFactor.ONE_MINUS_SRC_ALPHA); }
+    public final void SetPixelMode(Pixel.BlendFactor src, Pixel.BlendFactor dst)                  { SetPixelMode(Pixel.Mode.CUSTOM, src, dst);                                              }
+    public final void SetPixelMode(Pixel.Mode mode, Pixel.BlendFactor src, Pixel.BlendFactor dst) { target().SetPixelMode(mode, src, dst);                                                  }
+    public final Pixel.Mode GetPixelMode()                                                        { return backend.GetPixelMode();                                                          }
+    
+    public final void Clear(Pixel p)                                                        { target().Clear(p);                                               }
     public final void Draw(VI2D pos)                                                        { Draw(pos.x, pos.y);                                              }
     public final void Draw(VI2D pos, Pixel p)                                               { Draw(pos.x, pos.y, p);                                           }
     public final void Draw(int x, int y)                                                    { Draw(x, y, Pixel.WHITE);                                         }
-    public final void Draw(int x, int y, Pixel p)                                           { backend.Draw(x, y, p);                                           }
+    public final void Draw(int x, int y, Pixel p)                                           { target().Draw(x, y, p);                                          }
     public final void DrawLine(VI2D pos1, VI2D pos2)                                        { DrawLine(pos1.x, pos2.y, pos2.x, pos2.y);                        }
     public final void DrawLine(VI2D pos1, VI2D pos2, Pixel p)                               { DrawLine(pos1.x, pos1.y, pos2.x, pos2.y, p);                     }
     public final void DrawLine(int x1, int y1, int x2, int y2)                              { DrawLine(x1, y1, x2, y2, Pixel.WHITE);                           }
-    public final void DrawLine(int x1, int y1, int x2, int y2, Pixel p)                     { backend.DrawLine(x1, y1, x2, y2, p);                             }
+    public final void DrawLine(int x1, int y1, int x2, int y2, Pixel p)                     { target().DrawLine(x1, y1, x2, y2, p);                            }
     public final void DrawCircle(VI2D pos, int radius)                                      { DrawCircle(pos.x, pos.y, radius);                                }
     public final void DrawCircle(VI2D pos, int radius, Pixel p)                             { DrawCircle(pos.x, pos.y, radius, p);                             }
     public final void DrawCircle(int x, int y, int radius)                                  { DrawCircle(x, y, radius, Pixel.WHITE);                           }
-    public final void DrawCircle(int x, int y, int radius, Pixel p)                         { backend.DrawCircle(x, y, radius, p);                             }
+    public final void DrawCircle(int x, int y, int radius, Pixel p)                         { target().DrawCircle(x, y, radius, p);                            }
     public final void FillCircle(VI2D pos, int radius)                                      { FillCircle(pos.x, pos.y, radius);                                }
     public final void FillCircle(VI2D pos, int radius, Pixel p)                             { FillCircle(pos.x, pos.y, radius, p);                             }
     public final void FillCircle(int x, int y, int radius)                                  { FillCircle(x, y, radius, Pixel.WHITE);                           }
-    public final void FillCircle(int x, int y, int radius, Pixel p)                         { backend.FillCircle(x, y, radius, p);                             }
+    public final void FillCircle(int x, int y, int radius, Pixel p)                         { target().FillCircle(x, y, radius, p);                            }
     public final void DrawRect(VI2D pos, VI2D size)                                         { DrawRect(pos.x, pos.y, size.x, size.y);                          }
     public final void DrawRect(VI2D pos, VI2D size, Pixel p)                                { DrawRect(pos.x, pos.y, size.x, size.y, p);                       }
     public final void DrawRect(int x, int y, int w, int h)                                  { DrawRect(x, y, w, h, Pixel.WHITE);                               }
-    public final void DrawRect(int x, int y, int w, int h, Pixel p)                         { backend.DrawRect(x, y, w, h, p);                                 }
+    public final void DrawRect(int x, int y, int w, int h, Pixel p)                         { target().DrawRect(x, y, w, h, p);                                }
     public final void FillRect(VI2D pos, VI2D size)                                         { FillRect(pos.x, pos.y, size.x, size.y);                          }
     public final void FillRect(VI2D pos, VI2D size, Pixel p)                                { FillRect(pos.x, pos.y, size.x, size.y, p);                       }
     public final void FillRect(int x, int y, int w, int h)                                  { FillRect(x, y, w, h, Pixel.WHITE);                               }
-    public final void FillRect(int x, int y, int w, int h, Pixel p)                         { backend.FillRect(x, y, w, h, p);                                 }
+    public final void FillRect(int x, int y, int w, int h, Pixel p)                         { target().FillRect(x, y, w, h, p);                                }
     public final void DrawTriangle(VI2D pos1, VI2D pos2, VI2D pos3)                         { DrawTriangle(pos1.x, pos1.y, pos2.x, pos2.y, pos3.x, pos3.y);    }
     public final void DrawTriangle(VI2D pos1, VI2D pos2, VI2D pos3, Pixel p)                { DrawTriangle(pos1.x, pos1.y, pos2.x, pos2.y, pos3.x, pos3.y, p); }
     public final void DrawTriangle(int x1, int y1, int x2, int y2, int x3, int y3)          { DrawTriangle(x1, y1, x2, y2, x3, y3, Pixel.WHITE);               }
-    public final void DrawTriangle(int x1, int y1, int x2, int y2, int x3, int y3, Pixel p) { backend.DrawTriangle(x1, y1, x2, y2, x3, y3, p);                 }
+    public final void DrawTriangle(int x1, int y1, int x2, int y2, int x3, int y3, Pixel p) { target().DrawTriangle(x1, y1, x2, y2, x3, y3, p);                }
     public final void FillTriangle(VI2D pos1, VI2D pos2, VI2D pos3)                         { FillTriangle(pos1.x, pos1.y, pos2.x, pos2.y, pos3.x, pos3.y);    }
     public final void FillTriangle(VI2D pos1, VI2D pos2, VI2D pos3, Pixel p)                { FillTriangle(pos1.x, pos1.y, pos2.x, pos2.y, pos3.x, pos3.y, p); }
     public final void FillTriangle(int x1, int y1, int x2, int y2, int x3, int y3)          { FillTriangle(x1, y1, x2, y2, x3, y3, Pixel.WHITE);               }
-    public final void FillTriangle(int x1, int y1, int x2, int y2, int x3, int y3, Pixel p) { backend.FillTriangle(x1, y1, x2, y2, x3, y3, p);                 }
+    public final void FillTriangle(int x1, int y1, int x2, int y2, int x3, int y3, Pixel p) { target().FillTriangle(x1, y1, x2, y2, x3, y3, p);                }
+    
+    /**
+     * Bulk primitives, submitted to the backend in one call. Coordinates are interleaved:
+     * {@code x, y} per point, {@code x1, y1, x2, y2} per line, {@code x, y, w, h} per rect
+     * and three points per triangle. {@code rgba} holds one packed colour per primitive, or
+     * null for white. {@code count} counts primitives, or points for a polyline. Buffers are
+     * read from their current position and left unchanged.
+     */
+    public final void DrawPoints(int[] xy, int count)                        { DrawPoints(xy, null, count);                                                          }
+    public final void DrawPoints(int[] xy, int[] rgba, int count)            { DrawPoints(IntBuffer.wrap(xy), rgba != null ? IntBuffer.wrap(rgba) : null, count);    }
+    public final void DrawPoints(IntBuffer xy, IntBuffer rgba, int count)    { target().DrawPoints(xy, rgba, count);                                                 }
+    public final void DrawLines(int[] xy, int count)                         { DrawLines(xy, null, count);                                                           }
+    public final void DrawLines(int[] xy, int[] rgba, int count)             { DrawLines(IntBuffer.wrap(xy), rgba != null ? IntBuffer.wrap(rgba) : null, count);     }
+    public final void DrawLines(IntBuffer xy, IntBuffer rgba, int count)     { target().DrawLines(xy, rgba, count);                                                  }
+    public final void DrawPolyline(int[] xy, int count)                      { DrawPolyline(xy, count, Pixel.WHITE);                                                 }
+    public final void DrawPolyline(int[] xy, int count, Pixel p)             { DrawPolyline(IntBuffer.wrap(xy), count, p);                                           }
+    public final void DrawPolyline(IntBuffer xy, int count, Pixel p)         { target().DrawPolyline(xy, count, p);                                                  }
+    public final void FillRects(int[] rects, int count)                      { FillRects(rects, null, count);                                                        }
+    public final void FillRects(int[] rects, int[] rgba, int count)          { FillRects(IntBuffer.wrap(rects), rgba != null ? IntBuffer.wrap(rgba) : null, count);  }
+    public final void FillRects(IntBuffer rects, IntBuffer rgba, int count)  { target().FillRects(rects, rgba, count);                                               }
+    public final void FillTriangles(int[] xy, int count)                     { FillTriangles(xy, null, count);                                                       }
+    public final void FillTriangles(int[] xy, int[] rgba, int count)         { FillTriangles(IntBuffer.wrap(xy), rgba != null ? IntBuffer.wrap(rgba) : null, count); }
+    public final void FillTriangles(IntBuffer xy, IntBuffer rgba, int count) { target().FillTriangles(xy, rgba, count);                                              }
     
     public final void DrawSprite(VI2D pos, Sprite sprite)                                                                       { DrawSprite(pos.x, pos.y, sprite);                                                               }
     public final void DrawSprite(VI2D pos, Sprite sprite, int scale)                                                            { DrawSprite(pos.x, pos.y, sprite, scale);                                                        }
     public final void DrawSprite(VI2D pos, Sprite sprite, int scale, Sprite.FLIP flip)                                          { DrawSprite(pos.x, pos.y, sprite, scale, flip);                                                  }
     public final void DrawSprite(int x, int y, Sprite sprite)                                                                   { DrawSprite(x, y, sprite, 1);                                                                    }
     public final void DrawSprite(int x, int y, Sprite sprite, int scale)                                                        { DrawSprite(x, y, sprite, scale, Sprite.FLIP.NONE);                                              }
-    public final void DrawSprite(int x, int y, Sprite sprite, int scale, Sprite.FLIP flip)                                      { backend.DrawSprite(x, y, sprite, scale, flip);                                                  }
+    public final void DrawSprite(int x, int y, Sprite sprite, int scale, Sprite.FLIP flip)                                      { target().DrawSprite(x, y, sprite, scale, flip);                                                 }
     public final void DrawPartialSprite(VI2D pos, Sprite sprite, VI2D sourcepos, VI2D size)                                     { DrawPartialSprite(pos.x, pos.y, sprite, sourcepos.x, sourcepos.y, size.x, size.y);              }
     public final void DrawPartialSprite(VI2D pos, Sprite sprite, VI2D sourcepos, VI2D size, int scale)                          { DrawPartialSprite(pos.x, pos.y, sprite, sourcepos.x, sourcepos.y, size.x, size.y, scale);       }
     public final void DrawPartialSprite(VI2D pos, Sprite sprite, VI2D sourcepos, VI2D size, int scale, Sprite.FLIP flip)        { DrawPartialSprite(pos.x, pos.y, sprite, sourcepos.x, sourcepos.y, size.x, size.y, scale, flip); }
     public final void DrawPartialSprite(int x, int y, Sprite sprite, int ox, int oy, int w, int h)                              { DrawPartialSprite(x, y, sprite, ox, oy, w, h, 1);                                               }
     public final void DrawPartialSprite(int x, int y, Sprite sprite, int ox, int oy, int w, int h, int scale)                   { DrawPartialSprite(x, y, sprite, ox, oy, w, h, scale, Sprite.FLIP.NONE);                         }
-    public final void DrawPartialSprite(int x, int y, Sprite sprite, int ox, int oy, int w, int h, int scale, Sprite.FLIP flip) { backend.DrawPartialSprite(x, y, sprite, ox, oy, w, h, scale, flip);                             }
-    
-    public final void DrawDecal(VF2D pos, Decal decal)                                                                                                     { DrawDecal(pos, decal, new VF2D(1, 1));                                                             }
-    public final void DrawDecal(VF2D pos, Decal decal, VF2D scale)                                                                                         { DrawDecal(pos, decal, scale, Pixel.WHITE);                                                         }
-    public final void DrawDecal(VF2D pos, Decal decal, VF2D scale, Pixel tint)                                                                             { backend.DrawDecal(pos, decal, scale, tint);                                                        }
-    public final void DrawPartialDecal(VF2D pos, Decal decal, VF2D source_pos, VF2D source_size)                                                           { DrawPartialDecal(pos, decal, source_pos, source_size, new VF2D(1, 1));                             }
-    public final void DrawPartialDecal(VF2D pos, Decal decal, VF2D source_pos, VF2D source_size, VF2D scale)                                               { DrawPartialDecal(pos, decal, source_pos, source_size, scale, Pixel.WHITE);                         }
-    public final void DrawPartialDecal(VF2D pos, Decal decal, VF2D source_pos, VF2D source_size, VF2D scale, Pixel tint)                                   { backend.DrawPartialDecal(pos, decal, source_pos, source_size, scale, tint);                        }
-    public final void DrawPartialDecal(VF2D pos, VF2D size, Decal decal, VF2D source_pos, VF2D source_size)                                                { DrawPartialDecal(pos, size, decal, source_pos, source_size, Pixel.WHITE);                          }
-    public final void DrawPartialDecal(VF2D pos, VF2D size, Decal decal, VF2D source_pos, VF2D source_size, Pixel tint)                                    { backend.DrawPartialDecal(pos, size, decal, source_pos, source_size, tint);                         }
-    public final void DrawExplicitDecal(Decal decal, VF2D[] pos, VF2D[] uv, Pixel[] col)                                                                   { backend.DrawExplicitDecal(decal, pos, uv, col);                                                    }
-    public final void DrawWarpedDecal(Decal decal, VF2D[] pos)                                                                                             { DrawWarpedDecal(decal, pos, Pixel.WHITE);                                                          }
-    public final void DrawWarpedDecal(Decal decal, VF2D[] pos, Pixel tint)                                                                                 { backend.DrawWarpedDecal(decal, pos, tint);                                                         }
-    public final void DrawPartialWarpedDecal(Decal decal, VF2D[] pos, VF2D source_pos, VF2D source_size)                                                   { DrawPartialWarpedDecal(decal, pos, source_pos, source_size, Pixel.WHITE);                          }
-    public final void DrawPartialWarpedDecal(Decal decal, VF2D[] pos, VF2D source_pos, VF2D source_size, Pixel tint)                                       { backend.DrawPartialWarpedDecal(decal, pos, source_pos, source_size, tint);                         }
-    public final void DrawRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center)                                                                   { DrawRotatedDecal(pos, decal, fAngle, center, new VF2D(1, 1));                                      }
-    public final void DrawRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D scale)                                                       { DrawRotatedDecal(pos, decal, fAngle, center, scale, Pixel.WHITE);                                  }
-    public final void DrawRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D scale, Pixel tint)                                           { backend.DrawRotatedDecal(pos, decal, fAngle, center, scale, tint);                                 }
-    public final void DrawPartialRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D source_pos, VF2D source_size)                         { DrawPartialRotatedDecal(pos, decal, fAngle, center, source_pos, source_size, new VF2D(1, 1));      }
-    public final void DrawPartialRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D source_pos, VF2D source_size, VF2D scale)             { DrawPartialRotatedDecal(pos, decal, fAngle, center, source_pos, source_size, scale, Pixel.WHITE);  }
-    public final void DrawPartialRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D source_pos, VF2D source_size, VF2D scale, Pixel tint) { backend.DrawPartialRotatedDecal(pos, decal, fAngle, center, source_pos, source_size, scale, tint); }
-    public final void FillRectDecal(VF2D pos, VF2D size, Pixel col)                                                                                        { backend.FillRectDecal(pos, size, col);                                                             }
-    public final void GradientFillRectDecal(VF2D pos, VF2D size, Pixel colTL, Pixel colBL, Pixel colBR, Pixel colTR)                                       { backend.GradientFillRectDecal(pos, size, colTL, colBL, colBR, colTR);                              }
+    public final void DrawPartialSprite(int x, int y, Sprite sprite, int ox, int oy, int w, int h, int scale, Sprite.FLIP flip) { target().DrawPartialSprite(x, y, sprite, ox, oy, w, h, scale, flip);                            }
+    
+    public final void DrawDecal(VF2D pos, Decal decal)                                                                                                     { DrawDecal(pos, decal, new VF2D(1, 1));                                                              }
+    public final void DrawDecal(VF2D pos, Decal decal, VF2D scale)                                                                                         { DrawDecal(pos, decal, scale, Pixel.WHITE);                                                          }
+    public final void DrawDecal(VF2D pos, Decal decal, VF2D scale, Pixel tint)                                                                             { target().DrawDecal(pos, decal, scale, tint);                                                        }
+    public final void DrawPartialDecal(VF2D pos, Decal decal, VF2D source_pos, VF2D source_size)                                                           { DrawPartialDecal(pos, decal, source_pos, source_size, new VF2D(1, 1));                              }
+    public final void DrawPartialDecal(VF2D pos, Decal decal, VF2D source_pos, VF2D source_size, VF2D scale)                                               { DrawPartialDecal(pos, decal, source_pos, source_size, scale, Pixel.WHITE);                          }
+    public final void DrawPartialDecal(VF2D pos, Decal decal, VF2D source_pos, VF2D source_size, VF2D scale, Pixel tint)                                   { target().DrawPartialDecal(pos, decal, source_pos, source_size, scale, tint);                        }
+    public final void DrawPartialDecal(VF2D pos, VF2D size, Decal decal, VF2D source_pos, VF2D source_size)                                                { DrawPartialDecal(pos, size, decal, source_pos, source_size, Pixel.WHITE);                           }
+    public final void DrawPartialDecal(VF2D pos, VF2D size, Decal decal, VF2D source_pos, VF2D source_size, Pixel tint)                                    { target().DrawPartialDecal(pos, size, decal, source_pos, source_size, tint);                         }
+    public final void DrawExplicitDecal(Decal decal, VF2D[] pos, VF2D[] uv, Pixel[] col)                                                                   { target().DrawExplicitDecal(decal, pos, uv, col);                                                    }
+    public final void DrawWarpedDecal(Decal decal, VF2D[] pos)                                                                                             { DrawWarpedDecal(decal, pos, Pixel.WHITE);                                                           }
+    public final void DrawWarpedDecal(Decal decal, VF2D[] pos, Pixel tint)                                                                                 { target().DrawWarpedDecal(decal, pos, tint);                                                         }
+    public final void DrawPartialWarpedDecal(Decal decal, VF2D[] pos, VF2D source_pos, VF2D source_size)                                                   { DrawPartialWarpedDecal(decal, pos, source_pos, source_size, Pixel.WHITE);                           }
+    public final void DrawPartialWarpedDecal(Decal decal, VF2D[] pos, VF2D source_pos, VF2D source_size, Pixel tint)                                       { target().DrawPartialWarpedDecal(decal, pos, source_pos, source_size, tint);                         }
+    public final void DrawRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center)                                                                   { DrawRotatedDecal(pos, decal, fAngle, center, new VF2D(1, 1));                                       }
+    public final void DrawRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D scale)                                                       { DrawRotatedDecal(pos, decal, fAngle, center, scale, Pixel.WHITE);                                   }
+    public final void DrawRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D scale, Pixel tint)                                           { target().DrawRotatedDecal(pos, decal, fAngle, center, scale, tint);                                 }
+    public final void DrawPartialRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D source_pos, VF2D source_size)                         { DrawPartialRotatedDecal(pos, decal, fAngle, center, source_pos, source_size, new VF2D(1, 1));       }
+    public final void DrawPartialRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D source_pos, VF2D source_size, VF2D scale)             { DrawPartialRotatedDecal(pos, decal, fAngle, center, source_pos, source_size, scale, Pixel.WHITE);   }
+    public final void DrawPartialRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D source_pos, VF2D source_size, VF2D scale, Pixel tint) { target().DrawPartialRotatedDecal(pos, decal, fAngle, center, source_pos, source_size, scale, tint); }
+    public final void FillRectDecal(VF2D pos, VF2D size, Pixel col)                                                                                        { target().FillRectDecal(pos, size, col);                                                             }
+    public final void GradientFillRectDecal(VF2D pos, VF2D size, Pixel colTL, Pixel colBL, Pixel colBR, Pixel colTR)                                       { target().GradientFillRectDecal(pos, size, colTL, colBL, colBR, colTR);                              }
+    public final void DrawParticles(Decal decal, float[] x, float[] y, int[] rgba, int count, float size)                                                  { target().DrawParticles(decal, x, y, rgba, count, size);                                             }
+    public final void DrawDecalQuads(Decal decal, float[] rects, float[] uvs, int[] rgba, int count)                                                       { target().DrawDecalQuads(decal, rects, uvs, rgba, count);                                            }
+    /**
+     * Draws {@code count} copies of a whole decal in one batch. {@code xy} holds the
+     * interleaved top left corners, {@code scale} one uniform scale and {@code rgba} one
+     * packed tint per instance; either may be null for 1 and white. Buffers are read from
+     * their current position and left unchanged.
+     */
+    public final void DrawDecalInstances(Decal decal, float[] xy, int count)                                                                               { DrawDecalInstances(decal, xy, null, null, count);                                                   }
+    public final void DrawDecalInstances(Decal decal, float[] xy, float[] scale, int[] rgba, int count)                                                    { target().DrawDecalInstances(decal, xy, scale, rgba, count);                                         }
+    public final void DrawDecalInstances(Decal decal, FloatBuffer xy, int count)                                                                           { DrawDecalInstances(decal, xy, null, null, count);                                                   }
+    public final void DrawDecalInstances(Decal decal, FloatBuffer xy, FloatBuffer scale, IntBuffer rgba, int count)                                        { target().DrawDecalInstances(decal, xy, scale, rgba, count);                                         }
     
     public final VI2D GetTextSize(String text)                                       { return backend.GetTextSize(text);                 }
     public final void DrawString(int x, int y, String sText)                         { DrawString(x, y, sText, Pixel.WHITE);             }
     public final void DrawString(int x, int y, String sText, Pixel col)              { DrawString(x, y, sText, col, 1);                  }
-    public final void DrawString(int x, int y, String sText, Pixel col, int scale)   { backend.DrawString(x, y, sText, col, scale);      }
+    public final void DrawString(int x, int y, String sText, Pixel col, int scale)   { target().DrawString(x, y, sText, col, scale);     }
     public final void DrawStringDecal(VF2D pos, String sText)                        { DrawStringDecal(pos, sText, Pixel.WHITE);         }
     public final void DrawStringDecal(VF2D pos, String sText, Pixel col)             { DrawStringDecal(pos, sText, col, new VF2D(1, 1)); }
-    public final void DrawStringDecal(VF2D pos, String sText, Pixel col, VF2D scale) { backend.DrawStringDecal(pos, sText, col, scale);  }
+    public final void DrawStringDecal(VF2D pos, String sText, Pixel col, VF2D scale) { target().DrawStringDecal(pos, sText, col, scale); }
+    /**
+     * Draws text with a TrueType {@link Font}, {@code y} being the top of the first line.
+     * Missing glyphs are rasterised into the shared glyph atlas on first use and the whole
+     * string is drawn with a single texture and draw call.
+     */
+    public final VI2D GetTextSize(Font font, String text)                            { return backend.GetTextSize(font, text);           }
+    public final void DrawString(Font font, int x, int y, String sText)              { DrawString(font, x, y, sText, Pixel.WHITE);       }
+    public final void DrawString(Font font, int x, int y, String sText, Pixel col)   { target().DrawString(font, x, y, sText, col);      }
     
-    public final HWButton GetKey(Key k)                                       { return keyStates.get(k);                      }
+    public final HWButton GetKey(Key k)                                       { return keyStates[k.ordinal()];                }
     public final void RegisterKeyCallback(KeyCallback callback)               { backend.RegisterKeyCallBack(callback);        }
     public final HWButton GetMouse(int mouse)                                 { return mouseStates[mouse];                    }
     public final void RegisterMouseClickCallback(MouseClickCallback callback) { backend.RegisterMouseClickCallback(callback); }
@@ -0,0 +1,43 @@
+package net.meloniumcraft.pge.core;
+
+final class ResolutionScaler {
+    private static final float STEP = 1.f / 16;
+    private static final int COOLDOWN_FRAMES = 30;
+    private static final float SMOOTHING = .1f;
+    
+    private final float targetFrameTime;
+    private final float minScale;
+    private final float maxScale;
+    private float averageFrameTime;
+    private int cooldown = COOLDOWN_FRAMES;
+    
+    ResolutionScaler(float targetFrameTime, float minScale, float maxScale) {
+        if (targetFrameTime <= 0 || minScale <= 0 || maxScale < minScale || maxScale > 1)
+            throw new IllegalArgumentException("ResolutionScaler: invalid dynamic resolution bounds!");
+        this.targetFrameTime = targetFrameTime;
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.averageFrameTime = targetFrameTime;
+    }
+    
+    float clamp(float scale) {
+        return Math.max(minScale, Math.min(maxScale, scale));
+    }
+    
+    float Update(float frameTime, float scale) {
+        averageFrameTime += (frameTime - averageFrameTime) * SMOOTHING;
+        if (--cooldown > 0)
+            return scale;
+        
+        // fill cost scales with the pixel count, i.e. with the square of the scale
+        float wanted = scale;
+        if (averageFrameTime > targetFrameTime * 1.05f || averageFrameTime < targetFrameTime * .8f)
+            wanted = scale * (float)Math.sqrt(targetFrameTime / averageFrameTime);
+        wanted = clamp(Math.round(wanted / STEP) * STEP);
+        if (wanted != scale) {
+            cooldown = COOLDOWN_FRAMES;
+            averageFrameTime = targetFrameTime;
+        }
+        return wanted;
+    }
+}
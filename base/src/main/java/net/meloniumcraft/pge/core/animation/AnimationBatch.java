@@ -0,0 +1,146 @@
+package net.meloniumcraft.pge.core.animation;
+
+import net.meloniumcraft.pge.core.PixelGameEngine;
+import net.meloniumcraft.pge.core.types.Pixel;
+
+/**
+ * All animated instances of one {@link SpriteSheet}, stored as parallel primitive arrays.
+ * Index {@code i} in every array describes the same instance; only the first
+ * {@link #getCount()} entries are live. {@link #Draw()} submits every instance as a
+ * single batch.
+ */
+public final class AnimationBatch {
+    public final float[] x;
+    public final float[] y;
+    public final float[] scale;
+    public final float[] speed;
+    public final int[] rgba;
+    
+    private final int[] clip;
+    private final float[] time;
+    private final int[] frame;
+    
+    private final PixelGameEngine pge;
+    private final SpriteSheet sheet;
+    private final int capacity;
+    private int count;
+    
+    private final float[] rects;
+    private final float[] uvs;
+    
+    public AnimationBatch(PixelGameEngine pge, SpriteSheet sheet, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("AnimationBatch: capacity must be positive!");
+        this.pge = pge;
+        this.sheet = sheet;
+        this.capacity = capacity;
+        x = new float[capacity];
+        y = new float[capacity];
+        scale = new float[capacity];
+        speed = new float[capacity];
+        rgba = new int[capacity];
+        clip = new int[capacity];
+        time = new float[capacity];
+        frame = new int[capacity];
+        rects = new float[capacity * 4];
+        uvs = new float[capacity * 4];
+    }
+    
+    public int getCapacity()      { return capacity; }
+    public int getCount()         { return count;    }
+    public SpriteSheet getSheet() { return sheet;    }
+    
+    /**
+     * Adds an instance playing {@code clip} from its first frame and returns its index,
+     * or -1 if the batch is full.
+     */
+    public int Add(int clip, float x, float y) {
+        if (count == capacity)
+            return -1;
+        int i = count++;
+        this.x[i] = x;
+        this.y[i] = y;
+        scale[i] = 1;
+        speed[i] = 1;
+        rgba[i] = Pixel.WHITE.toRGBA();
+        Play(i, clip);
+        return i;
+    }
+    
+    /**
+     * Removes instance {@code i} by moving the last instance into its place. Returns the
+     * old index of the moved instance, or -1 if {@code i} was the last one.
+     */
+    public int Remove(int i) {
+        if (i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("AnimationBatch: no instance " + i + ", the batch holds " + count + "!");
+        int last = --count;
+        if (i == last)
+            return -1;
+        x[i] = x[last];
+        y[i] = y[last];
+        scale[i] = scale[last];
+        speed[i] = speed[last];
+        rgba[i] = rgba[last];
+        clip[i] = clip[last];
+        time[i] = time[last];
+        frame[i] = frame[last];
+        return last;
+    }
+    
+    public void Play(int i, int clip) {
+        if (clip < 0 || clip >= sheet.clipCount)
+            throw new IllegalArgumentException("AnimationBatch: unknown clip " + clip + "!");
+        this.clip[i] = clip;
+        time[i] = 0;
+        frame[i] = sheet.clipFirst[clip];
+    }
+    
+    public int GetClip(int i) {
+        return clip[i];
+    }
+    
+    public boolean IsFinished(int i) {
+        int c = clip[i];
+        return !sheet.clipLoop[c] && time[i] >= sheet.clipLength[c] * sheet.clipFrameTime[c];
+    }
+    
+    public void Update(float fElapsedTime) {
+        int[] clipFirst = sheet.clipFirst;
+        int[] clipLength = sheet.clipLength;
+        float[] clipFrameTime = sheet.clipFrameTime;
+        boolean[] clipLoop = sheet.clipLoop;
+        for (int i = 0; i < count; i++) {
+            int c = clip[i];
+            float frameTime = clipFrameTime[c];
+            int length = clipLength[c];
+            float duration = length * frameTime;
+            float t = time[i] + fElapsedTime * speed[i];
+            // a negative speed plays backwards, a looping clip wraps at either end
+            if (t >= duration || t < 0)
+                t = clipLoop[c] ? (t % duration + duration) % duration : Math.max(0, Math.min(duration, t));
+            time[i] = t;
+            frame[i] = clipFirst[c] + Math.min(length - 1, (int)(t / frameTime));
+        }
+    }
+    
+    public void Draw() {
+        if (count == 0)
+            return;
+        float[] table = sheet.uv;
+        float w = sheet.getFrameWidth();
+        float h = sheet.getFrameHeight();
+        for (int i = 0, r = 0; i < count; i++, r += 4) {
+            rects[r] = x[i];
+            rects[r + 1] = y[i];
+            rects[r + 2] = w * scale[i];
+            rects[r + 3] = h * scale[i];
+            System.arraycopy(table, frame[i] * 4, uvs, r, 4);
+        }
+        pge.DrawDecalQuads(sheet.getDecal(), rects, uvs, rgba, count);
+    }
+    
+    public void Clear() {
+        count = 0;
+    }
+}
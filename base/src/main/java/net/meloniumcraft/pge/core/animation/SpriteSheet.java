@@ -0,0 +1,83 @@
+package net.meloniumcraft.pge.core.animation;
+
+import net.meloniumcraft.pge.core.types.Decal;
+
+import java.util.Arrays;
+
+/**
+ * A decal sliced into equally sized frames, read left to right and top to bottom. The
+ * UVs of every frame are computed once and kept in a flat table, four floats per frame.
+ * Clips are runs of consecutive frames and are also stored in primitive arrays.
+ */
+public final class SpriteSheet {
+    private final Decal decal;
+    private final int frameWidth;
+    private final int frameHeight;
+    private final int frameCount;
+    final float[] uv;
+    
+    int clipCount;
+    int[] clipFirst = new int[4];
+    int[] clipLength = new int[4];
+    float[] clipFrameTime = new float[4];
+    boolean[] clipLoop = new boolean[4];
+    
+    public SpriteSheet(Decal decal, int frameWidth, int frameHeight) { this(decal, frameWidth, frameHeight, 0); }
+    public SpriteSheet(Decal decal, int frameWidth, int frameHeight, int spacing) {
+        if (frameWidth <= 0 || frameHeight <= 0)
+            throw new IllegalArgumentException("SpriteSheet: frame size must be positive!");
+        this.decal = decal;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        
+        int width = decal.getSprite().getWidth();
+        int height = decal.getSprite().getHeight();
+        int columns = (width + spacing) / (frameWidth + spacing);
+        int rows = (height + spacing) / (frameHeight + spacing);
+        frameCount = columns * rows;
+        uv = new float[frameCount * 4];
+        for (int row = 0, f = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++, f += 4) {
+                float sx = column * (frameWidth + spacing);
+                float sy = row * (frameHeight + spacing);
+                uv[f] = sx * decal.uvScale.x;
+                uv[f + 1] = sy * decal.uvScale.y;
+                uv[f + 2] = (sx + frameWidth) * decal.uvScale.x;
+                uv[f + 3] = (sy + frameHeight) * decal.uvScale.y;
+            }
+        }
+    }
+    
+    public Decal getDecal()      { return decal;       }
+    public int getFrameWidth()   { return frameWidth;  }
+    public int getFrameHeight()  { return frameHeight; }
+    public int getFrameCount()   { return frameCount;  }
+    public int getClipCount()    { return clipCount;   }
+    
+    /**
+     * Adds a clip playing {@code length} frames starting at {@code first} at the given
+     * rate and returns its id.
+     */
+    public int AddClip(int first, int length, float framesPerSecond, boolean loop) {
+        if (first < 0 || length <= 0 || first + length > frameCount)
+            throw new IllegalArgumentException("SpriteSheet: clip frames out of range!");
+        if (framesPerSecond <= 0)
+            throw new IllegalArgumentException("SpriteSheet: clip frame rate must be positive!");
+        if (clipCount == clipFirst.length) {
+            int capacity = clipCount * 2;
+            clipFirst = Arrays.copyOf(clipFirst, capacity);
+            clipLength = Arrays.copyOf(clipLength, capacity);
+            clipFrameTime = Arrays.copyOf(clipFrameTime, capacity);
+            clipLoop = Arrays.copyOf(clipLoop, capacity);
+        }
+        clipFirst[clipCount] = first;
+        clipLength[clipCount] = length;
+        clipFrameTime[clipCount] = 1 / framesPerSecond;
+        clipLoop[clipCount] = loop;
+        return clipCount++;
+    }
+    
+    public float GetClipDuration(int clip) {
+        return clipLength[clip] * clipFrameTime[clip];
+    }
+}
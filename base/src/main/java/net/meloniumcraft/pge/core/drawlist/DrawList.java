@@ -0,0 +1,31 @@
+package net.meloniumcraft.pge.core.drawlist;
+
+import net.meloniumcraft.pge.core.PixelGameEngine;
+import net.meloniumcraft.pge.core.types.VI2D;
+
+/**
+ * Draw calls recorded once with {@link PixelGameEngine#BeginDrawList()} and baked by the
+ * backend, so drawing the list again costs a few draw calls no matter how many shapes it
+ * holds. The contents can't change; record a new list instead.
+ */
+public final class DrawList {
+    private final PixelGameEngine pge;
+    private final int id;
+    
+    public DrawList(PixelGameEngine pge, int id) {
+        this.pge = pge;
+        this.id = id;
+    }
+    
+    public int getId() {
+        return id;
+    }
+    
+    public void Draw()              { Draw(0, 0);                      }
+    public void Draw(VI2D offset)   { Draw(offset.x, offset.y);        }
+    public void Draw(int x, int y)  { pge.ReplayDrawList(this, x, y);  }
+    
+    public void Delete() {
+        pge.DeleteDrawList(this);
+    }
+}
@@ -0,0 +1,67 @@
+package net.meloniumcraft.pge.core.drawlist;
+
+import net.meloniumcraft.pge.core.types.Sprite;
+
+import java.util.Arrays;
+
+/**
+ * The tessellated contents of a draw list, handed to the backend once to be baked.
+ * Vertices are stored as {@code x, y, u, v} floats plus one packed colour each, and are
+ * split into runs sharing a sprite and primitive type. Consecutive calls with the same
+ * sprite and type share a run, so call order is kept while a list drawn mostly from one
+ * sheet only needs a few runs.
+ */
+public final class DrawListGeometry {
+    public static final int POINTS = 0;
+    public static final int LINES = 1;
+    public static final int TRIANGLES = 2;
+    
+    private float[] vertices = new float[256];
+    private int[] colours = new int[64];
+    private int vertexCount;
+    
+    private Sprite[] runSprite = new Sprite[8];
+    private int[] runMode = new int[8];
+    private int[] runFirst = new int[8];
+    private int runCount;
+    
+    void Begin(Sprite sprite, int mode) {
+        int last = runCount - 1;
+        if (last >= 0 && runSprite[last] == sprite && runMode[last] == mode)
+            return;
+        if (runCount == runMode.length) {
+            runSprite = Arrays.copyOf(runSprite, runCount * 2);
+            runMode = Arrays.copyOf(runMode, runCount * 2);
+            runFirst = Arrays.copyOf(runFirst, runCount * 2);
+        }
+        runSprite[runCount] = sprite;
+        runMode[runCount] = mode;
+        runFirst[runCount] = vertexCount;
+        runCount++;
+    }
+    
+    void Vertex(float x, float y, float u, float v, int rgba) {
+        if (vertexCount == colours.length) {
+            vertices = Arrays.copyOf(vertices, vertexCount * 8);
+            colours = Arrays.copyOf(colours, vertexCount * 2);
+        }
+        int o = vertexCount * 4;
+        vertices[o] = x;
+        vertices[o + 1] = y;
+        vertices[o + 2] = u;
+        vertices[o + 3] = v;
+        colours[vertexCount++] = rgba;
+    }
+    
+    public int getVertexCount()          { return vertexCount;       }
+    public float[] getVertices()         { return vertices;          }
+    public int[] getColours()            { return colours;           }
+    public int getRunCount()             { return runCount;          }
+    public Sprite getRunSprite(int run)  { return runSprite[run];    }
+    public int getRunMode(int run)       { return runMode[run];      }
+    public int getRunFirst(int run)      { return runFirst[run];     }
+    
+    public int getRunLength(int run) {
+        return (run + 1 < runCount ? runFirst[run + 1] : vertexCount) - runFirst[run];
+    }
+}
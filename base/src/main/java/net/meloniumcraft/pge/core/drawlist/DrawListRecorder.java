@@ -0,0 +1,382 @@
+package net.meloniumcraft.pge.core.drawlist;
+
+import net.meloniumcraft.pge.backend.PGEBackend;
+import net.meloniumcraft.pge.core.callbacks.*;
+import net.meloniumcraft.pge.core.types.*;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Tessellates draw calls into a {@link DrawListGeometry} while a draw list is being
+ * recorded. Only shapes, sprites and the plain decal calls can be recorded; state
+ * changes, text and everything that needs the window throw. Decals are baked like
+ * sprites, so they are drawn into the layer with the rest of the list instead of in
+ * the decal pass.
+ */
+public final class DrawListRecorder extends PGEBackend {
+    private final DrawListGeometry geometry = new DrawListGeometry();
+    
+    // corners of the quad being emitted, in drawing order
+    private final float[] qx = new float[4];
+    private final float[] qy = new float[4];
+    private final float[] qu = new float[4];
+    private final float[] qv = new float[4];
+    private final int[] qc = new int[4];
+    private static final int[] QUAD_TRIANGLES = {0, 1, 2, 0, 2, 3};
+    
+    private static IllegalStateException unsupported(String call) {
+        return new IllegalStateException("DrawListRecorder: " + call + " can't be recorded into a draw list!");
+    }
+    
+    public DrawListGeometry getGeometry() {
+        return geometry;
+    }
+    
+    private void Point(float x, float y, int rgba) {
+        geometry.Begin(null, DrawListGeometry.POINTS);
+        geometry.Vertex(x + .5f, y + .5f, 0, 0, rgba);
+    }
+    
+    // both directions, like the two point line loop of an immediate DrawLine
+    private void Line(float x1, float y1, float x2, float y2, int rgba) {
+        geometry.Begin(null, DrawListGeometry.LINES);
+        geometry.Vertex(x1 + .5f, y1 + .5f, 0, 0, rgba);
+        geometry.Vertex(x2 + .5f, y2 + .5f, 0, 0, rgba);
+        geometry.Vertex(x2 + .5f, y2 + .5f, 0, 0, rgba);
+        geometry.Vertex(x1 + .5f, y1 + .5f, 0, 0, rgba);
+    }
+    
+    private void Triangle(float x1, float y1, float x2, float y2, float x3, float y3, int rgba) {
+        geometry.Begin(null, DrawListGeometry.TRIANGLES);
+        geometry.Vertex(x1, y1, 0, 0, rgba);
+        geometry.Vertex(x2, y2, 0, 0, rgba);
+        geometry.Vertex(x3, y3, 0, 0, rgba);
+    }
+    
+    private void Corner(int i, float x, float y, float u, float v, int rgba) {
+        qx[i] = x;
+        qy[i] = y;
+        qu[i] = u;
+        qv[i] = v;
+        qc[i] = rgba;
+    }
+    
+    private void Quad(Sprite sprite) {
+        geometry.Begin(sprite, DrawListGeometry.TRIANGLES);
+        for (int i : QUAD_TRIANGLES)
+            geometry.Vertex(qx[i], qy[i], qu[i], qv[i], qc[i]);
+    }
+    
+    private void Rect(Sprite sprite, float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2, int rgba) {
+        Corner(0, x1, y1, u1, v1, rgba);
+        Corner(1, x1, y2, u1, v2, rgba);
+        Corner(2, x2, y2, u2, v2, rgba);
+        Corner(3, x2, y1, u2, v1, rgba);
+        Quad(sprite);
+    }
+    
+    private void Sprite(int x, int y, Sprite sprite, float u1, float v1, float u2, float v2, int w, int h, Sprite.FLIP flip) {
+        if (flip == Sprite.FLIP.VERTICAL || flip == Sprite.FLIP.BOTH) {
+            float u = u1; u1 = u2; u2 = u;
+        }
+        if (flip == Sprite.FLIP.HORIZONTAL || flip == Sprite.FLIP.BOTH) {
+            float v = v1; v1 = v2; v2 = v;
+        }
+        Rect(sprite, x, y, x + w, y + h, u1, v1, u2, v2, 0xffffffff);
+    }
+    
+    @Override
+    public void Draw(int x, int y, Pixel p) {
+        Point(x, y, p.toRGBA());
+    }
+    
+    @Override
+    public void DrawLine(int x1, int y1, int x2, int y2, Pixel p) {
+        Line(x1, y1, x2, y2, p.toRGBA());
+    }
+    
+    @Override
+    public void DrawCircle(int x, int y, int radius, Pixel p) {
+        if (radius < 0)
+            return;
+        
+        int rgba = p.toRGBA();
+        if (radius > 0) {
+            int x0 = 0;
+            int y0 = radius;
+            int d = 3 - 2*radius;
+            while (y0 >= x0) {
+                Point(x + x0, y - y0, rgba);
+                Point(x + y0, y + x0, rgba);
+                Point(x - x0, y + y0, rgba);
+                Point(x - y0, y - x0, rgba);
+                if (x0 != 0 && x0 != y0) {
+                    Point(x + y0, y - x0, rgba);
+                    Point(x + x0, y + y0, rgba);
+                    Point(x - y0, y + x0, rgba);
+                    Point(x - x0, y - y0, rgba);
+                }
+                if (d < 0)
+                    d += 4 * x0++ + 6;
+                else
+                    d += 4 * (x0++ - y0--) + 10;
+            }
+        } else
+            Point(x, y, rgba);
+    }
+    
+    @Override
+    public void FillCircle(int x, int y, int radius, Pixel p) {
+        if (radius < 0)
+            return;
+        
+        int rgba = p.toRGBA();
+        if (radius > 0) {
+            int x0 = 0;
+            int y0 = radius;
+            int d = 3 - 2*radius;
+            while (y0 >= x0) {
+                Line(x - y0, y - x0, x + y0, y - x0, rgba);
+                if (x0 > 0) Line(x - y0, y + x0, x + y0, y + x0, rgba);
+                
+                if (d < 0)
+                    d += 4 * x0++ + 6;
+                else {
+                    if (x0 != y0) {
+                        Line(x - x0, y - y0, x + x0, y - y0, rgba);
+                        Line(x - x0, y + y0, x + x0, y + y0, rgba);
+                    }
+                    d += 4 * (x0++ - y0--) + 10;
+                }
+            }
+        } else
+            Point(x, y, rgba);
+    }
+    
+    @Override
+    public void DrawRect(int x, int y, int w, int h, Pixel p) {
+        int rgba = p.toRGBA();
+        int x2 = x + w - 1;
+        int y2 = y + h - 1;
+        Line(x, y, x2, y, rgba);
+        Line(x2, y, x2, y2, rgba);
+        Line(x2, y2, x, y2, rgba);
+        Line(x, y2, x, y, rgba);
+    }
+    
+    @Override
+    public void FillRect(int x, int y, int w, int h, Pixel p) {
+        Rect(null, x, y, x + w, y + h, 0, 0, 0, 0, p.toRGBA());
+    }
+    
+    @Override
+    public void DrawTriangle(int x1, int y1, int x2, int y2, int x3, int y3, Pixel p) {
+        int rgba = p.toRGBA();
+        Line(x1, y1, x2, y2, rgba);
+        Line(x2, y2, x3, y3, rgba);
+        Line(x3, y3, x1, y1, rgba);
+    }
+    
+    @Override
+    public void FillTriangle(int x1, int y1, int x2, int y2, int x3, int y3, Pixel p) {
+        Triangle(x1, y1, x2, y2, x3, y3, p.toRGBA());
+    }
+    
+    private static int Colour(IntBuffer rgba, int i) {
+        return rgba != null ? rgba.get(rgba.position() + i) : 0xffffffff;
+    }
+    
+    @Override
+    public void DrawPoints(IntBuffer xy, IntBuffer rgba, int count) {
+        for (int i = 0, c = xy.position(); i < count; i++, c += 2)
+            Point(xy.get(c), xy.get(c + 1), Colour(rgba, i));
+    }
+    
+    @Override
+    public void DrawLines(IntBuffer xy, IntBuffer rgba, int count) {
+        for (int i = 0, c = xy.position(); i < count; i++, c += 4)
+            Line(xy.get(c), xy.get(c + 1), xy.get(c + 2), xy.get(c + 3), Colour(rgba, i));
+    }
+    
+    @Override
+    public void DrawPolyline(IntBuffer xy, int count, Pixel p) {
+        int rgba = p.toRGBA();
+        for (int i = 1, c = xy.position(); i < count; i++, c += 2)
+            Line(xy.get(c), xy.get(c + 1), xy.get(c + 2), xy.get(c + 3), rgba);
+        if (count == 1)
+            Point(xy.get(xy.position()), xy.get(xy.position() + 1), rgba);
+    }
+    
+    @Override
+    public void FillRects(IntBuffer rects, IntBuffer rgba, int count) {
+        for (int i = 0, c = rects.position(); i < count; i++, c += 4) {
+            float x = rects.get(c), y = rects.get(c + 1);
+            Rect(null, x, y, x + rects.get(c + 2), y + rects.get(c + 3), 0, 0, 0, 0, Colour(rgba, i));
+        }
+    }
+    
+    @Override
+    public void FillTriangles(IntBuffer xy, IntBuffer rgba, int count) {
+        for (int i = 0, c = xy.position(); i < count; i++, c += 6)
+            Triangle(xy.get(c), xy.get(c + 1), xy.get(c + 2), xy.get(c + 3), xy.get(c + 4), xy.get(c + 5), Colour(rgba, i));
+    }
+    
+    @Override
+    public void DrawSprite(int x, int y, Sprite sprite, int scale, Sprite.FLIP flip) {
+        Sprite(x, y, sprite, 0, 0, 1, 1, sprite.getWidth() * scale, sprite.getHeight() * scale, flip);
+    }
+    
+    @Override
+    public void DrawPartialSprite(int x, int y, Sprite sprite, int ox, int oy, int w, int h, int scale, Sprite.FLIP flip) {
+        float sw = sprite.getWidth(), sh = sprite.getHeight();
+        Sprite(x, y, sprite, ox / sw, oy / sh, (ox + w) / sw, (oy + h) / sh, w * scale, h * scale, flip);
+    }
+    
+    @Override
+    public void DrawDecal(VF2D pos, Decal decal, VF2D scale, Pixel tint) {
+        float w = decal.getSprite().getWidth() * scale.x;
+        float h = decal.getSprite().getHeight() * scale.y;
+        Rect(decal.getSprite(), pos.x, pos.y, pos.x + w, pos.y + h, 0, 0, 1, 1, tint.toRGBA());
+    }
+    
+    @Override
+    public void DrawPartialDecal(VF2D pos, Decal decal, VF2D source_pos, VF2D source_size, VF2D scale, Pixel tint) {
+        DrawPartialDecal(pos, new VF2D(source_size.x * scale.x, source_size.y * scale.y), decal, source_pos, source_size, tint);
+    }
+    
+    @Override
+    public void DrawPartialDecal(VF2D pos, VF2D size, Decal decal, VF2D source_pos, VF2D source_size, Pixel tint) {
+        float u1 = source_pos.x * decal.uvScale.x;
+        float v1 = source_pos.y * decal.uvScale.y;
+        float u2 = u1 + source_size.x * decal.uvScale.x;
+        float v2 = v1 + source_size.y * decal.uvScale.y;
+        Rect(decal.getSprite(), pos.x, pos.y, pos.x + size.x, pos.y + size.y, u1, v1, u2, v2, tint.toRGBA());
+    }
+    
+    @Override
+    public void DrawExplicitDecal(Decal decal, VF2D[] pos, VF2D[] uv, Pixel[] col) {
+        for (int i = 0; i < 4; i++)
+            Corner(i, pos[i].x, pos[i].y, uv[i].x, uv[i].y, col[i].toRGBA());
+        Quad(decal != null ? decal.getSprite() : null);
+    }
+    
+    @Override
+    public void FillRectDecal(VF2D pos, VF2D size, Pixel col) {
+        Rect(null, pos.x, pos.y, pos.x + size.x, pos.y + size.y, 0, 0, 0, 0, col.toRGBA());
+    }
+    
+    @Override
+    public void GradientFillRectDecal(VF2D pos, VF2D size, Pixel colTL, Pixel colBL, Pixel colBR, Pixel colTR) {
+        Corner(0, pos.x, pos.y, 0, 0, colTL.toRGBA());
+        Corner(1, pos.x, pos.y + size.y, 0, 0, colBL.toRGBA());
+        Corner(2, pos.x + size.x, pos.y + size.y, 0, 0, colBR.toRGBA());
+        Corner(3, pos.x + size.x, pos.y, 0, 0, colTR.toRGBA());
+        Quad(null);
+    }
+    
+    @Override
+    public void DrawDecalQuads(Decal decal, float[] rects, float[] uvs, int[] rgba, int count) {
+        for (int i = 0, r = 0; i < count; i++, r += 4)
+            Rect(decal.getSprite(), rects[r], rects[r + 1], rects[r] + rects[r + 2], rects[r + 1] + rects[r + 3], uvs[r], uvs[r + 1], uvs[r + 2], uvs[r + 3], rgba[i]);
+    }
+    
+    @Override
+    public void DrawDecalInstances(Decal decal, float[] xy, float[] scale, int[] rgba, int count) {
+        float w = decal.getSprite().getWidth(), h = decal.getSprite().getHeight();
+        for (int i = 0; i < count; i++) {
+            float x = xy[i * 2], y = xy[i * 2 + 1];
+            float s = scale != null ? scale[i] : 1;
+            Rect(decal.getSprite(), x, y, x + w * s, y + h * s, 0, 0, 1, 1, rgba != null ? rgba[i] : 0xffffffff);
+        }
+    }
+    
+    @Override
+    public void DrawDecalInstances(Decal decal, FloatBuffer xy, FloatBuffer scale, IntBuffer rgba, int count) {
+        float w = decal.getSprite().getWidth(), h = decal.getSprite().getHeight();
+        for (int i = 0, c = xy.position(); i < count; i++, c += 2) {
+            float x = xy.get(c), y = xy.get(c + 1);
+            float s = scale != null ? scale.get(scale.position() + i) : 1;
+            Rect(decal.getSprite(), x, y, x + w * s, y + h * s, 0, 0, 1, 1, Colour(rgba, i));
+        }
+    }
+    
+    @Override public int  CreateLayer()                                 { throw unsupported("CreateLayer");        }
+    @Override public int  CreateLayer(int order, int divisor)           { throw unsupported("CreateLayer");        }
+    @Override public void DeleteLayer(int layer)                        { throw unsupported("DeleteLayer");        }
+    @Override public int  GetLayer()                                    { throw unsupported("GetLayer");           }
+    @Override public void SetLayer(int layer)                           { throw unsupported("SetLayer");           }
+    @Override public void EnableLayer(int layer, boolean show)          { throw unsupported("EnableLayer");        }
+    @Override public void SetLayerOffset(int layer, float x, float y)   { throw unsupported("SetLayerOffset");     }
+    @Override public void SetLayerScale(int layer, float x, float y)    { throw unsupported("SetLayerScale");      }
+    @Override public void SetLayerTint(int layer, Pixel tint)           { throw unsupported("SetLayerTint");       }
+    @Override public void SetLayerBlend(int layer, Pixel.Mode mode)     { throw unsupported("SetLayerBlend");      }
+    @Override public void SetLayerOrder(int layer, int order)           { throw unsupported("SetLayerOrder");      }
+    @Override public int  GetLayerOrder(int layer)                      { throw unsupported("GetLayerOrder");      }
+    @Override public void SetLayerResolution(int layer, int divisor)    { throw unsupported("SetLayerResolution"); }
+    @Override public void EnableLayerMipmaps(int layer, boolean enable) { throw unsupported("EnableLayerMipmaps"); }
+    @Override public void SetDrawTarget(Sprite target)                  { throw unsupported("SetDrawTarget");      }
+    
+    @Override public void SetPixelMode(Pixel.Mode mode, Pixel.BlendFactor src, Pixel.BlendFactor dst) { throw unsupported("SetPixelMode"); }
+    @Override public Pixel.Mode GetPixelMode()                                                        { throw unsupported("GetPixelMode"); }
+    
+    @Override public void Clear(Pixel p) { throw unsupported("Clear"); }
+    
+    @Override public void DrawWarpedDecal(Decal decal, VF2D[] pos, Pixel tint)                                                                                 { throw unsupported("DrawWarpedDecal");         }
+    @Override public void DrawPartialWarpedDecal(Decal decal, VF2D[] pos, VF2D source_pos, VF2D source_size, Pixel tint)                                       { throw unsupported("DrawPartialWarpedDecal");  }
+    @Override public void DrawRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D scale, Pixel tint)                                           { throw unsupported("DrawRotatedDecal");        }
+    @Override public void DrawPartialRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D source_pos, VF2D source_size, VF2D scale, Pixel tint) { throw unsupported("DrawPartialRotatedDecal"); }
+    @Override public void DrawParticles(Decal decal, float[] x, float[] y, int[] rgba, int count, float size)                                                  { throw unsupported("DrawParticles");           }
+    
+    @Override public int  AddPostPass(String fragmentShader, int divisor)            { throw unsupported("AddPostPass");        }
+    @Override public void RemovePostPass(int pass)                                   { throw unsupported("RemovePostPass");     }
+    @Override public void EnablePostPass(int pass, boolean show)                     { throw unsupported("EnablePostPass");     }
+    @Override public void SetPostPassUniform(int pass, String name, float... values) { throw unsupported("SetPostPassUniform"); }
+    
+    @Override public int  CreateDrawList(DrawListGeometry geometry) { throw unsupported("CreateDrawList"); }
+    @Override public void DeleteDrawList(int list)                  { throw unsupported("DeleteDrawList"); }
+    @Override public void ReplayDrawList(int list, int x, int y)    { throw unsupported("ReplayDrawList"); }
+    
+    @Override public void EnablePicking(boolean enable)             { throw unsupported("EnablePicking"); }
+    @Override public void SetPickId(int id)                         { throw unsupported("SetPickId");     }
+    @Override public void SetPickRegion(int x, int y, int w, int h) { throw unsupported("SetPickRegion"); }
+    @Override public int  GetPickedId()                             { throw unsupported("GetPickedId");   }
+    @Override public int  GetPickedIds(int[] ids)                   { throw unsupported("GetPickedIds");  }
+    
+    @Override public VI2D GetTextSize(String text)                                       { throw unsupported("GetTextSize");     }
+    @Override public void DrawString(int x, int y, String sText, Pixel col, int scale)   { throw unsupported("DrawString");      }
+    @Override public void DrawStringDecal(VF2D pos, String sText, Pixel col, VF2D scale) { throw unsupported("DrawStringDecal"); }
+    @Override public VI2D GetTextSize(Font font, String text)                            { throw unsupported("GetTextSize");     }
+    @Override public void DrawString(Font font, int x, int y, String sText, Pixel col)   { throw unsupported("DrawString");      }
+    
+    @Override public int CreateSprite()                                                         { throw unsupported("CreateSprite");             }
+    @Override public void MakeSprite(Sprite sprite, int width, int height)                      { throw unsupported("MakeSprite");               }
+    @Override public void LoadSpriteTexture(Sprite sprite, String path, boolean packed)         { throw unsupported("LoadSpriteTexture");        }
+    @Override public void DeleteSprite(Sprite sprite)                                           { throw unsupported("DeleteSprite");             }
+    @Override public void UpdateSpriteFilter(Sprite sprite)                                     { throw unsupported("UpdateSpriteFilter");       }
+    @Override public void UpdateSpritePixels(Sprite sprite, int[] rgba)                         { throw unsupported("UpdateSpritePixels");       }
+    @Override public void MakeIndexedSprite(Sprite sprite, byte[] indices)                      { throw unsupported("MakeIndexedSprite");        }
+    @Override public void LoadIndexedSpriteTexture(Sprite sprite, String path, Palette palette) { throw unsupported("LoadIndexedSpriteTexture"); }
+    @Override public int CreatePalette()                                                        { throw unsupported("CreatePalette");            }
+    @Override public void DeletePalette(Palette palette)                                        { throw unsupported("DeletePalette");            }
+    @Override public int CreateFont(String path, float pixelHeight)                             { throw unsupported("CreateFont");               }
+    @Override public void DeleteFont(Font font)                                                 { throw unsupported("DeleteFont");               }
+    @Override public int CreateDecal(Sprite s)                                                  { throw unsupported("CreateDecal");              }
+    @Override public void DeleteDecal(Decal decal)                                              { throw unsupported("DeleteDecal");              }
+    
+    @Override public void Create(int screenW, int screenH, int pixelW, int pixelH, boolean fullScreen, boolean vSync) { throw unsupported("Create");              }
+    @Override public void Destroy()                                                                                   { throw unsupported("Destroy");             }
+    @Override public boolean ShouldClose()                                                                            { throw unsupported("ShouldClose");         }
+    @Override public void CloseHint(boolean close)                                                                    { throw unsupported("CloseHint");           }
+    @Override public void SetRenderScale(float scale)                                                                 { throw unsupported("SetRenderScale");      }
+    @Override public void OnPreUpdate()                                                                               { throw unsupported("OnPreUpdate");         }
+    @Override public void OnPostUpdate()                                                                              { throw unsupported("OnPostUpdate");        }
+    @Override public void PollEvents(double timeout)                                                                  { throw unsupported("PollEvents");          }
+    @Override public void SetTitle(String title)                                                                      { throw unsupported("SetTitle");            }
+    @Override public int GetMouseButtonCount()                                                                        { throw unsupported("GetMouseButtonCount"); }
+    
+    @Override public void RegisterKeyCallBack(KeyCallback callback)               { throw unsupported("RegisterKeyCallBack");        }
+    @Override public void RegisterMouseMoveCallback(MouseMoveCallback callback)   { throw unsupported("RegisterMouseMoveCallback");  }
+    @Override public void RegisterMouseClickCallback(MouseClickCallback callback) { throw unsupported("RegisterMouseClickCallback"); }
+    @Override public void RegisterScrollCallback(ScrollCallback callback)         { throw unsupported("RegisterScrollCallback");     }
+}
@@ -0,0 +1,26 @@
+package net.meloniumcraft.pge.core.ecs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// every entity with exactly the same set of components, packed into chunks
+final class Archetype {
+    final long mask;
+    final Component[] components;
+    final List<Chunk> chunks = new ArrayList<>();
+    
+    Archetype(long mask, Component[] components) {
+        this.mask = mask;
+        this.components = components;
+    }
+    
+    Chunk Open(EntityWorld world) {
+        for (Chunk chunk : chunks) {
+            if (chunk.count < EntityWorld.CHUNK_CAPACITY)
+                return chunk;
+        }
+        Chunk chunk = world.NewChunk(this);
+        chunks.add(chunk);
+        return chunk;
+    }
+}
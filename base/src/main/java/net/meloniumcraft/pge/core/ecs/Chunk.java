@@ -0,0 +1,76 @@
+package net.meloniumcraft.pge.core.ecs;
+
+/**
+ * Up to {@link EntityWorld#CHUNK_CAPACITY} entities of one archetype. Row {@code i} of
+ * every column belongs to entity {@code getEntities()[i]}; only the first
+ * {@link #getCount()} rows are live, so systems loop over dense arrays.
+ */
+public final class Chunk {
+    final Archetype archetype;
+    final int index;
+    final int[] entities = new int[EntityWorld.CHUNK_CAPACITY];
+    // indexed by component id, null for components the archetype does not have
+    final Object[] columns = new Object[EntityWorld.MAX_COMPONENTS];
+    int count;
+    
+    Chunk(Archetype archetype, int index) {
+        this.archetype = archetype;
+        this.index = index;
+        for (Component component : archetype.components)
+            columns[component.id] = component.NewColumn(EntityWorld.CHUNK_CAPACITY);
+    }
+    
+    public int getCount()      { return count;    }
+    // unique within the world, for systems keeping scratch data per chunk
+    public int getIndex()      { return index;    }
+    public int[] getEntities() { return entities; }
+    
+    public boolean Has(Component component) {
+        return columns[component.id] != null;
+    }
+    
+    public float[] Floats(Component component) {
+        Object column = Column(component);
+        if (!component.isFloat())
+            throw new IllegalArgumentException("Chunk: " + component + " is not a float component!");
+        return (float[]) column;
+    }
+    
+    public int[] Ints(Component component) {
+        Object column = Column(component);
+        if (component.isFloat())
+            throw new IllegalArgumentException("Chunk: " + component + " is not an int component!");
+        return (int[]) column;
+    }
+    
+    private Object Column(Component component) {
+        Object column = columns[component.id];
+        if (column == null)
+            throw new IllegalArgumentException("Chunk: no component " + component + "!");
+        return column;
+    }
+    
+    // appends an entity with every component zeroed and returns its row
+    int Add(int entity) {
+        int row = count++;
+        entities[row] = entity;
+        for (Component component : archetype.components) {
+            if (component.isFloat())
+                ((float[]) columns[component.id])[row] = 0;
+            else
+                ((int[]) columns[component.id])[row] = 0;
+        }
+        return row;
+    }
+    
+    // moves the last row into the removed one and returns the moved entity, or -1
+    int Remove(int row) {
+        int last = --count;
+        if (row == last)
+            return -1;
+        entities[row] = entities[last];
+        for (Component component : archetype.components)
+            System.arraycopy(columns[component.id], last, columns[component.id], row, 1);
+        return entities[row];
+    }
+}
@@ -0,0 +1,33 @@
+package net.meloniumcraft.pge.core.ecs;
+
+/**
+ * A component type of an {@link EntityWorld}, one primitive per entity. Every chunk
+ * stores each of its components in its own {@code float[]} or {@code int[]} column,
+ * so a vector is split into one component per axis.
+ */
+public final class Component {
+    final int id;
+    final long bit;
+    private final String name;
+    private final boolean floating;
+    
+    Component(int id, String name, boolean floating) {
+        this.id = id;
+        this.bit = 1L << id;
+        this.name = name;
+        this.floating = floating;
+    }
+    
+    public int getId()       { return id;       }
+    public String getName()  { return name;     }
+    public boolean isFloat() { return floating; }
+    
+    Object NewColumn(int capacity) {
+        return floating ? new float[capacity] : new int[capacity];
+    }
+    
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,66 @@
+package net.meloniumcraft.pge.core.ecs;
+
+import net.meloniumcraft.pge.core.types.Decal;
+
+import java.util.Arrays;
+
+/**
+ * Draws a decal at every entity with the position components, one instanced batch per
+ * chunk. Scale and tint columns are handed to the engine as they are; only the
+ * positions are interleaved, into scratch kept per chunk.
+ */
+public final class DecalRenderSystem extends EntitySystem {
+    private final EntityWorld world;
+    private final Decal decal;
+    private final Component x;
+    private final Component y;
+    private final Component scale;
+    private final Component rgba;
+    private float[][] xy = new float[0][];
+    
+    public DecalRenderSystem(EntityWorld world, Decal decal, Component x, Component y) { this(world, decal, x, y, null, null); }
+    /**
+     * {@code scale} is a float component and {@code rgba} an int component holding
+     * packed colours; either may be null for 1 and white.
+     */
+    public DecalRenderSystem(EntityWorld world, Decal decal, Component x, Component y, Component scale, Component rgba) {
+        super(world.Query(x, y));
+        if (scale != null && !scale.isFloat())
+            throw new IllegalArgumentException("DecalRenderSystem: scale must be a float component!");
+        if (rgba != null && rgba.isFloat())
+            throw new IllegalArgumentException("DecalRenderSystem: rgba must be an int component!");
+        this.world = world;
+        this.decal = decal;
+        this.x = x;
+        this.y = y;
+        this.scale = scale;
+        this.rgba = rgba;
+        if (scale != null)
+            Reads(scale);
+        if (rgba != null)
+            Reads(rgba);
+    }
+    
+    @Override
+    protected void Begin(float fElapsedTime) {
+        if (xy.length < world.getChunkCount())
+            xy = Arrays.copyOf(xy, world.getChunkCount());
+    }
+    
+    @Override
+    protected void Update(Chunk chunk, float fElapsedTime) {
+        int count = chunk.getCount();
+        float[] positions = xy[chunk.getIndex()];
+        if (positions == null)
+            positions = xy[chunk.getIndex()] = new float[EntityWorld.CHUNK_CAPACITY * 2];
+        float[] px = chunk.Floats(x);
+        float[] py = chunk.Floats(y);
+        for (int i = 0, p = 0; i < count; i++, p += 2) {
+            positions[p] = px[i];
+            positions[p + 1] = py[i];
+        }
+        float[] scales = scale != null && chunk.Has(scale) ? chunk.Floats(scale) : null;
+        int[] colours = rgba != null && chunk.Has(rgba) ? chunk.Ints(rgba) : null;
+        world.getEngine().DrawDecalInstances(decal, positions, scales, colours, count);
+    }
+}
@@ -0,0 +1,48 @@
+package net.meloniumcraft.pge.core.ecs;
+
+/**
+ * Logic run over every chunk of a query. The chunks of one system, and the systems
+ * sharing a stage, are updated in parallel on the engine's job threads, so a system must
+ * declare the components it writes; the components of its query are always read.
+ * Systems whose accesses conflict run one after another in the order they were added.
+ * <p>
+ * Draw calls made from {@link #Update} are recorded and replayed in system then chunk
+ * order, so rendering from a system is deterministic.
+ */
+public abstract class EntitySystem {
+    private final Query query;
+    long reads;
+    long writes;
+    
+    protected EntitySystem(Query query) {
+        this.query = query;
+        this.reads = query.all;
+    }
+    
+    public Query getQuery() {
+        return query;
+    }
+    
+    protected final void Reads(Component... components) {
+        reads |= EntityWorld.Mask(components);
+    }
+    
+    protected final void Writes(Component... components) {
+        writes |= EntityWorld.Mask(components);
+    }
+    
+    boolean ConflictsWith(EntitySystem other) {
+        return (writes & (other.reads | other.writes)) != 0 || (other.writes & reads) != 0;
+    }
+    
+    // before and after the chunks of the system are updated, on the thread calling EntityWorld.Update
+    protected void Begin(float fElapsedTime) {}
+    protected void End(float fElapsedTime) {}
+    
+    /**
+     * Updates one chunk. May run on any job thread, at the same time as other chunks and
+     * other systems of the stage; structural changes must go through
+     * {@link EntityWorld#Defer}.
+     */
+    protected abstract void Update(Chunk chunk, float fElapsedTime);
+}
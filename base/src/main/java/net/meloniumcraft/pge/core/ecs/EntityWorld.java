@@ -0,0 +1,292 @@
+package net.meloniumcraft.pge.core.ecs;
+
+import net.meloniumcraft.pge.core.PixelGameEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entities grouped by archetype, the exact set of components they have. Each archetype
+ * stores its entities in fixed size chunks of primitive columns, so queries walk dense
+ * arrays instead of chasing objects. Entities are ints holding an index and a
+ * generation, so a stale handle to a destroyed entity is detected. An index whose
+ * generation runs out is retired rather than wrapped, so an old handle never comes back.
+ * <p>
+ * {@link #Update} runs the systems in stages: consecutive systems whose component
+ * accesses don't conflict share a stage, and every chunk of every system in a stage is
+ * updated in parallel through {@link PixelGameEngine#ParallelFor}. Call it from the render
+ * thread, usually in {@code OnUserUpdate}.
+ */
+public final class EntityWorld {
+    public static final int MAX_COMPONENTS = 64;
+    public static final int CHUNK_CAPACITY = 4096;
+    
+    // 20 index bits and 11 generation bits, the sign bit stays clear
+    private static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int GENERATION_MASK = 0x7ff;
+    
+    private final PixelGameEngine pge;
+    private final List<Component> components = new ArrayList<>();
+    private final Map<Long, Archetype> archetypeByMask = new HashMap<>();
+    final List<Archetype> archetypes = new ArrayList<>();
+    private int chunkCount;
+    
+    // indexed by entity index; destroyed indices form a free list through entityRow
+    private int[] generation = new int[1024];
+    private Chunk[] entityChunk = new Chunk[1024];
+    private int[] entityRow = new int[1024];
+    private int entityLimit;
+    private int freeEntity = -1;
+    private int liveCount;
+    
+    private final List<EntitySystem> systems = new ArrayList<>();
+    private final List<List<EntitySystem>> stages = new ArrayList<>();
+    private final List<Runnable> deferred = new ArrayList<>();
+    private EntitySystem[] taskSystem = new EntitySystem[16];
+    private Chunk[] taskChunk = new Chunk[16];
+    private boolean running;
+    
+    public EntityWorld(PixelGameEngine pge) {
+        this.pge = pge;
+    }
+    
+    public PixelGameEngine getEngine() { return pge;        }
+    public int getEntityCount()        { return liveCount;  }
+    public int getChunkCount()         { return chunkCount; }
+    
+    public Component FloatComponent(String name) { return NewComponent(name, true);  }
+    public Component IntComponent(String name)   { return NewComponent(name, false); }
+    
+    private Component NewComponent(String name, boolean floating) {
+        if (components.size() == MAX_COMPONENTS)
+            throw new IllegalStateException("EntityWorld: at most " + MAX_COMPONENTS + " components!");
+        Component component = new Component(components.size(), name, floating);
+        components.add(component);
+        return component;
+    }
+    
+    static long Mask(Component... components) {
+        long mask = 0;
+        for (Component component : components)
+            mask |= component.bit;
+        return mask;
+    }
+    
+    public Query Query(Component... with) {
+        return new Query(this, Mask(with), 0);
+    }
+    
+    Chunk NewChunk(Archetype archetype) {
+        return new Chunk(archetype, chunkCount++);
+    }
+    
+    private Archetype Archetype(long mask) {
+        Archetype archetype = archetypeByMask.get(mask);
+        if (archetype == null) {
+            Component[] members = new Component[Long.bitCount(mask)];
+            for (int i = 0, n = 0; n < members.length; i++) {
+                if ((mask & (1L << i)) != 0)
+                    members[n++] = components.get(i);
+            }
+            archetype = new Archetype(mask, members);
+            archetypeByMask.put(mask, archetype);
+            archetypes.add(archetype);
+        }
+        return archetype;
+    }
+    
+    /**
+     * Creates an entity with the given components, all zero, and returns its handle.
+     */
+    public int Create(Component... with) {
+        CheckStructural();
+        int index;
+        if (freeEntity >= 0) {
+            index = freeEntity;
+            freeEntity = entityRow[index];
+        } else {
+            if (entityLimit > INDEX_MASK)
+                throw new IllegalStateException("EntityWorld: too many entities!");
+            index = entityLimit++;
+            if (index == generation.length) {
+                int capacity = index * 2;
+                generation = Arrays.copyOf(generation, capacity);
+                entityChunk = Arrays.copyOf(entityChunk, capacity);
+                entityRow = Arrays.copyOf(entityRow, capacity);
+            }
+        }
+        int entity = generation[index] << INDEX_BITS | index;
+        Place(index, entity, Archetype(Mask(with)).Open(this));
+        liveCount++;
+        return entity;
+    }
+    
+    public void Destroy(int entity) {
+        CheckStructural();
+        int index = Index(entity);
+        Unplace(index);
+        entityChunk[index] = null;
+        liveCount--;
+        if (generation[index] == GENERATION_MASK)
+            return;
+        generation[index]++;
+        entityRow[index] = freeEntity;
+        freeEntity = index;
+    }
+    
+    public boolean IsAlive(int entity) {
+        int index = entity & INDEX_MASK;
+        return entity >= 0 && index < entityLimit && entityChunk[index] != null && generation[index] == entity >>> INDEX_BITS;
+    }
+    
+    public boolean Has(int entity, Component component) {
+        return entityChunk[Index(entity)].Has(component);
+    }
+    
+    public void Add(int entity, Component component) {
+        int index = Index(entity);
+        Move(index, entity, entityChunk[index].archetype.mask | component.bit);
+    }
+    
+    public void Remove(int entity, Component component) {
+        int index = Index(entity);
+        Move(index, entity, entityChunk[index].archetype.mask & ~component.bit);
+    }
+    
+    public float GetFloat(int entity, Component component)         { int i = Index(entity); return entityChunk[i].Floats(component)[entityRow[i]]; }
+    public int   GetInt(int entity, Component component)           { int i = Index(entity); return entityChunk[i].Ints(component)[entityRow[i]];   }
+    public void  SetFloat(int entity, Component component, float v) { int i = Index(entity); entityChunk[i].Floats(component)[entityRow[i]] = v;   }
+    public void  SetInt(int entity, Component component, int v)     { int i = Index(entity); entityChunk[i].Ints(component)[entityRow[i]] = v;     }
+    
+    private int Index(int entity) {
+        if (!IsAlive(entity))
+            throw new IllegalArgumentException("EntityWorld: entity " + entity + " is not alive!");
+        return entity & INDEX_MASK;
+    }
+    
+    private void CheckStructural() {
+        if (running)
+            throw new IllegalStateException("EntityWorld: entities can't change components while systems run, use Defer!");
+    }
+    
+    private void Place(int index, int entity, Chunk chunk) {
+        entityChunk[index] = chunk;
+        entityRow[index] = chunk.Add(entity);
+    }
+    
+    private void Unplace(int index) {
+        int moved = entityChunk[index].Remove(entityRow[index]);
+        if (moved >= 0)
+            entityRow[moved & INDEX_MASK] = entityRow[index];
+    }
+    
+    private void Move(int index, int entity, long mask) {
+        CheckStructural();
+        Chunk from = entityChunk[index];
+        if (from.archetype.mask == mask)
+            return;
+        int fromRow = entityRow[index];
+        Chunk to = Archetype(mask).Open(this);
+        int toRow = to.Add(entity);
+        for (Component component : to.archetype.components) {
+            if (from.columns[component.id] != null)
+                System.arraycopy(from.columns[component.id], fromRow, to.columns[component.id], toRow, 1);
+        }
+        Unplace(index);
+        entityChunk[index] = to;
+        entityRow[index] = toRow;
+    }
+    
+    /**
+     * Runs a structural change, like creating or destroying entities, once every system of
+     * the current {@link #Update} has finished, or right away outside of it. Safe to call
+     * from systems.
+     */
+    public void Defer(Runnable change) {
+        synchronized (deferred) {
+            if (running) {
+                deferred.add(change);
+                return;
+            }
+        }
+        change.run();
+    }
+    
+    public void AddSystem(EntitySystem system) {
+        systems.add(system);
+        BuildStages();
+    }
+    
+    public void RemoveSystem(EntitySystem system) {
+        if (systems.remove(system))
+            BuildStages();
+    }
+    
+    public int getStageCount() {
+        return stages.size();
+    }
+    
+    private void BuildStages() {
+        stages.clear();
+        List<EntitySystem> stage = null;
+        for (EntitySystem system : systems) {
+            boolean conflict = stage == null;
+            for (int i = 0; !conflict && i < stage.size(); i++)
+                conflict = system.ConflictsWith(stage.get(i));
+            if (conflict) {
+                stage = new ArrayList<>();
+                stages.add(stage);
+            }
+            stage.add(system);
+        }
+    }
+    
+    public void Update(float fElapsedTime) {
+        synchronized (deferred) {
+            running = true;
+        }
+        try {
+            for (List<EntitySystem> stage : stages)
+                RunStage(stage, fElapsedTime);
+        } finally {
+            synchronized (deferred) {
+                running = false;
+            }
+        }
+        for (int i = 0; i < deferred.size(); i++)
+            deferred.get(i).run();
+        deferred.clear();
+    }
+    
+    private void RunStage(List<EntitySystem> stage, float fElapsedTime) {
+        int tasks = 0;
+        for (EntitySystem system : stage) {
+            system.Begin(fElapsedTime);
+            for (Archetype archetype : system.getQuery().Archetypes()) {
+                for (Chunk chunk : archetype.chunks) {
+                    if (chunk.count == 0)
+                        continue;
+                    if (tasks == taskSystem.length) {
+                        taskSystem = Arrays.copyOf(taskSystem, tasks * 2);
+                        taskChunk = Arrays.copyOf(taskChunk, tasks * 2);
+                    }
+                    taskSystem[tasks] = system;
+                    taskChunk[tasks++] = chunk;
+                }
+            }
+        }
+        EntitySystem[] systems = taskSystem;
+        Chunk[] chunks = taskChunk;
+        if (tasks == 1)
+            systems[0].Update(chunks[0], fElapsedTime);
+        else if (tasks > 1)
+            pge.ParallelFor(0, tasks, i -> systems[i].Update(chunks[i], fElapsedTime));
+        Arrays.fill(taskChunk, 0, tasks, null);
+        for (EntitySystem system : stage)
+            system.End(fElapsedTime);
+    }
+}
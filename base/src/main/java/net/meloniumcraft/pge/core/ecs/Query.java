@@ -0,0 +1,55 @@
+package net.meloniumcraft.pge.core.ecs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Every chunk whose archetype has all of the {@code with} components and none of the
+ * {@code without} ones. Archetypes are matched once, when they first appear.
+ */
+public final class Query {
+    private final EntityWorld world;
+    final long all;
+    final long none;
+    private final List<Archetype> matched = new ArrayList<>();
+    private int checked;
+    
+    Query(EntityWorld world, long all, long none) {
+        this.world = world;
+        this.all = all;
+        this.none = none;
+    }
+    
+    public Query Without(Component... components) {
+        return new Query(world, all, none | EntityWorld.Mask(components));
+    }
+    
+    List<Archetype> Archetypes() {
+        List<Archetype> archetypes = world.archetypes;
+        for (; checked < archetypes.size(); checked++) {
+            Archetype archetype = archetypes.get(checked);
+            if ((archetype.mask & all) == all && (archetype.mask & none) == 0)
+                matched.add(archetype);
+        }
+        return matched;
+    }
+    
+    public void ForEachChunk(Consumer<Chunk> action) {
+        for (Archetype archetype : Archetypes()) {
+            for (Chunk chunk : archetype.chunks) {
+                if (chunk.count > 0)
+                    action.accept(chunk);
+            }
+        }
+    }
+    
+    public int Count() {
+        int count = 0;
+        for (Archetype archetype : Archetypes()) {
+            for (Chunk chunk : archetype.chunks)
+                count += chunk.count;
+        }
+        return count;
+    }
+}
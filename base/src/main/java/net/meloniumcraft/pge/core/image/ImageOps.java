@@ -0,0 +1,296 @@
+package net.meloniumcraft.pge.core.image;
+
+import net.meloniumcraft.pge.core.types.Pixel;
+import net.meloniumcraft.pge.core.types.PixelBlend;
+import net.meloniumcraft.pge.core.types.Sprite;
+
+/**
+ * Image processing on {@link PixelImage}s. Large images are split into ranges of rows
+ * run in parallel on the common fork-join pool; small ones run on the calling thread, so
+ * many small sprites are best processed in parallel themselves. Channels are filtered
+ * independently, so images with soft alpha should be premultiplied before they are
+ * resampled, rotated or blurred.
+ */
+public final class ImageOps {
+    private static final int LANES = 0x00ff00ff;
+    
+    private ImageOps() {}
+    
+    public static PixelImage Resample(PixelImage src, int width, int height) { return Resample(src, width, height, true); }
+    /**
+     * Scales to {@code width} by {@code height}, sampling the nearest pixel or blending
+     * the four nearest with {@code bilinear}.
+     */
+    public static PixelImage Resample(PixelImage src, int width, int height, boolean bilinear) {
+        PixelImage dst = new PixelImage(width, height);
+        float scaleX = (float)src.width / width;
+        float scaleY = (float)src.height / height;
+        // source column of every destination column, in 1/256 pixels when bilinear
+        int[] columns = new int[width];
+        for (int x = 0; x < width; x++)
+            columns[x] = bilinear ? (int)Math.floor(((x + .5f) * scaleX - .5f) * 256 + .5f) : Math.min(src.width - 1, (int)((x + .5f) * scaleX));
+        Rows.Run(width, height, (first, last) -> {
+            for (int y = first; y < last; y++) {
+                int row = y * width;
+                if (bilinear) {
+                    int sy = (int)Math.floor(((y + .5f) * scaleY - .5f) * 256 + .5f);
+                    for (int x = 0; x < width; x++)
+                        dst.pixels[row + x] = Sample(src, columns[x], sy, true);
+                } else {
+                    int sy = Math.min(src.height - 1, (int)((y + .5f) * scaleY)) * src.width;
+                    for (int x = 0; x < width; x++)
+                        dst.pixels[row + x] = src.pixels[sy + columns[x]];
+                }
+            }
+        });
+        return dst;
+    }
+    
+    /**
+     * Rotates by {@code angle} radians, in the same direction as rotated decals, into an
+     * image just large enough to hold the result. Uncovered pixels are transparent.
+     */
+    public static PixelImage Rotate(PixelImage src, float angle) {
+        float cos = (float)Math.cos(angle);
+        float sin = (float)Math.sin(angle);
+        int width = Math.max(1, (int)Math.ceil(Math.abs(src.width * cos) + Math.abs(src.height * sin) - 1e-3f));
+        int height = Math.max(1, (int)Math.ceil(Math.abs(src.width * sin) + Math.abs(src.height * cos) - 1e-3f));
+        PixelImage dst = new PixelImage(width, height);
+        float srcCentreX = src.width / 2.f - .5f;
+        float srcCentreY = src.height / 2.f - .5f;
+        float dstCentreX = width / 2.f - .5f;
+        float dstCentreY = height / 2.f - .5f;
+        Rows.Run(width, height, (first, last) -> {
+            for (int y = first; y < last; y++) {
+                float dy = y - dstCentreY;
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    float dx = x - dstCentreX;
+                    float sx = cos * dx + sin * dy + srcCentreX;
+                    float sy = cos * dy - sin * dx + srcCentreY;
+                    dst.pixels[i] = Sample(src, (int)Math.floor(sx * 256 + .5f), (int)Math.floor(sy * 256 + .5f), false);
+                }
+            }
+        });
+        return dst;
+    }
+    
+    /**
+     * Bakes a flip into the pixels, with the same meaning as the flip of
+     * {@link net.meloniumcraft.pge.core.PixelGameEngine#DrawSprite}.
+     */
+    public static PixelImage Flip(PixelImage src, Sprite.FLIP flip) {
+        int width = src.width;
+        int height = src.height;
+        boolean rows = flip == Sprite.FLIP.HORIZONTAL || flip == Sprite.FLIP.BOTH;
+        boolean columns = flip == Sprite.FLIP.VERTICAL || flip == Sprite.FLIP.BOTH;
+        PixelImage dst = new PixelImage(width, height);
+        Rows.Run(width, height, (first, last) -> {
+            for (int y = first; y < last; y++) {
+                int from = (rows ? height - 1 - y : y) * width;
+                int to = y * width;
+                if (!columns) {
+                    System.arraycopy(src.pixels, from, dst.pixels, to, width);
+                    continue;
+                }
+                for (int x = 0; x < width; x++)
+                    dst.pixels[to + x] = src.pixels[from + width - 1 - x];
+            }
+        });
+        return dst;
+    }
+    
+    /**
+     * Averages every pixel with the pixels up to {@code radius} away on both axes. Costs
+     * the same for any radius.
+     */
+    public static PixelImage BoxBlur(PixelImage src, int radius) {
+        if (radius < 0)
+            throw new IllegalArgumentException("ImageOps: blur radius must not be negative!");
+        if (radius == 0)
+            return src.Copy();
+        // each pass blurs rows and writes them as columns, so the second pass turns the image back
+        int[] transposed = new int[src.width * src.height];
+        PixelImage dst = new PixelImage(src.width, src.height);
+        Rows.Run(src.width, src.height, (first, last) -> BoxRows(src.pixels, src.width, src.height, transposed, radius, first, last));
+        Rows.Run(src.height, src.width, (first, last) -> BoxRows(transposed, src.height, src.width, dst.pixels, radius, first, last));
+        return dst;
+    }
+    
+    public static PixelImage GaussianBlur(PixelImage src, float sigma) {
+        if (sigma <= 0)
+            return src.Copy();
+        int radius = (int)Math.ceil(sigma * 3);
+        // weights in 1/65536, the centre taking the rounding error so they sum to exactly 1
+        int[] weights = new int[radius * 2 + 1];
+        double total = 0;
+        for (int k = -radius; k <= radius; k++)
+            total += Math.exp(-k * k / (2.0 * sigma * sigma));
+        int sum = 0;
+        for (int k = -radius; k <= radius; k++) {
+            weights[k + radius] = (int)Math.round(Math.exp(-k * k / (2.0 * sigma * sigma)) / total * 65536);
+            sum += weights[k + radius];
+        }
+        weights[radius] += 65536 - sum;
+        
+        int[] transposed = new int[src.width * src.height];
+        PixelImage dst = new PixelImage(src.width, src.height);
+        Rows.Run(src.width, src.height, (first, last) -> KernelRows(src.pixels, src.width, src.height, transposed, weights, first, last));
+        Rows.Run(src.height, src.width, (first, last) -> KernelRows(transposed, src.height, src.width, dst.pixels, weights, first, last));
+        return dst;
+    }
+    
+    /**
+     * Surrounds every pixel with at least half alpha by {@code colour}, up to
+     * {@code thickness} pixels away. The result grows by {@code thickness} on every side
+     * so the outline is never cut off.
+     */
+    public static PixelImage Outline(PixelImage src, Pixel colour, int thickness) {
+        if (thickness < 0)
+            throw new IllegalArgumentException("ImageOps: outline thickness must not be negative!");
+        int width = src.width + thickness * 2;
+        int height = src.height + thickness * 2;
+        int rgba = colour.toRGBA();
+        // every offset within the thickness, nearest first
+        int count = 0;
+        int[] offsets = new int[(thickness * 2 + 1) * (thickness * 2 + 1) * 2];
+        for (int d = 1; d <= thickness * thickness; d++) {
+            for (int oy = -thickness; oy <= thickness; oy++) {
+                for (int ox = -thickness; ox <= thickness; ox++) {
+                    if (ox * ox + oy * oy == d) {
+                        offsets[count++] = ox;
+                        offsets[count++] = oy;
+                    }
+                }
+            }
+        }
+        int offsetCount = count;
+        
+        PixelImage dst = new PixelImage(width, height);
+        Rows.Run(width, height, (first, last) -> {
+            for (int y = first; y < last; y++) {
+                int sy = y - thickness;
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    int sx = x - thickness;
+                    boolean inside = sx >= 0 && sy >= 0 && sx < src.width && sy < src.height;
+                    int p = inside ? src.pixels[sy * src.width + sx] : 0;
+                    if ((p & 0xff) == 0xff) {
+                        dst.pixels[i] = p;
+                        continue;
+                    }
+                    boolean near = false;
+                    for (int o = 0; o < offsetCount && !near; o += 2) {
+                        int nx = sx + offsets[o];
+                        int ny = sy + offsets[o + 1];
+                        near = nx >= 0 && ny >= 0 && nx < src.width && ny < src.height && (src.pixels[ny * src.width + nx] & 0xff) >= 0x80;
+                    }
+                    dst.pixels[i] = near ? PixelBlend.Alpha(p, rgba) : p;
+                }
+            }
+        });
+        return dst;
+    }
+    
+    // scales the colour of every pixel by its alpha, in place
+    public static void Premultiply(PixelImage image) {
+        int[] pixels = image.pixels;
+        Rows.Run(image.width, image.height, (first, last) -> {
+            for (int i = first * image.width, end = last * image.width; i < end; i++)
+                pixels[i] = PixelBlend.Premultiply(pixels[i]);
+        });
+    }
+    
+    public static void ColourKey(PixelImage image, Pixel key) { ColourKey(image, key, 0); }
+    /**
+     * Makes every pixel whose red, green and blue are each within {@code tolerance} of the
+     * key fully transparent, in place.
+     */
+    public static void ColourKey(PixelImage image, Pixel key, int tolerance) {
+        int[] pixels = image.pixels;
+        int kr = key.r & 0xff;
+        int kg = key.g & 0xff;
+        int kb = key.b & 0xff;
+        Rows.Run(image.width, image.height, (first, last) -> {
+            for (int i = first * image.width, end = last * image.width; i < end; i++) {
+                int p = pixels[i];
+                if (Math.abs((p >>> 24) - kr) <= tolerance && Math.abs((p >>> 16 & 0xff) - kg) <= tolerance && Math.abs((p >>> 8 & 0xff) - kb) <= tolerance)
+                    pixels[i] = 0;
+            }
+        });
+    }
+    
+    // blends two pixels with rounding, w in [0, 256] being the weight of b
+    private static int Lerp(int a, int b, int w) {
+        int iw = 256 - w;
+        int rb = ((a >>> 8 & LANES) * iw + (b >>> 8 & LANES) * w + 0x00800080) >>> 8 & LANES;
+        int ga = ((a & LANES) * iw + (b & LANES) * w + 0x00800080) >>> 8 & LANES;
+        return rb << 8 | ga;
+    }
+    
+    // bilinear sample at (fx, fy) in 1/256 pixels; outside the image is the nearest edge or transparent
+    private static int Sample(PixelImage src, int fx, int fy, boolean clamp) {
+        int x = fx >> 8;
+        int y = fy >> 8;
+        int wx = fx & 0xff;
+        int wy = fy & 0xff;
+        int top = Lerp(Texel(src, x, y, clamp), Texel(src, x + 1, y, clamp), wx);
+        int bottom = Lerp(Texel(src, x, y + 1, clamp), Texel(src, x + 1, y + 1, clamp), wx);
+        return Lerp(top, bottom, wy);
+    }
+    
+    private static int Texel(PixelImage src, int x, int y, boolean clamp) {
+        if (x < 0 || y < 0 || x >= src.width || y >= src.height) {
+            if (!clamp)
+                return 0;
+            x = Math.max(0, Math.min(src.width - 1, x));
+            y = Math.max(0, Math.min(src.height - 1, y));
+        }
+        return src.pixels[y * src.width + x];
+    }
+    
+    // box blurs rows [first, last) of a width by height image into the columns of a height by width one
+    private static void BoxRows(int[] in, int width, int height, int[] out, int radius, int first, int last) {
+        int n = radius * 2 + 1;
+        // 1 / n in 1/2^32, rounded up so a constant row stays constant
+        long inverse = (1L << 32) / n + 1;
+        for (int y = first; y < last; y++) {
+            int row = y * width;
+            int r = 0, g = 0, b = 0, a = 0;
+            for (int k = -radius; k <= radius; k++) {
+                int p = in[row + Math.max(0, Math.min(width - 1, k))];
+                r += p >>> 24;
+                g += p >>> 16 & 0xff;
+                b += p >>> 8 & 0xff;
+                a += p & 0xff;
+            }
+            for (int x = 0, o = y; x < width; x++, o += height) {
+                out[o] = (int)(r * inverse >>> 32) << 24 | (int)(g * inverse >>> 32) << 16 | (int)(b * inverse >>> 32) << 8 | (int)(a * inverse >>> 32);
+                int enter = in[row + Math.min(width - 1, x + radius + 1)];
+                int leave = in[row + Math.max(0, x - radius)];
+                r += (enter >>> 24) - (leave >>> 24);
+                g += (enter >>> 16 & 0xff) - (leave >>> 16 & 0xff);
+                b += (enter >>> 8 & 0xff) - (leave >>> 8 & 0xff);
+                a += (enter & 0xff) - (leave & 0xff);
+            }
+        }
+    }
+    
+    // convolves rows [first, last) of a width by height image into the columns of a height by width one
+    private static void KernelRows(int[] in, int width, int height, int[] out, int[] weights, int first, int last) {
+        int radius = weights.length / 2;
+        for (int y = first; y < last; y++) {
+            int row = y * width;
+            for (int x = 0, o = y; x < width; x++, o += height) {
+                int r = 0x8000, g = 0x8000, b = 0x8000, a = 0x8000;
+                for (int k = -radius; k <= radius; k++) {
+                    int p = in[row + Math.max(0, Math.min(width - 1, x + k))];
+                    int w = weights[k + radius];
+                    r += (p >>> 24) * w;
+                    g += (p >>> 16 & 0xff) * w;
+                    b += (p >>> 8 & 0xff) * w;
+                    a += (p & 0xff) * w;
+                }
+                out[o] = (r >>> 16) << 24 | (g >>> 16) << 16 | (b >>> 16) << 8 | a >>> 16;
+            }
+        }
+    }
+}
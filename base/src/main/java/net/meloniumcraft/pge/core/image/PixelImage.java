@@ -0,0 +1,69 @@
+package net.meloniumcraft.pge.core.image;
+
+import net.meloniumcraft.pge.core.types.Sprite;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Pixels on the CPU as packed {@code 0xRRGGBBAA} ints, row by row from the top left, for
+ * processing with {@link ImageOps} before they are uploaded to a sprite.
+ */
+public final class PixelImage {
+    public final int width;
+    public final int height;
+    public final int[] pixels;
+    
+    public PixelImage(int width, int height) { this(width, height, new int[width * height]); }
+    public PixelImage(int width, int height, int[] rgba) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("PixelImage: size must be positive!");
+        if (rgba.length < width * height)
+            throw new IllegalArgumentException("PixelImage: expected " + width * height + " pixels but got " + rgba.length + "!");
+        this.width = width;
+        this.height = height;
+        this.pixels = rgba;
+    }
+    
+    public static PixelImage Load(String path) {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new File(path));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("PixelImage: couldn't load " + path + "!", e);
+        }
+        if (image == null)
+            throw new IllegalArgumentException("PixelImage: couldn't load " + path + "!");
+        int w = image.getWidth();
+        int h = image.getHeight();
+        return FromARGB(w, h, image.getRGB(0, 0, w, h, null, 0, w));
+    }
+    
+    /**
+     * Wraps {@code 0xAARRGGBB} pixels, as returned by {@link BufferedImage#getRGB}, after
+     * converting them in place.
+     */
+    public static PixelImage FromARGB(int width, int height, int[] argb) {
+        PixelImage image = new PixelImage(width, height, argb);
+        Rows.Run(width, height, (first, last) -> {
+            for (int i = first * width, end = last * width; i < end; i++)
+                argb[i] = argb[i] << 8 | argb[i] >>> 24;
+        });
+        return image;
+    }
+    
+    public int  Get(int x, int y)           { return pixels[y * width + x]; }
+    public void Set(int x, int y, int rgba) { pixels[y * width + x] = rgba; }
+    
+    public PixelImage Copy() {
+        return new PixelImage(width, height, pixels.clone());
+    }
+    
+    public Sprite ToSprite() {
+        Sprite sprite = new Sprite(width, height);
+        sprite.SetPixels(pixels);
+        return sprite;
+    }
+}
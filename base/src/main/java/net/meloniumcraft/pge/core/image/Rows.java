@@ -0,0 +1,48 @@
+package net.meloniumcraft.pge.core.image;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// splits the rows of an image into ranges run on the common fork-join pool
+final class Rows {
+    // below this many pixels per range, splitting costs more than it saves
+    private static final int GRAIN = 16384;
+    
+    private Rows() {}
+    
+    interface Range {
+        void Run(int first, int last);
+    }
+    
+    static void Run(int width, int height, Range body) {
+        int grain = Math.max(1, GRAIN / Math.max(1, width));
+        if (height <= grain)
+            body.Run(0, height);
+        else
+            ForkJoinPool.commonPool().invoke(new Split(0, height, grain, body));
+    }
+    
+    private static final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final int first, last, grain;
+        private final Range body;
+        
+        Split(int first, int last, int grain, Range body) {
+            this.first = first;
+            this.last = last;
+            this.grain = grain;
+            this.body = body;
+        }
+        
+        @Override
+        protected void compute() {
+            if (last - first <= grain) {
+                body.Run(first, last);
+                return;
+            }
+            int mid = (first + last) >>> 1;
+            invokeAll(new Split(first, mid, grain, body), new Split(mid, last, grain, body));
+        }
+    }
+}
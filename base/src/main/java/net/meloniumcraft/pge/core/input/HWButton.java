@@ -4,4 +4,10 @@ public final class HWButton {
     public boolean bPressed = false;
     public boolean bHeld = false;
     public boolean bReleased = false;
+    
+    // transitions seen since the last frame and System.nanoTime() of the latest ones
+    public int nPresses = 0;
+    public int nReleases = 0;
+    public long pressTime = 0;
+    public long releaseTime = 0;
 }
@@ -0,0 +1,179 @@
+package net.meloniumcraft.pge.core.jobs;
+
+import net.meloniumcraft.pge.backend.PGEBackend;
+import net.meloniumcraft.pge.core.callbacks.*;
+import net.meloniumcraft.pge.core.drawlist.DrawListGeometry;
+import net.meloniumcraft.pge.core.types.*;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Records draw calls made off the render thread so they can be replayed later.
+ * Arguments are captured by reference, so vectors and pixels passed in must not be
+ * mutated until the frame ends. Anything that creates resources or touches the window
+ * can only be called from the render thread.
+ */
+public final class CommandBuffer extends PGEBackend {
+    private final List<Consumer<PGEBackend>> commands = new ArrayList<>();
+    
+    private void record(Consumer<PGEBackend> command) {
+        commands.add(command);
+    }
+    
+    private static IllegalStateException renderThreadOnly(String call) {
+        return new IllegalStateException("CommandBuffer: " + call + " can only be called from the render thread!");
+    }
+    
+    private interface BufferCommand    { void Run(PGEBackend b, IntBuffer v);                               }
+    private interface BuffersCommand   { void Run(PGEBackend b, IntBuffer v, IntBuffer c);                  }
+    private interface InstancesCommand { void Run(PGEBackend b, FloatBuffer v, FloatBuffer s, IntBuffer c); }
+    
+    // buffers are duplicated when the call is made, so they keep the position they had then
+    // and the caller may move on
+    private void record(IntBuffer v, BufferCommand command) {
+        IntBuffer vCopy = duplicate(v);
+        record(b -> command.Run(b, vCopy));
+    }
+    
+    private void record(IntBuffer v, IntBuffer c, BuffersCommand command) {
+        IntBuffer vCopy = duplicate(v), cCopy = duplicate(c);
+        record(b -> command.Run(b, vCopy, cCopy));
+    }
+    
+    private void record(FloatBuffer v, FloatBuffer s, IntBuffer c, InstancesCommand command) {
+        FloatBuffer vCopy = duplicate(v), sCopy = duplicate(s);
+        IntBuffer cCopy = duplicate(c);
+        record(b -> command.Run(b, vCopy, sCopy, cCopy));
+    }
+    
+    private static FloatBuffer duplicate(FloatBuffer buffer) {
+        return buffer != null ? buffer.duplicate() : null;
+    }
+    
+    private static IntBuffer duplicate(IntBuffer buffer) {
+        return buffer != null ? buffer.duplicate() : null;
+    }
+    
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+    
+    public void Replay(PGEBackend target) {
+        for (Consumer<PGEBackend> command : commands)
+            command.accept(target);
+        commands.clear();
+    }
+    
+    void Discard() {
+        commands.clear();
+    }
+    
+    @Override public int  CreateLayer()                                 { throw renderThreadOnly("CreateLayer");             }
+    @Override public int  CreateLayer(int order, int divisor)           { throw renderThreadOnly("CreateLayer");             }
+    @Override public void DeleteLayer(int layer)                        { throw renderThreadOnly("DeleteLayer");             }
+    @Override public int  GetLayer()                                    { throw renderThreadOnly("GetLayer");                }
+    @Override public void SetLayer(int layer)                           { record(b -> b.SetLayer(layer));                    }
+    @Override public void EnableLayer(int layer, boolean show)          { record(b -> b.EnableLayer(layer, show));           }
+    @Override public void SetLayerOffset(int layer, float x, float y)   { record(b -> b.SetLayerOffset(layer, x, y));        }
+    @Override public void SetLayerScale(int layer, float x, float y)    { record(b -> b.SetLayerScale(layer, x, y));         }
+    @Override public void SetLayerTint(int layer, Pixel tint)           { record(b -> b.SetLayerTint(layer, tint));          }
+    @Override public void SetLayerBlend(int layer, Pixel.Mode mode)     { record(b -> b.SetLayerBlend(layer, mode));         }
+    @Override public void SetLayerOrder(int layer, int order)           { record(b -> b.SetLayerOrder(layer, order));        }
+    @Override public int  GetLayerOrder(int layer)                      { throw renderThreadOnly("GetLayerOrder");           }
+    @Override public void SetLayerResolution(int layer, int divisor)    { record(b -> b.SetLayerResolution(layer, divisor)); }
+    @Override public void EnableLayerMipmaps(int layer, boolean enable) { record(b -> b.EnableLayerMipmaps(layer, enable));  }
+    @Override public void SetDrawTarget(Sprite target)                  { record(b -> b.SetDrawTarget(target));              }
+    
+    @Override public void SetPixelMode(Pixel.Mode mode, Pixel.BlendFactor src, Pixel.BlendFactor dst) { record(b -> b.SetPixelMode(mode, src, dst)); }
+    @Override public Pixel.Mode GetPixelMode()                                                        { throw renderThreadOnly("GetPixelMode");      }
+    
+    @Override public void Clear(Pixel p)                                                        { record(b -> b.Clear(p));                                }
+    @Override public void Draw(int x, int y, Pixel p)                                           { record(b -> b.Draw(x, y, p));                           }
+    @Override public void DrawLine(int x1, int y1, int x2, int y2, Pixel p)                     { record(b -> b.DrawLine(x1, y1, x2, y2, p));             }
+    @Override public void DrawCircle(int x, int y, int radius, Pixel p)                         { record(b -> b.DrawCircle(x, y, radius, p));             }
+    @Override public void FillCircle(int x, int y, int radius, Pixel p)                         { record(b -> b.FillCircle(x, y, radius, p));             }
+    @Override public void DrawRect(int x, int y, int w, int h, Pixel p)                         { record(b -> b.DrawRect(x, y, w, h, p));                 }
+    @Override public void FillRect(int x, int y, int w, int h, Pixel p)                         { record(b -> b.FillRect(x, y, w, h, p));                 }
+    @Override public void DrawTriangle(int x1, int y1, int x2, int y2, int x3, int y3, Pixel p) { record(b -> b.DrawTriangle(x1, y1, x2, y2, x3, y3, p)); }
+    @Override public void FillTriangle(int x1, int y1, int x2, int y2, int x3, int y3, Pixel p) { record(b -> b.FillTriangle(x1, y1, x2, y2, x3, y3, p)); }
+    
+    @Override public void DrawPoints(IntBuffer xy, IntBuffer rgba, int count)    { record(xy, rgba, (b, v, c) -> b.DrawPoints(v, c, count));    }
+    @Override public void DrawLines(IntBuffer xy, IntBuffer rgba, int count)     { record(xy, rgba, (b, v, c) -> b.DrawLines(v, c, count));     }
+    @Override public void DrawPolyline(IntBuffer xy, int count, Pixel p)         { record(xy, (b, v) -> b.DrawPolyline(v, count, p));           }
+    @Override public void FillRects(IntBuffer rects, IntBuffer rgba, int count)  { record(rects, rgba, (b, v, c) -> b.FillRects(v, c, count));  }
+    @Override public void FillTriangles(IntBuffer xy, IntBuffer rgba, int count) { record(xy, rgba, (b, v, c) -> b.FillTriangles(v, c, count)); }
+    
+    @Override public void DrawSprite(int x, int y, Sprite sprite, int scale, Sprite.FLIP flip)                                      { record(b -> b.DrawSprite(x, y, sprite, scale, flip));                      }
+    @Override public void DrawPartialSprite(int x, int y, Sprite sprite, int ox, int oy, int w, int h, int scale, Sprite.FLIP flip) { record(b -> b.DrawPartialSprite(x, y, sprite, ox, oy, w, h, scale, flip)); }
+    
+    @Override public void DrawDecal(VF2D pos, Decal decal, VF2D scale, Pixel tint)                                                                             { record(b -> b.DrawDecal(pos, decal, scale, tint));                                                        }
+    @Override public void DrawPartialDecal(VF2D pos, Decal decal, VF2D source_pos, VF2D source_size, VF2D scale, Pixel tint)                                   { record(b -> b.DrawPartialDecal(pos, decal, source_pos, source_size, scale, tint));                        }
+    @Override public void DrawPartialDecal(VF2D pos, VF2D size, Decal decal, VF2D source_pos, VF2D source_size, Pixel tint)                                    { record(b -> b.DrawPartialDecal(pos, size, decal, source_pos, source_size, tint));                         }
+    @Override public void DrawExplicitDecal(Decal decal, VF2D[] pos, VF2D[] uv, Pixel[] col)                                                                   { record(b -> b.DrawExplicitDecal(decal, pos, uv, col));                                                    }
+    @Override public void DrawWarpedDecal(Decal decal, VF2D[] pos, Pixel tint)                                                                                 { record(b -> b.DrawWarpedDecal(decal, pos, tint));                                                         }
+    @Override public void DrawPartialWarpedDecal(Decal decal, VF2D[] pos, VF2D source_pos, VF2D source_size, Pixel tint)                                       { record(b -> b.DrawPartialWarpedDecal(decal, pos, source_pos, source_size, tint));                         }
+    @Override public void DrawRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D scale, Pixel tint)                                           { record(b -> b.DrawRotatedDecal(pos, decal, fAngle, center, scale, tint));                                 }
+    @Override public void DrawPartialRotatedDecal(VF2D pos, Decal decal, float fAngle, VF2D center, VF2D source_pos, VF2D source_size, VF2D scale, Pixel tint) { record(b -> b.DrawPartialRotatedDecal(pos, decal, fAngle, center, source_pos, source_size, scale, tint)); }
+    @Override public void FillRectDecal(VF2D pos, VF2D size, Pixel col)                                                                                        { record(b -> b.FillRectDecal(pos, size, col));                                                             }
+    @Override public void GradientFillRectDecal(VF2D pos, VF2D size, Pixel colTL, Pixel colBL, Pixel colBR, Pixel colTR)                                       { record(b -> b.GradientFillRectDecal(pos, size, colTL, colBL, colBR, colTR));                              }
+    @Override public void DrawParticles(Decal decal, float[] x, float[] y, int[] rgba, int count, float size)                                                  { record(b -> b.DrawParticles(decal, x, y, rgba, count, size));                                             }
+    @Override public void DrawDecalQuads(Decal decal, float[] rects, float[] uvs, int[] rgba, int count)                                                       { record(b -> b.DrawDecalQuads(decal, rects, uvs, rgba, count));                                            }
+    @Override public void DrawDecalInstances(Decal decal, float[] xy, float[] scale, int[] rgba, int count)                                                    { record(b -> b.DrawDecalInstances(decal, xy, scale, rgba, count));                                         }
+    @Override public void DrawDecalInstances(Decal decal, FloatBuffer xy, FloatBuffer scale, IntBuffer rgba, int count)                                        { record(xy, scale, rgba, (b, v, sc, c) -> b.DrawDecalInstances(decal, v, sc, c, count));                   }
+    
+    @Override public int  AddPostPass(String fragmentShader, int divisor)            { throw renderThreadOnly("AddPostPass");                                              }
+    @Override public void RemovePostPass(int pass)                                   { record(b -> b.RemovePostPass(pass));                                                }
+    @Override public void EnablePostPass(int pass, boolean show)                     { record(b -> b.EnablePostPass(pass, show));                                          }
+    @Override public void SetPostPassUniform(int pass, String name, float... values) { float[] copy = values.clone(); record(b -> b.SetPostPassUniform(pass, name, copy)); }
+    
+    @Override public int  CreateDrawList(DrawListGeometry geometry) { throw renderThreadOnly("CreateDrawList");  }
+    @Override public void DeleteDrawList(int list)                  { throw renderThreadOnly("DeleteDrawList");  }
+    @Override public void ReplayDrawList(int list, int x, int y)    { record(b -> b.ReplayDrawList(list, x, y)); }
+    
+    @Override public void EnablePicking(boolean enable)             { throw renderThreadOnly("EnablePicking");  }
+    @Override public void SetPickId(int id)                         { record(b -> b.SetPickId(id));             }
+    @Override public void SetPickRegion(int x, int y, int w, int h) { record(b -> b.SetPickRegion(x, y, w, h)); }
+    @Override public int  GetPickedId()                             { throw renderThreadOnly("GetPickedId");    }
+    @Override public int  GetPickedIds(int[] ids)                   { throw renderThreadOnly("GetPickedIds");   }
+    
+    @Override public VI2D GetTextSize(String text)                                       { throw renderThreadOnly("GetTextSize");                  }
+    @Override public void DrawString(int x, int y, String sText, Pixel col, int scale)   { record(b -> b.DrawString(x, y, sText, col, scale));     }
+    @Override public void DrawStringDecal(VF2D pos, String sText, Pixel col, VF2D scale) { record(b -> b.DrawStringDecal(pos, sText, col, scale)); }
+    @Override public VI2D GetTextSize(Font font, String text)                            { throw renderThreadOnly("GetTextSize");                  }
+    @Override public void DrawString(Font font, int x, int y, String sText, Pixel col)   { record(b -> b.DrawString(font, x, y, sText, col));      }
+    
+    @Override public int CreateSprite()                                                         { throw renderThreadOnly("CreateSprite");             }
+    @Override public void MakeSprite(Sprite sprite, int width, int height)                      { throw renderThreadOnly("MakeSprite");               }
+    @Override public void LoadSpriteTexture(Sprite sprite, String path, boolean packed)         { throw renderThreadOnly("LoadSpriteTexture");        }
+    @Override public void DeleteSprite(Sprite sprite)                                           { throw renderThreadOnly("DeleteSprite");             }
+    @Override public void UpdateSpriteFilter(Sprite sprite)                                     { throw renderThreadOnly("UpdateSpriteFilter");       }
+    @Override public void UpdateSpritePixels(Sprite sprite, int[] rgba)                         { throw renderThreadOnly("UpdateSpritePixels");       }
+    @Override public void MakeIndexedSprite(Sprite sprite, byte[] indices)                      { throw renderThreadOnly("MakeIndexedSprite");        }
+    @Override public void LoadIndexedSpriteTexture(Sprite sprite, String path, Palette palette) { throw renderThreadOnly("LoadIndexedSpriteTexture"); }
+    @Override public int CreatePalette()                                                        { throw renderThreadOnly("CreatePalette");            }
+    @Override public void DeletePalette(Palette palette)                                        { throw renderThreadOnly("DeletePalette");            }
+    @Override public int CreateFont(String path, float pixelHeight)                             { throw renderThreadOnly("CreateFont");               }
+    @Override public void DeleteFont(Font font)                                                 { throw renderThreadOnly("DeleteFont");               }
+    @Override public int CreateDecal(Sprite s)                                                  { throw renderThreadOnly("CreateDecal");              }
+    @Override public void DeleteDecal(Decal decal)                                              { throw renderThreadOnly("DeleteDecal");              }
+    
+    @Override public void Create(int screenW, int screenH, int pixelW, int pixelH, boolean fullScreen, boolean vSync) { throw renderThreadOnly("Create");              }
+    @Override public void Destroy()                                                                                   { throw renderThreadOnly("Destroy");             }
+    @Override public boolean ShouldClose()                                                                            { throw renderThreadOnly("ShouldClose");         }
+    @Override public void CloseHint(boolean close)                                                                    { record(b -> b.CloseHint(close));               }
+    @Override public void SetRenderScale(float scale)                                                                 { throw renderThreadOnly("SetRenderScale");      }
+    @Override public void OnPreUpdate()                                                                               { throw renderThreadOnly("OnPreUpdate");         }
+    @Override public void OnPostUpdate()                                                                              { throw renderThreadOnly("OnPostUpdate");        }
+    @Override public void PollEvents(double timeout)                                                                  { throw renderThreadOnly("PollEvents");          }
+    @Override public void SetTitle(String title)                                                                      { record(b -> b.SetTitle(title));                }
+    @Override public int GetMouseButtonCount()                                                                        { throw renderThreadOnly("GetMouseButtonCount"); }
+    
+    @Override public void RegisterKeyCallBack(KeyCallback callback)               { throw renderThreadOnly("RegisterKeyCallBack");        }
+    @Override public void RegisterMouseMoveCallback(MouseMoveCallback callback)   { throw renderThreadOnly("RegisterMouseMoveCallback");  }
+    @Override public void RegisterMouseClickCallback(MouseClickCallback callback) { throw renderThreadOnly("RegisterMouseClickCallback"); }
+    @Override public void RegisterScrollCallback(ScrollCallback callback)         { throw renderThreadOnly("RegisterScrollCallback");     }
+}
@@ -0,0 +1,17 @@
+package net.meloniumcraft.pge.core.jobs;
+
+import java.util.concurrent.CompletableFuture;
+
+public final class Job {
+    final CompletableFuture<Void> future;
+    final CommandBuffer commands;
+    
+    Job(CompletableFuture<Void> future, CommandBuffer commands) {
+        this.future = future;
+        this.commands = commands;
+    }
+    
+    public boolean isDone() {
+        return future.isDone();
+    }
+}
@@ -0,0 +1,224 @@
+package net.meloniumcraft.pge.core.jobs;
+
+import net.meloniumcraft.pge.backend.PGEBackend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+/**
+ * Work-stealing job pool owned by a {@link net.meloniumcraft.pge.core.PixelGameEngine}.
+ * Draw calls issued from a job are recorded into that job's {@link CommandBuffer} and
+ * replayed on the render thread in submission order, so the output is deterministic
+ * no matter which worker ran what. The default constructor runs jobs on a pool shared
+ * by every engine in the JVM, so many engines do not oversubscribe the cores.
+ */
+public final class JobSystem {
+    private static ForkJoinPool sharedPool;
+    
+    private final int parallelism;
+    private final boolean shared;
+    private final ThreadLocal<CommandBuffer> recorder = new ThreadLocal<>();
+    private final List<Job> frameJobs = new ArrayList<>();
+    private final List<Job> batch = new ArrayList<>();
+    // the chunk tree and command buffers of ParallelFor, reused by one call at a time
+    private final AtomicBoolean forBusy = new AtomicBoolean();
+    private ForChunks forTree;
+    private ForkJoinPool pool;
+    
+    public JobSystem() { this(Runtime.getRuntime().availableProcessors(), true); }
+    public JobSystem(int parallelism) { this(parallelism, false); }
+    private JobSystem(int parallelism, boolean shared) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("JobSystem: parallelism must be positive!");
+        this.parallelism = parallelism;
+        this.shared = shared;
+    }
+    
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    public CommandBuffer getRecorder() {
+        return recorder.get();
+    }
+    
+    private static synchronized ForkJoinPool sharedPool(int parallelism) {
+        if (sharedPool == null)
+            sharedPool = new ForkJoinPool(parallelism);
+        return sharedPool;
+    }
+    
+    private ForkJoinPool pool() {
+        if (pool == null)
+            pool = shared ? sharedPool(parallelism) : new ForkJoinPool(parallelism);
+        return pool;
+    }
+    
+    public Job Schedule(Runnable work, Job... dependencies) {
+        CommandBuffer commands = new CommandBuffer();
+        Runnable recorded = () -> record(commands, work);
+        CompletableFuture<Void> future;
+        if (dependencies.length == 0) {
+            future = CompletableFuture.runAsync(recorded, pool());
+        } else {
+            CompletableFuture<?>[] deps = new CompletableFuture<?>[dependencies.length];
+            for (int i = 0; i < deps.length; i++)
+                deps[i] = dependencies[i].future;
+            future = CompletableFuture.allOf(deps).thenRunAsync(recorded, pool());
+        }
+        Job job = new Job(future, commands);
+        synchronized (frameJobs) {
+            frameJobs.add(job);
+        }
+        return job;
+    }
+    
+    public void ParallelFor(int start, int end, IntConsumer body, PGEBackend target) {
+        int count = end - start;
+        if (count <= 0)
+            return;
+        // a nested or concurrent call gets a tree of its own
+        boolean pooled = forBusy.compareAndSet(false, true);
+        ForChunks tree = pooled ? forTree : null;
+        if (tree == null)
+            tree = new ForChunks(0, parallelism * 4, parallelism * 4);
+        if (pooled)
+            forTree = tree;
+        try {
+            tree.Reset(start, count, body);
+            pool().invoke(tree);
+            tree.Replay(target);
+        } finally {
+            if (pooled) {
+                tree.Reset(0, 0, null);
+                forBusy.set(false);
+            }
+        }
+    }
+    
+    public void EndFrame(PGEBackend target) {
+        List<Job> jobs = batch;
+        while (true) {
+            synchronized (frameJobs) {
+                if (frameJobs.isEmpty())
+                    return;
+                jobs.addAll(frameJobs);
+                frameJobs.clear();
+            }
+            // jobs scheduled by other jobs end up in the next batch
+            RuntimeException failure = null;
+            try {
+                for (Job job : jobs) {
+                    try {
+                        job.future.join();
+                    } catch (CompletionException e) {
+                        if (failure == null)
+                            failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                    }
+                }
+                // the jobs that finished still draw, what a failed job recorded is dropped
+                for (Job job : jobs) {
+                    if (job.future.isCompletedExceptionally())
+                        job.commands.Discard();
+                    else
+                        job.commands.Replay(target);
+                }
+            } finally {
+                jobs.clear();
+            }
+            if (failure != null)
+                throw failure;
+        }
+    }
+    
+    public void Shutdown() {
+        if (pool != null) {
+            if (!shared)
+                pool.shutdown();
+            pool = null;
+        }
+    }
+    
+    private void record(CommandBuffer commands, Runnable work) {
+        CommandBuffer previous = recorder.get();
+        recorder.set(commands);
+        try {
+            work.run();
+        } finally {
+            // restored rather than removed, so the next job on this worker reuses the entry
+            recorder.set(previous);
+        }
+    }
+    
+    // a leaf records its share of the range into its own command buffer, the leaves are
+    // replayed in order so the output doesn't depend on which worker ran what
+    private final class ForChunks extends RecursiveAction implements Runnable {
+        private static final long serialVersionUID = 1L;
+        
+        private final int from, to, chunks;
+        private final ForChunks left, right;
+        private final CommandBuffer commands;
+        private int start, count;
+        private IntConsumer body;
+        
+        ForChunks(int from, int to, int chunks) {
+            this.from = from;
+            this.to = to;
+            this.chunks = chunks;
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                left = new ForChunks(from, mid, chunks);
+                right = new ForChunks(mid, to, chunks);
+                commands = null;
+            } else {
+                left = null;
+                right = null;
+                commands = new CommandBuffer();
+            }
+        }
+        
+        void Reset(int start, int count, IntConsumer body) {
+            reinitialize();
+            this.start = start;
+            this.count = count;
+            this.body = body;
+            if (left != null) {
+                left.Reset(start, count, body);
+                right.Reset(start, count, body);
+            } else {
+                commands.Discard();
+            }
+        }
+        
+        void Replay(PGEBackend target) {
+            if (left != null) {
+                left.Replay(target);
+                right.Replay(target);
+            } else {
+                commands.Replay(target);
+            }
+        }
+        
+        @Override
+        protected void compute() {
+            if (left != null)
+                invokeAll(left, right);
+            else
+                record(commands, this);
+        }
+        
+        @Override
+        public void run() {
+            int first = start + (int)((long)count * from / chunks);
+            int last = start + (int)((long)count * to / chunks);
+            for (int i = first; i < last; i++)
+                body.accept(i);
+        }
+    }
+}
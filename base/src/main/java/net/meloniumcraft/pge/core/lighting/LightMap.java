@@ -0,0 +1,403 @@
+package net.meloniumcraft.pge.core.lighting;
+
+import net.meloniumcraft.pge.core.PixelGameEngine;
+import net.meloniumcraft.pge.core.types.Pixel;
+import net.meloniumcraft.pge.core.types.Sprite;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A light map at a fraction of the screen resolution, kept in its own layer and
+ * multiplied over every layer below it in the composite. Point and cone lights are added
+ * every frame and accumulated on the job threads in square tiles of the map, so a light
+ * only costs the cells it reaches. Lights are blocked by solid tiles and line segments:
+ * each light first casts a polar depth map of the occluders around it, which every cell
+ * it reaches then reads with a single lookup.
+ */
+public final class LightMap {
+    private static final int TILE = 32;
+    private static final int SHADOW_BINS = 256;
+    private static final float NO_CONE = -2;
+    
+    // unit direction through the centre of every shadow bin
+    private static final float[] BIN_X = new float[SHADOW_BINS];
+    private static final float[] BIN_Y = new float[SHADOW_BINS];
+    
+    static {
+        for (int i = 0; i < SHADOW_BINS; i++) {
+            float p = (i + .5f) * 4 / SHADOW_BINS;
+            float t = p % 1;
+            float x, y;
+            if (p < 1)      { x = 1 - t; y = t;     }
+            else if (p < 2) { x = -t;    y = 1 - t; }
+            else if (p < 3) { x = t - 1; y = -t;    }
+            else            { x = t;     y = t - 1; }
+            float length = (float)Math.sqrt(x * x + y * y);
+            BIN_X[i] = x / length;
+            BIN_Y[i] = y / length;
+        }
+    }
+    
+    private final PixelGameEngine pge;
+    private final int divisor;
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    private final int tileCount;
+    private final int layer;
+    private final Sprite sprite;
+    private final int[] pixels;
+    private final float[] red;
+    private final float[] green;
+    private final float[] blue;
+    private float ambientR, ambientG, ambientB;
+    
+    private int lightCount;
+    private float[] lightX = new float[64];
+    private float[] lightY = new float[64];
+    private float[] lightRadius = new float[64];
+    private float[] lightR = new float[64];
+    private float[] lightG = new float[64];
+    private float[] lightB = new float[64];
+    private float[] lightDirX = new float[64];
+    private float[] lightDirY = new float[64];
+    private float[] lightCos = new float[64];
+    // squared distance to the nearest occluder in every bin of every light
+    private float[] shadowDepth = new float[64 * SHADOW_BINS];
+    
+    private boolean[] solid;
+    private int tileColumns, tileRows;
+    private float tileSize, tileOriginX, tileOriginY;
+    private int segmentCount;
+    private float[] segments = new float[64];
+    
+    private final IntConsumer castShadows = this::CastShadows;
+    private final IntConsumer accumulateTile = this::AccumulateTile;
+    
+    public LightMap(PixelGameEngine pge, int divisor) { this(pge, divisor, Integer.MAX_VALUE); }
+    /**
+     * Creates the light map and its layer with the given composite order, usually above
+     * every layer it lights. The map has one cell per {@code divisor} screen pixels.
+     */
+    public LightMap(PixelGameEngine pge, int divisor, int order) {
+        if (divisor < 1)
+            throw new IllegalArgumentException("LightMap: divisor must be at least 1!");
+        this.pge = pge;
+        this.divisor = divisor;
+        width = (pge.ScreenWidth() + divisor - 1) / divisor;
+        height = (pge.ScreenHeight() + divisor - 1) / divisor;
+        tilesX = (width + TILE - 1) / TILE;
+        tileCount = tilesX * ((height + TILE - 1) / TILE);
+        pixels = new int[width * height];
+        red = new float[width * height];
+        green = new float[width * height];
+        blue = new float[width * height];
+        sprite = new Sprite(width, height);
+        
+        int previous = pge.GetLayer();
+        layer = pge.CreateLayer(order, divisor);
+        pge.SetLayer(previous);
+        pge.SetLayerBlend(layer, Pixel.Mode.MULTIPLY);
+    }
+    
+    public int getWidth()      { return width;      }
+    public int getHeight()     { return height;     }
+    public int getDivisor()    { return divisor;    }
+    public int getLayer()      { return layer;      }
+    public int getLightCount() { return lightCount; }
+    
+    // the light every cell gets without any light reaching it, black by default
+    public void SetAmbient(Pixel colour) {
+        ambientR = (colour.r & 0xff) / 255.f;
+        ambientG = (colour.g & 0xff) / 255.f;
+        ambientB = (colour.b & 0xff) / 255.f;
+    }
+    
+    public void AddPointLight(float x, float y, float radius, Pixel colour) {
+        AddLight(x, y, radius, colour, 1, 0, NO_CONE);
+    }
+    
+    /**
+     * Adds a light shining in the direction {@code angle}, in radians, spread over a cone
+     * {@code width} radians wide. A cone of a full circle or wider is a point light.
+     */
+    public void AddConeLight(float x, float y, float radius, Pixel colour, float angle, float width) {
+        // as a cone a full circle would still fade out towards its back
+        if (width >= Math.PI * 2)
+            AddPointLight(x, y, radius, colour);
+        else
+            AddLight(x, y, radius, colour, (float)Math.cos(angle), (float)Math.sin(angle), (float)Math.cos(width / 2));
+    }
+    
+    private void AddLight(float x, float y, float radius, Pixel colour, float dirX, float dirY, float cos) {
+        if (radius <= 0)
+            return;
+        if (lightCount == lightX.length) {
+            int capacity = lightCount * 2;
+            lightX = Arrays.copyOf(lightX, capacity);
+            lightY = Arrays.copyOf(lightY, capacity);
+            lightRadius = Arrays.copyOf(lightRadius, capacity);
+            lightR = Arrays.copyOf(lightR, capacity);
+            lightG = Arrays.copyOf(lightG, capacity);
+            lightB = Arrays.copyOf(lightB, capacity);
+            lightDirX = Arrays.copyOf(lightDirX, capacity);
+            lightDirY = Arrays.copyOf(lightDirY, capacity);
+            lightCos = Arrays.copyOf(lightCos, capacity);
+            shadowDepth = new float[capacity * SHADOW_BINS];
+        }
+        int i = lightCount++;
+        lightX[i] = x;
+        lightY[i] = y;
+        lightRadius[i] = radius;
+        lightR[i] = (colour.r & 0xff) / 255.f;
+        lightG[i] = (colour.g & 0xff) / 255.f;
+        lightB[i] = (colour.b & 0xff) / 255.f;
+        lightDirX[i] = dirX;
+        lightDirY[i] = dirY;
+        lightCos[i] = cos;
+    }
+    
+    public void SetOccluderTiles(boolean[] solid, int columns, int rows, float tileSize) { SetOccluderTiles(solid, columns, rows, tileSize, 0, 0); }
+    /**
+     * Blocks light with a grid of tiles, {@code solid[row * columns + column]} being true
+     * for the tiles that cast shadows. The array is read every frame, so tiles can be
+     * changed in place. A light inside a solid tile still shines out of it.
+     */
+    public void SetOccluderTiles(boolean[] solid, int columns, int rows, float tileSize, float originX, float originY) {
+        if (solid != null && solid.length < columns * rows)
+            throw new IllegalArgumentException("LightMap: expected " + columns * rows + " tiles but got " + solid.length + "!");
+        if (tileSize <= 0)
+            throw new IllegalArgumentException("LightMap: tile size must be positive!");
+        this.solid = solid;
+        this.tileColumns = columns;
+        this.tileRows = rows;
+        this.tileSize = tileSize;
+        this.tileOriginX = originX;
+        this.tileOriginY = originY;
+    }
+    
+    public void AddOccluder(float x1, float y1, float x2, float y2) {
+        if (segmentCount * 4 == segments.length)
+            segments = Arrays.copyOf(segments, segments.length * 2);
+        int s = segmentCount++ * 4;
+        segments[s] = x1;
+        segments[s + 1] = y1;
+        segments[s + 2] = x2;
+        segments[s + 3] = y2;
+    }
+    
+    public void ClearOccluders() {
+        segmentCount = 0;
+        solid = null;
+    }
+    
+    /**
+     * Accumulates this frame's lights into the map, draws it into the light layer and
+     * starts the next frame without lights. Call it from the render thread once the
+     * lights have been added.
+     */
+    public void Render() {
+        if (lightCount > 0 && (solid != null || segmentCount > 0))
+            pge.ParallelFor(0, lightCount, castShadows);
+        pge.ParallelFor(0, tileCount, accumulateTile);
+        lightCount = 0;
+        sprite.SetPixels(pixels);
+        
+        int previous = pge.GetLayer();
+        Pixel.Mode mode = pge.GetPixelMode();
+        // the map is opaque, so only the blending modes would change it
+        boolean blending = mode == Pixel.Mode.ADDITIVE || mode == Pixel.Mode.MULTIPLY || mode == Pixel.Mode.CUSTOM;
+        pge.SetLayer(layer);
+        if (blending)
+            pge.SetPixelMode(Pixel.Mode.NORMAL);
+        pge.DrawSprite(0, 0, sprite, divisor);
+        if (blending)
+            pge.SetPixelMode(mode);
+        pge.SetLayer(previous);
+    }
+    
+    public void Delete() {
+        sprite.Delete();
+        pge.DeleteLayer(layer);
+    }
+    
+    private static float PseudoAngle(float dx, float dy) {
+        if (dy >= 0)
+            return dx >= 0 ? dy / (dx + dy) : 1 - dx / (-dx + dy);
+        return dx < 0 ? 2 - dy / (-dx - dy) : 3 + dx / (dx - dy);
+    }
+    
+    private static int Bin(float dx, float dy) {
+        if (dx == 0 && dy == 0)
+            return 0;
+        return (int)(PseudoAngle(dx, dy) * (SHADOW_BINS / 4)) & (SHADOW_BINS - 1);
+    }
+    
+    private void CastShadows(int light) {
+        int base = light * SHADOW_BINS;
+        float x = lightX[light];
+        float y = lightY[light];
+        float radius = lightRadius[light];
+        Arrays.fill(shadowDepth, base, base + SHADOW_BINS, Float.MAX_VALUE);
+        if (solid != null)
+            MarchTiles(base, x, y, radius);
+        for (int s = 0; s < segmentCount * 4; s += 4)
+            CastSegment(base, x, y, radius, s);
+        // pushed back by a cell so the faces of occluders are lit themselves
+        for (int i = base; i < base + SHADOW_BINS; i++) {
+            if (shadowDepth[i] != Float.MAX_VALUE) {
+                float depth = shadowDepth[i] + divisor;
+                shadowDepth[i] = depth * depth;
+            }
+        }
+    }
+    
+    private void MarchTiles(int base, float x, float y, float radius) {
+        float gx = (x - tileOriginX) / tileSize;
+        float gy = (y - tileOriginY) / tileSize;
+        float reach = radius / tileSize;
+        int startX = (int)Math.floor(gx);
+        int startY = (int)Math.floor(gy);
+        for (int bin = 0; bin < SHADOW_BINS; bin++) {
+            float dx = BIN_X[bin];
+            float dy = BIN_Y[bin];
+            int stepX = dx > 0 ? 1 : -1;
+            int stepY = dy > 0 ? 1 : -1;
+            float deltaX = Math.abs(1 / dx);
+            float deltaY = Math.abs(1 / dy);
+            float nextX = (dx > 0 ? startX + 1 - gx : gx - startX) * deltaX;
+            float nextY = (dy > 0 ? startY + 1 - gy : gy - startY) * deltaY;
+            int cx = startX;
+            int cy = startY;
+            while (true) {
+                float t;
+                if (nextX < nextY) {
+                    t = nextX;
+                    nextX += deltaX;
+                    cx += stepX;
+                } else {
+                    t = nextY;
+                    nextY += deltaY;
+                    cy += stepY;
+                }
+                if (t >= reach)
+                    break;
+                if (cx >= 0 && cy >= 0 && cx < tileColumns && cy < tileRows && solid[cy * tileColumns + cx]) {
+                    shadowDepth[base + bin] = t * tileSize;
+                    break;
+                }
+            }
+        }
+    }
+    
+    private void CastSegment(int base, float x, float y, float radius, int s) {
+        float ax = segments[s] - x;
+        float ay = segments[s + 1] - y;
+        float ex = segments[s + 2] - x - ax;
+        float ey = segments[s + 3] - y - ay;
+        float lengthSq = ex * ex + ey * ey;
+        float closest = lengthSq > 0 ? Math.max(0, Math.min(1, -(ax * ex + ay * ey) / lengthSq)) : 0;
+        float cx = ax + ex * closest;
+        float cy = ay + ey * closest;
+        if (cx * cx + cy * cy >= radius * radius)
+            return;
+        
+        int first = Bin(ax, ay);
+        int last = Bin(ax + ex, ay + ey);
+        // a segment covers less than half the circle unless the light sits on it
+        if (((last - first) & (SHADOW_BINS - 1)) > SHADOW_BINS / 2) {
+            int swap = first;
+            first = last;
+            last = swap;
+        }
+        for (int bin = first; ; bin = (bin + 1) & (SHADOW_BINS - 1)) {
+            float dx = BIN_X[bin];
+            float dy = BIN_Y[bin];
+            float cross = dx * ey - dy * ex;
+            if (cross != 0) {
+                // where the ray through the bin meets the segment, clamped to its ends
+                float u = Math.max(0, Math.min(1, (ax * dy - ay * dx) / cross));
+                float px = ax + ex * u;
+                float py = ay + ey * u;
+                float depth = (float)Math.sqrt(px * px + py * py);
+                if (depth < shadowDepth[base + bin])
+                    shadowDepth[base + bin] = depth;
+            }
+            if (bin == last)
+                break;
+        }
+    }
+    
+    private void AccumulateTile(int tile) {
+        int x0 = tile % tilesX * TILE;
+        int y0 = tile / tilesX * TILE;
+        int x1 = Math.min(width, x0 + TILE);
+        int y1 = Math.min(height, y0 + TILE);
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            Arrays.fill(red, row + x0, row + x1, ambientR);
+            Arrays.fill(green, row + x0, row + x1, ambientG);
+            Arrays.fill(blue, row + x0, row + x1, ambientB);
+        }
+        
+        boolean shadows = solid != null || segmentCount > 0;
+        float cellArea = divisor * divisor;
+        for (int light = 0; light < lightCount; light++) {
+            // in cells, relative to cell centres
+            float lx = lightX[light] / divisor - .5f;
+            float ly = lightY[light] / divisor - .5f;
+            float radius = lightRadius[light] / divisor;
+            int minX = Math.max(x0, (int)Math.ceil(lx - radius));
+            int maxX = Math.min(x1 - 1, (int)Math.floor(lx + radius));
+            int minY = Math.max(y0, (int)Math.ceil(ly - radius));
+            int maxY = Math.min(y1 - 1, (int)Math.floor(ly + radius));
+            if (minX > maxX || minY > maxY)
+                continue;
+            
+            float radiusSq = radius * radius;
+            float invRadiusSq = 1 / radiusSq;
+            float r = lightR[light];
+            float g = lightG[light];
+            float b = lightB[light];
+            float dirX = lightDirX[light];
+            float dirY = lightDirY[light];
+            float cos = lightCos[light];
+            boolean cone = cos != NO_CONE;
+            float edge = cone && cos < 1 ? 4 / (1 - cos) : 0;
+            int base = light * SHADOW_BINS;
+            for (int y = minY; y <= maxY; y++) {
+                float dy = y - ly;
+                float dySq = dy * dy;
+                for (int x = minX, i = y * width + minX; x <= maxX; x++, i++) {
+                    float dx = x - lx;
+                    float distanceSq = dx * dx + dySq;
+                    if (distanceSq >= radiusSq)
+                        continue;
+                    if (shadows && distanceSq * cellArea > shadowDepth[base + Bin(dx, dy)])
+                        continue;
+                    float falloff = 1 - distanceSq * invRadiusSq;
+                    falloff *= falloff;
+                    if (cone && distanceSq > 0) {
+                        float along = (dx * dirX + dy * dirY) / (float)Math.sqrt(distanceSq);
+                        if (along <= cos)
+                            continue;
+                        falloff *= Math.min(1, (along - cos) * edge);
+                    }
+                    red[i] += r * falloff;
+                    green[i] += g * falloff;
+                    blue[i] += b * falloff;
+                }
+            }
+        }
+        
+        for (int y = y0; y < y1; y++) {
+            for (int i = y * width + x0, end = y * width + x1; i < end; i++) {
+                int r = (int)(Math.min(1, red[i]) * 255);
+                int g = (int)(Math.min(1, green[i]) * 255);
+                int b = (int)(Math.min(1, blue[i]) * 255);
+                pixels[i] = r << 24 | g << 16 | b << 8 | 0xff;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package net.meloniumcraft.pge.core.metrics;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder events. Everything touching {@code jdk.jfr} lives here and is only
+ * called when {@link #AVAILABLE}, so the engine still runs on JVMs without JFR. An event
+ * that isn't enabled in the running recording costs a single check. Building this class
+ * needs a JDK with {@code jdk.jfr} (11+, or 8u262+); {@code --release 8} leaves it out.
+ */
+final class FrameEvents {
+    static final boolean AVAILABLE = Available();
+    
+    private FrameEvents() {}
+    
+    private static boolean Available() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+    
+    @Name("net.meloniumcraft.pge.Frame")
+    @Label("Frame")
+    @Category("Pixel Game Engine")
+    @Description("One engine frame, from input polling to buffer swap")
+    static final class Frame extends Event {
+        @Label("Update") @Timespan long update;
+        @Label("Composite") @Timespan long composite;
+        @Label("Swap") @Timespan long swap;
+        @Label("Draw Calls") int drawCalls;
+        @Label("Texture Binds") int textureBinds;
+        @Label("Decals") int decals;
+        @Label("Texture Uploads") @DataAmount long uploadBytes;
+    }
+    
+    @Name("net.meloniumcraft.pge.AssetLoad")
+    @Label("Asset Load")
+    @Category("Pixel Game Engine")
+    static final class AssetLoad extends Event {
+        @Label("Path") String path;
+        @Label("Load Time") @Timespan long loadTime;
+        @Label("Size") @DataAmount long bytes;
+    }
+    
+    // resolved on first use, so a JVM without JFR never loads them
+    private static final class Types {
+        static final EventType FRAME = EventType.getEventType(Frame.class);
+        static final EventType ASSET_LOAD = EventType.getEventType(AssetLoad.class);
+    }
+    
+    // null when no recording wants frame events, so an idle recorder allocates nothing
+    static Object BeginFrame() {
+        if (!Types.FRAME.isEnabled())
+            return null;
+        Frame event = new Frame();
+        event.begin();
+        return event;
+    }
+    
+    static void EndFrame(Object frame, long update, RenderStats stats) {
+        Frame event = (Frame)frame;
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.update = update;
+        event.composite = stats.compositeNanos;
+        event.swap = stats.swapNanos;
+        event.drawCalls = stats.drawCalls;
+        event.textureBinds = stats.textureBinds;
+        event.decals = stats.getDecals();
+        event.uploadBytes = stats.uploadBytes;
+        event.commit();
+    }
+    
+    static void AssetLoad(String path, long nanos, long bytes) {
+        if (!Types.ASSET_LOAD.isEnabled())
+            return;
+        AssetLoad event = new AssetLoad();
+        if (!event.shouldCommit())
+            return;
+        event.path = path;
+        event.loadTime = nanos;
+        event.bytes = bytes;
+        event.commit();
+    }
+}
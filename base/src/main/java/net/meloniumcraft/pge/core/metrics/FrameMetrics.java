@@ -0,0 +1,129 @@
+package net.meloniumcraft.pge.core.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Collects the timings and backend counters of every frame into a ring of the last
+ * {@link #WINDOW} frames. The engine calls the frame hooks from the render thread; the
+ * getters may be called from any thread, JMX included.
+ */
+public final class FrameMetrics implements FrameMetricsMBean {
+    public static final int WINDOW = 120;
+    
+    private final RenderStats stats;
+    
+    private final long[] frameNanos = new long[WINDOW];
+    private final long[] updateNanos = new long[WINDOW];
+    private final long[] compositeNanos = new long[WINDOW];
+    private final long[] swapNanos = new long[WINDOW];
+    private final int[] drawCalls = new int[WINDOW];
+    private final int[] textureBinds = new int[WINDOW];
+    private long frames;
+    private long uploadBytes;
+    private int[] layerDecals = new int[8];
+    private int layerCount;
+    
+    private long frameStart;
+    private long updateStart;
+    private long update;
+    private Object frameEvent;
+    
+    public FrameMetrics(RenderStats stats) {
+        this.stats = stats;
+        stats.setEnabled(true);
+    }
+    
+    public void Close() {
+        stats.setEnabled(false);
+    }
+    
+    public void BeginFrame() {
+        stats.Reset();
+        frameStart = System.nanoTime();
+        if (FrameEvents.AVAILABLE)
+            frameEvent = FrameEvents.BeginFrame();
+    }
+    
+    public void BeginUpdate() {
+        updateStart = System.nanoTime();
+    }
+    
+    public void EndUpdate() {
+        update = System.nanoTime() - updateStart;
+    }
+    
+    public void EndFrame() {
+        long frame = System.nanoTime() - frameStart;
+        if (frameEvent != null) {
+            FrameEvents.EndFrame(frameEvent, update, stats);
+            frameEvent = null;
+        }
+        synchronized (this) {
+            int i = (int)(frames++ % WINDOW);
+            frameNanos[i] = frame;
+            updateNanos[i] = update;
+            compositeNanos[i] = stats.compositeNanos;
+            swapNanos[i] = stats.swapNanos;
+            drawCalls[i] = stats.drawCalls;
+            textureBinds[i] = stats.textureBinds;
+            uploadBytes += stats.uploadBytes;
+            // reused across frames, so this only allocates when the layer count grows
+            int layers = stats.getLayerCount();
+            if (layers > layerDecals.length)
+                layerDecals = new int[Math.max(layers, layerDecals.length * 2)];
+            for (int layer = 0; layer < layers; layer++)
+                layerDecals[layer] = stats.getLayerDecals(layer);
+            layerCount = layers;
+        }
+    }
+    
+    private int Filled() {
+        return (int)Math.min(frames, WINDOW);
+    }
+    
+    private double AverageMillis(long[] nanos) {
+        int n = Filled();
+        if (n == 0)
+            return 0;
+        long sum = 0;
+        for (int i = 0; i < n; i++)
+            sum += nanos[i];
+        return sum / 1e6 / n;
+    }
+    
+    private double Average(int[] counts) {
+        int n = Filled();
+        if (n == 0)
+            return 0;
+        long sum = 0;
+        for (int i = 0; i < n; i++)
+            sum += counts[i];
+        return (double)sum / n;
+    }
+    
+    @Override public synchronized long getFrameCount()               { return frames;                                 }
+    @Override public synchronized double getAverageFrameMillis()     { return AverageMillis(frameNanos);              }
+    @Override public synchronized double getAverageUpdateMillis()    { return AverageMillis(updateNanos);             }
+    @Override public synchronized double getAverageCompositeMillis() { return AverageMillis(compositeNanos);          }
+    @Override public synchronized double getAverageSwapMillis()      { return AverageMillis(swapNanos);               }
+    @Override public synchronized double getAverageDrawCalls()       { return Average(drawCalls);                     }
+    @Override public synchronized double getAverageTextureBinds()    { return Average(textureBinds);                  }
+    @Override public synchronized int[] getLayerDecalCounts()        { return Arrays.copyOf(layerDecals, layerCount); }
+    @Override public synchronized long getTextureUploadBytes()       { return uploadBytes;                            }
+    @Override public long getAssetLoads()                            { return stats.getAssetLoads();                  }
+    @Override public double getAssetLoadMillis()                     { return stats.getAssetLoadNanos() / 1e6;        }
+    
+    @Override
+    public synchronized double getFramesPerSecond() {
+        double average = getAverageFrameMillis();
+        return average > 0 ? 1000 / average : 0;
+    }
+    
+    @Override
+    public synchronized double getMaxFrameMillis() {
+        long max = 0;
+        for (int i = 0, n = Filled(); i < n; i++)
+            max = Math.max(max, frameNanos[i]);
+        return max / 1e6;
+    }
+}
@@ -0,0 +1,21 @@
+package net.meloniumcraft.pge.core.metrics;
+
+/**
+ * Rolling frame statistics exported over JMX. Averages and maxima cover the last
+ * {@link FrameMetrics#WINDOW} frames; counts of uploads and asset loads are totals.
+ */
+public interface FrameMetricsMBean {
+    long getFrameCount();
+    double getFramesPerSecond();
+    double getAverageFrameMillis();
+    double getMaxFrameMillis();
+    double getAverageUpdateMillis();
+    double getAverageCompositeMillis();
+    double getAverageSwapMillis();
+    double getAverageDrawCalls();
+    double getAverageTextureBinds();
+    int[] getLayerDecalCounts();
+    long getTextureUploadBytes();
+    long getAssetLoads();
+    double getAssetLoadMillis();
+}
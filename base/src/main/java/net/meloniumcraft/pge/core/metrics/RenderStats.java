@@ -0,0 +1,81 @@
+package net.meloniumcraft.pge.core.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Counters a backend fills in while it renders a frame. Counting is a plain field
+ * increment; the composite and swap timings are only taken while the engine's metrics
+ * are enabled. Asset loads are always counted, since they mostly happen before anyone
+ * turns metrics on.
+ */
+public final class RenderStats {
+    private boolean enabled;
+    
+    public int drawCalls;
+    public int textureBinds;
+    public long uploadBytes;
+    public long compositeNanos;
+    public long swapNanos;
+    
+    private int[] layerDecals = new int[8];
+    private int layerCount;
+    
+    private long assetLoads;
+    private long assetLoadNanos;
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    void Reset() {
+        drawCalls = 0;
+        textureBinds = 0;
+        uploadBytes = 0;
+        compositeNanos = 0;
+        swapNanos = 0;
+        layerCount = 0;
+    }
+    
+    public void SetLayerDecals(int layer, int count) {
+        if (layer >= layerDecals.length)
+            layerDecals = Arrays.copyOf(layerDecals, Math.max(layer + 1, layerDecals.length * 2));
+        for (int i = layerCount; i < layer; i++)
+            layerDecals[i] = 0;
+        layerDecals[layer] = count;
+        layerCount = Math.max(layerCount, layer + 1);
+    }
+    
+    public void AssetLoaded(String path, long nanos, long bytes) {
+        assetLoads++;
+        assetLoadNanos += nanos;
+        if (FrameEvents.AVAILABLE)
+            FrameEvents.AssetLoad(path, nanos, bytes);
+    }
+    
+    int getLayerCount() {
+        return layerCount;
+    }
+    
+    int getLayerDecals(int layer) {
+        return layerDecals[layer];
+    }
+    
+    int getDecals() {
+        int decals = 0;
+        for (int i = 0; i < layerCount; i++)
+            decals += layerDecals[i];
+        return decals;
+    }
+    
+    long getAssetLoads() {
+        return assetLoads;
+    }
+    
+    long getAssetLoadNanos() {
+        return assetLoadNanos;
+    }
+}
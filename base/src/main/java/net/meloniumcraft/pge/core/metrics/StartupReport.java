@@ -0,0 +1,65 @@
+package net.meloniumcraft.pge.core.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wall clock time of each startup phase, from the engine's construction until its first
+ * frame has been swapped to the screen. Every phase lasts from the previous mark to its
+ * own, so the phases add up to the total.
+ */
+public final class StartupReport {
+    private long start = System.nanoTime();
+    private long last = start;
+    private final List<String> phases = new ArrayList<>();
+    private final List<Long> phaseNanos = new ArrayList<>();
+    private boolean finished;
+    
+    // moves the start back to work done before the report existed, like finding the backend
+    public void Begin(long start) {
+        this.start = start;
+        this.last = start;
+    }
+    
+    public void Mark(String phase) {
+        if (finished)
+            return;
+        long now = System.nanoTime();
+        phases.add(phase);
+        phaseNanos.add(now - last);
+        last = now;
+    }
+    
+    public void Finish(String phase) {
+        Mark(phase);
+        finished = true;
+    }
+    
+    public boolean isFinished() {
+        return finished;
+    }
+    
+    public int getPhaseCount() {
+        return phases.size();
+    }
+    
+    public String getPhase(int i) {
+        return phases.get(i);
+    }
+    
+    public long getPhaseNanos(int i) {
+        return phaseNanos.get(i);
+    }
+    
+    public long getTotalNanos() {
+        return last - start;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder(String.format("Startup took %.1f ms", getTotalNanos() / 1e6));
+        for (int i = 0; i < phases.size(); i++)
+            report.append(String.format("%n  %-16s %8.1f ms", phases.get(i), phaseNanos.get(i) / 1e6));
+        return report.toString();
+    }
+}
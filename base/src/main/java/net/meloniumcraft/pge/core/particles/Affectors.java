@@ -0,0 +1,61 @@
+package net.meloniumcraft.pge.core.particles;
+
+public final class Affectors {
+    private Affectors() {}
+    
+    public static ParticleAffector Force(float ax, float ay) {
+        return (e, from, to, dt) -> {
+            float dvx = ax * dt;
+            float dvy = ay * dt;
+            float[] vx = e.vx;
+            float[] vy = e.vy;
+            for (int i = from; i < to; i++) {
+                vx[i] += dvx;
+                vy[i] += dvy;
+            }
+        };
+    }
+    
+    public static ParticleAffector Drag(float drag) {
+        return (e, from, to, dt) -> {
+            float k = Math.max(0, 1 - drag * dt);
+            float[] vx = e.vx;
+            float[] vy = e.vy;
+            for (int i = from; i < to; i++) {
+                vx[i] *= k;
+                vy[i] *= k;
+            }
+        };
+    }
+    
+    public static ParticleAffector Fade() {
+        return (e, from, to, dt) -> {
+            float[] life = e.life;
+            float[] invLifetime = e.invLifetime;
+            int[] rgba = e.rgba;
+            for (int i = from; i < to; i++) {
+                int alpha = (int)(Math.max(0, Math.min(1, life[i] * invLifetime[i])) * 255);
+                rgba[i] = rgba[i] & 0xffffff00 | alpha;
+            }
+        };
+    }
+    
+    public static ParticleAffector ColourRamp(int fromRGBA, int toRGBA) {
+        return (e, from, to, dt) -> {
+            float[] life = e.life;
+            float[] invLifetime = e.invLifetime;
+            int[] rgba = e.rgba;
+            for (int i = from; i < to; i++) {
+                int t = (int)((1 - Math.max(0, Math.min(1, life[i] * invLifetime[i]))) * 256);
+                rgba[i] = lerp(fromRGBA, toRGBA, t);
+            }
+        };
+    }
+    
+    private static int lerp(int a, int b, int t) {
+        int s = 256 - t;
+        int rb = ((a >>> 8 & 0x00ff00ff) * s + (b >>> 8 & 0x00ff00ff) * t) & 0xff00ff00;
+        int ga = ((a & 0x00ff00ff) * s + (b & 0x00ff00ff) * t) >>> 8 & 0x00ff00ff;
+        return rb | ga;
+    }
+}
@@ -0,0 +1,9 @@
+package net.meloniumcraft.pge.core.particles;
+
+/**
+ * Modifies the particles {@code [from, to)} of an emitter. Called concurrently for
+ * disjoint ranges, so implementations must only touch the given range.
+ */
+public interface ParticleAffector {
+    void Apply(ParticleEmitter emitter, int from, int to, float fElapsedTime);
+}
@@ -0,0 +1,126 @@
+package net.meloniumcraft.pge.core.particles;
+
+import net.meloniumcraft.pge.core.types.Decal;
+import net.meloniumcraft.pge.core.types.Pixel;
+
+import java.util.SplittableRandom;
+
+/**
+ * A pool of particles stored as parallel primitive arrays. Index {@code i} in every
+ * array describes the same particle; only the first {@link #getCount()} entries are live.
+ */
+public final class ParticleEmitter {
+    public final float[] x;
+    public final float[] y;
+    public final float[] vx;
+    public final float[] vy;
+    public final float[] life;
+    public final float[] invLifetime;
+    public final int[] rgba;
+    
+    private final int capacity;
+    private int count;
+    
+    private Decal decal;
+    private float size = 1;
+    private ParticleAffector[] affectors = new ParticleAffector[0];
+    
+    private float originX;
+    private float originY;
+    private float angle;
+    private float spread = (float)(Math.PI * 2);
+    private float minSpeed;
+    private float maxSpeed;
+    private float minLife = 1;
+    private float maxLife = 1;
+    private int colour = Pixel.WHITE.toRGBA();
+    private float rate;
+    private float rateAccumulator;
+    
+    private final SplittableRandom random = new SplittableRandom();
+    
+    public ParticleEmitter(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("ParticleEmitter: capacity must be positive!");
+        this.capacity = capacity;
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        life = new float[capacity];
+        invLifetime = new float[capacity];
+        rgba = new int[capacity];
+    }
+    
+    public int getCapacity() { return capacity; }
+    public int getCount()    { return count;    }
+    public Decal getDecal()  { return decal;    }
+    public float getSize()   { return size;     }
+    
+    public void setDecal(Decal decal)                                    { this.decal = decal;                                      }
+    public void setSize(float size)                                      { this.size = size;                                        }
+    public void setOrigin(float x, float y)                              { this.originX = x; this.originY = y;                      }
+    public void setDirection(float angle, float spread)                  { this.angle = angle; this.spread = spread;                }
+    public void setSpeed(float min, float max)                           { this.minSpeed = min; this.maxSpeed = max;                }
+    public void setLifetime(float min, float max)                        { this.minLife = min; this.maxLife = max;                  }
+    public void setColour(Pixel colour)                                  { this.colour = colour.toRGBA();                           }
+    public void setRate(float particlesPerSecond)                        { this.rate = particlesPerSecond;                          }
+    public void setAffectors(ParticleAffector... affectors)              { this.affectors = affectors.clone();                      }
+    
+    public void Emit(int n) {
+        n = Math.min(n, capacity - count);
+        for (int i = count, end = count + n; i < end; i++) {
+            float a = angle + ((float)random.nextDouble() - .5f) * spread;
+            float speed = minSpeed + (float)random.nextDouble() * (maxSpeed - minSpeed);
+            float lifetime = minLife + (float)random.nextDouble() * (maxLife - minLife);
+            x[i] = originX;
+            y[i] = originY;
+            vx[i] = (float)Math.cos(a) * speed;
+            vy[i] = (float)Math.sin(a) * speed;
+            life[i] = lifetime;
+            invLifetime[i] = lifetime > 0 ? 1.f / lifetime : 0;
+            rgba[i] = colour;
+        }
+        count += n;
+    }
+    
+    void Spawn(float fElapsedTime) {
+        rateAccumulator += rate * fElapsedTime;
+        int n = (int)rateAccumulator;
+        rateAccumulator -= n;
+        Emit(n);
+    }
+    
+    void UpdateRange(int from, int to, float fElapsedTime) {
+        for (ParticleAffector affector : affectors)
+            affector.Apply(this, from, to, fElapsedTime);
+        for (int i = from; i < to; i++) {
+            x[i] += vx[i] * fElapsedTime;
+            y[i] += vy[i] * fElapsedTime;
+            life[i] -= fElapsedTime;
+        }
+    }
+    
+    void Compact() {
+        int i = 0;
+        while (i < count) {
+            if (life[i] > 0) {
+                i++;
+                continue;
+            }
+            int last = --count;
+            x[i] = x[last];
+            y[i] = y[last];
+            vx[i] = vx[last];
+            vy[i] = vy[last];
+            life[i] = life[last];
+            invLifetime[i] = invLifetime[last];
+            rgba[i] = rgba[last];
+        }
+    }
+    
+    public void Clear() {
+        count = 0;
+        rateAccumulator = 0;
+    }
+}
@@ -0,0 +1,55 @@
+package net.meloniumcraft.pge.core.particles;
+
+import net.meloniumcraft.pge.core.PixelGameEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class ParticleSystem {
+    private static final int CHUNK_SIZE = 16384;
+    
+    private final PixelGameEngine pge;
+    private final List<ParticleEmitter> emitters = new ArrayList<>();
+    
+    public ParticleSystem(PixelGameEngine pge) {
+        this.pge = pge;
+    }
+    
+    public ParticleEmitter CreateEmitter(int capacity) {
+        ParticleEmitter emitter = new ParticleEmitter(capacity);
+        emitters.add(emitter);
+        return emitter;
+    }
+    
+    public void RemoveEmitter(ParticleEmitter emitter) {
+        emitters.remove(emitter);
+    }
+    
+    public int GetLiveCount() {
+        int n = 0;
+        for (ParticleEmitter emitter : emitters)
+            n += emitter.getCount();
+        return n;
+    }
+    
+    public void Update(float fElapsedTime) {
+        for (ParticleEmitter emitter : emitters) {
+            int count = emitter.getCount();
+            if (count > CHUNK_SIZE) {
+                int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+                pge.ParallelFor(0, chunks, c -> emitter.UpdateRange(c * CHUNK_SIZE, Math.min(count, (c + 1) * CHUNK_SIZE), fElapsedTime));
+            } else {
+                emitter.UpdateRange(0, count, fElapsedTime);
+            }
+            emitter.Compact();
+            emitter.Spawn(fElapsedTime);
+        }
+    }
+    
+    public void Draw() {
+        for (ParticleEmitter emitter : emitters) {
+            if (emitter.getCount() > 0)
+                pge.DrawParticles(emitter.getDecal(), emitter.x, emitter.y, emitter.rgba, emitter.getCount(), emitter.getSize());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package net.meloniumcraft.pge.core.spatial;
+
+import java.util.Arrays;
+
+/**
+ * Loose quadtree with implicit, fully allocated levels. Every box is stored in exactly
+ * one node: the deepest level whose cells are at least as large as the box, in the cell
+ * containing the box centre. Nodes overlap their neighbours by half a cell on each side,
+ * so moving a box only touches its node when the centre crosses a cell boundary.
+ * Handles boxes of mixed sizes better than {@link UniformGrid}.
+ */
+public final class LooseQuadtree extends SpatialIndex {
+    private final float originX;
+    private final float originY;
+    private final float worldSize;
+    private final int depth;
+    private final int[] levelOffset;
+    private final float[] levelCellSize;
+    private final int[] heads;
+    
+    // per id: the node it is stored in and its neighbours in that node's list
+    private int[] node = new int[0];
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+    
+    public LooseQuadtree(float x, float y, float width, float height, int depth) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("LooseQuadtree: world size must be positive!");
+        if (depth < 0 || depth > 12)
+            throw new IllegalArgumentException("LooseQuadtree: depth must be within [0, 12]!");
+        this.originX = x;
+        this.originY = y;
+        this.worldSize = Math.max(width, height);
+        this.depth = depth;
+        this.levelOffset = new int[depth + 1];
+        this.levelCellSize = new float[depth + 1];
+        int nodes = 0;
+        for (int l = 0; l <= depth; l++) {
+            levelOffset[l] = nodes;
+            levelCellSize[l] = worldSize / (1 << l);
+            nodes += 1 << 2 * l;
+        }
+        this.heads = new int[nodes];
+        Arrays.fill(heads, -1);
+    }
+    
+    private int Level(float w, float h) {
+        float extent = Math.max(w, h);
+        int l = 0;
+        while (l < depth && levelCellSize[l + 1] >= extent)
+            l++;
+        return l;
+    }
+    
+    private int CellIndex(float v, int l) {
+        int c = (int)Math.floor(v / levelCellSize[l]);
+        return Math.max(0, Math.min((1 << l) - 1, c));
+    }
+    
+    private int NodeOf(float x1, float y1, float x2, float y2) {
+        int l = Level(x2 - x1, y2 - y1);
+        int cx = CellIndex((x1 + x2) * .5f - originX, l);
+        int cy = CellIndex((y1 + y2) * .5f - originY, l);
+        return levelOffset[l] + (cy << l) + cx;
+    }
+    
+    @Override
+    void Link(int id) {
+        int n = NodeOf(minX[id], minY[id], maxX[id], maxY[id]);
+        int head = heads[n];
+        node[id] = n;
+        prev[id] = -1;
+        next[id] = head;
+        if (head != -1)
+            prev[head] = id;
+        heads[n] = id;
+    }
+    
+    @Override
+    void Unlink(int id) {
+        int p = prev[id];
+        int nx = next[id];
+        if (p == -1)
+            heads[node[id]] = nx;
+        else
+            next[p] = nx;
+        if (nx != -1)
+            prev[nx] = p;
+    }
+    
+    @Override
+    boolean Relocates(int id, float x1, float y1, float x2, float y2) {
+        return NodeOf(x1, y1, x2, y2) != node[id];
+    }
+    
+    @Override
+    void Grow(int capacity) {
+        node = Arrays.copyOf(node, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+    }
+    
+    @Override
+    void Reset() {
+        Arrays.fill(heads, -1);
+    }
+    
+    @Override
+    int Collect(float x1, float y1, float x2, float y2, int[] out, int n) {
+        float qx1 = x1 - originX, qy1 = y1 - originY;
+        float qx2 = x2 - originX, qy2 = y2 - originY;
+        for (int l = 0; l <= depth && n < out.length; l++) {
+            // widen the query by the half cell of looseness at this level
+            float loose = levelCellSize[l] * .5f;
+            int cx1 = CellIndex(qx1 - loose, l), cy1 = CellIndex(qy1 - loose, l);
+            int cx2 = CellIndex(qx2 + loose, l), cy2 = CellIndex(qy2 + loose, l);
+            int offset = levelOffset[l];
+            for (int cy = cy1; cy <= cy2; cy++) {
+                int row = offset + (cy << l);
+                for (int cx = cx1; cx <= cx2; cx++)
+                    for (int id = heads[row + cx]; id != -1; id = next[id])
+                        n = Accept(id, x1, y1, x2, y2, out, n);
+            }
+        }
+        return n;
+    }
+}
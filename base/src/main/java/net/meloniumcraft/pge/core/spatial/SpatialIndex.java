@@ -0,0 +1,200 @@
+package net.meloniumcraft.pge.core.spatial;
+
+import net.meloniumcraft.pge.core.types.VF2D;
+import net.meloniumcraft.pge.core.types.VI2D;
+
+import java.util.Arrays;
+
+/**
+ * Broad-phase index over axis aligned boxes identified by small non-negative ints,
+ * usually the caller's own entity indices. Bounds live in primitive arrays indexed by id,
+ * and queries write ids into a caller supplied buffer, so neither moving entities nor
+ * querying allocates once the index has grown to fit.
+ */
+public abstract class SpatialIndex {
+    float[] minX = new float[0];
+    float[] minY = new float[0];
+    float[] maxX = new float[0];
+    float[] maxY = new float[0];
+    private boolean[] present = new boolean[0];
+    private int[] stamp = new int[0];
+    private int queryStamp;
+    private int size;
+    
+    SpatialIndex() {}
+    
+    abstract void Link(int id);
+    
+    abstract void Unlink(int id);
+    
+    // whether moving id to the given bounds changes where it is stored
+    abstract boolean Relocates(int id, float x1, float y1, float x2, float y2);
+    
+    abstract void Grow(int capacity);
+    
+    abstract void Reset();
+    
+    abstract int Collect(float x1, float y1, float x2, float y2, int[] out, int n);
+    
+    private void EnsureCapacity(int capacity) {
+        if (capacity <= present.length)
+            return;
+        int newCapacity = Math.max(capacity, Math.max(16, present.length * 2));
+        minX = Arrays.copyOf(minX, newCapacity);
+        minY = Arrays.copyOf(minY, newCapacity);
+        maxX = Arrays.copyOf(maxX, newCapacity);
+        maxY = Arrays.copyOf(maxY, newCapacity);
+        present = Arrays.copyOf(present, newCapacity);
+        stamp = Arrays.copyOf(stamp, newCapacity);
+        Grow(newCapacity);
+    }
+    
+    private void SetBounds(int id, float x1, float y1, float x2, float y2) {
+        minX[id] = x1;
+        minY[id] = y1;
+        maxX[id] = x2;
+        maxY[id] = y2;
+    }
+    
+    public int GetSize() {
+        return size;
+    }
+    
+    public boolean Contains(int id) {
+        return id >= 0 && id < present.length && present[id];
+    }
+    
+    public void Insert(int id, float x1, float y1, float x2, float y2) {
+        if (id < 0)
+            throw new IllegalArgumentException("SpatialIndex: id must not be negative!");
+        EnsureCapacity(id + 1);
+        if (present[id])
+            throw new IllegalArgumentException("SpatialIndex: id " + id + " is already present!");
+        SetBounds(id, x1, y1, x2, y2);
+        present[id] = true;
+        size++;
+        Link(id);
+    }
+    
+    public void Insert(int id, VF2D pos, VF2D size) {
+        Insert(id, pos.x, pos.y, pos.x + size.x, pos.y + size.y);
+    }
+    
+    public void Insert(int id, VI2D pos, VI2D size) {
+        Insert(id, pos.x, pos.y, pos.x + size.x, pos.y + size.y);
+    }
+    
+    public void Move(int id, float x1, float y1, float x2, float y2) {
+        if (!Contains(id))
+            throw new IllegalArgumentException("SpatialIndex: id " + id + " is not present!");
+        if (Relocates(id, x1, y1, x2, y2)) {
+            Unlink(id);
+            SetBounds(id, x1, y1, x2, y2);
+            Link(id);
+        } else
+            SetBounds(id, x1, y1, x2, y2);
+    }
+    
+    public void Move(int id, VF2D pos, VF2D size) {
+        Move(id, pos.x, pos.y, pos.x + size.x, pos.y + size.y);
+    }
+    
+    public void Move(int id, VI2D pos, VI2D size) {
+        Move(id, pos.x, pos.y, pos.x + size.x, pos.y + size.y);
+    }
+    
+    public void Remove(int id) {
+        if (!Contains(id))
+            return;
+        Unlink(id);
+        present[id] = false;
+        size--;
+    }
+    
+    public void Clear() {
+        Arrays.fill(present, false);
+        size = 0;
+        Reset();
+    }
+    
+    /**
+     * Replaces the whole content with ids {@code [0, count)} and the given bounds. Much
+     * cheaper than removing and inserting every entity when most of them moved.
+     */
+    public void Rebuild(int count, float[] minX, float[] minY, float[] maxX, float[] maxY) {
+        Clear();
+        EnsureCapacity(count);
+        System.arraycopy(minX, 0, this.minX, 0, count);
+        System.arraycopy(minY, 0, this.minY, 0, count);
+        System.arraycopy(maxX, 0, this.maxX, 0, count);
+        System.arraycopy(maxY, 0, this.maxY, 0, count);
+        Arrays.fill(present, 0, count, true);
+        size = count;
+        for (int id = 0; id < count; id++)
+            Link(id);
+    }
+    
+    private int NextStamp() {
+        if (++queryStamp == 0) {
+            Arrays.fill(stamp, 0);
+            queryStamp = 1;
+        }
+        return queryStamp;
+    }
+    
+    // called by Collect for every candidate, returns the new number of results in out
+    final int Accept(int id, float x1, float y1, float x2, float y2, int[] out, int n) {
+        if (n >= out.length || stamp[id] == queryStamp)
+            return n;
+        stamp[id] = queryStamp;
+        if (minX[id] > x2 || maxX[id] < x1 || minY[id] > y2 || maxY[id] < y1)
+            return n;
+        out[n] = id;
+        return n + 1;
+    }
+    
+    /**
+     * Writes the ids of all boxes overlapping the given rectangle into {@code out} and
+     * returns how many were written. Results that do not fit into the buffer are dropped.
+     */
+    public int QueryRect(float x1, float y1, float x2, float y2, int[] out) {
+        if (size == 0 || out.length == 0)
+            return 0;
+        NextStamp();
+        return Collect(x1, y1, x2, y2, out, 0);
+    }
+    
+    public int QueryRect(VF2D pos, VF2D size, int[] out) {
+        return QueryRect(pos.x, pos.y, pos.x + size.x, pos.y + size.y, out);
+    }
+    
+    public int QueryRect(VI2D pos, VI2D size, int[] out) {
+        return QueryRect(pos.x, pos.y, pos.x + size.x, pos.y + size.y, out);
+    }
+    
+    /**
+     * Writes the ids of all boxes within {@code radius} of the given point into
+     * {@code out} and returns how many were written.
+     */
+    public int QueryRadius(float x, float y, float radius, int[] out) {
+        int candidates = QueryRect(x - radius, y - radius, x + radius, y + radius, out);
+        float r2 = radius * radius;
+        int n = 0;
+        for (int i = 0; i < candidates; i++) {
+            int id = out[i];
+            float dx = Math.max(0, Math.max(minX[id] - x, x - maxX[id]));
+            float dy = Math.max(0, Math.max(minY[id] - y, y - maxY[id]));
+            if (dx * dx + dy * dy <= r2)
+                out[n++] = id;
+        }
+        return n;
+    }
+    
+    public int QueryRadius(VF2D center, float radius, int[] out) {
+        return QueryRadius(center.x, center.y, radius, out);
+    }
+    
+    public int QueryPoint(float x, float y, int[] out) {
+        return QueryRect(x, y, x, y, out);
+    }
+}
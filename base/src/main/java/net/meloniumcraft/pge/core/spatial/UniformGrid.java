@@ -0,0 +1,135 @@
+package net.meloniumcraft.pge.core.spatial;
+
+import java.util.Arrays;
+
+/**
+ * Hashed uniform grid. Every box is linked into each cell it touches, and cells are
+ * hashed into a fixed bucket table, so the world needs no bounds. Works best when most
+ * boxes are no larger than a cell.
+ */
+public final class UniformGrid extends SpatialIndex {
+    private final float cellSize;
+    private final float invCellSize;
+    private final int bucketMask;
+    private final int[] buckets;
+    
+    // cell entries, chained per bucket; unused entries form a free list through entryNext
+    private int[] entryId = new int[64];
+    private int[] entryNext = new int[64];
+    private int entryCount;
+    private int freeEntry = -1;
+    
+    public UniformGrid(float cellSize, int bucketCount) {
+        if (cellSize <= 0)
+            throw new IllegalArgumentException("UniformGrid: cell size must be positive!");
+        if (bucketCount <= 0)
+            throw new IllegalArgumentException("UniformGrid: bucket count must be positive!");
+        this.cellSize = cellSize;
+        this.invCellSize = 1 / cellSize;
+        int buckets = Integer.highestOneBit(Math.min(bucketCount, 1 << 30) - 1) << 1;
+        this.buckets = new int[Math.max(1, buckets)];
+        this.bucketMask = this.buckets.length - 1;
+        Arrays.fill(this.buckets, -1);
+    }
+    
+    public float getCellSize() {
+        return cellSize;
+    }
+    
+    private int Cell(float v) {
+        return (int)Math.floor(v * invCellSize);
+    }
+    
+    private int Bucket(int cx, int cy) {
+        int h = cx * 0x8da6b343 ^ cy * 0xd8163841;
+        return (h ^ h >>> 16) & bucketMask;
+    }
+    
+    private int NewEntry(int id, int next) {
+        int e;
+        if (freeEntry != -1) {
+            e = freeEntry;
+            freeEntry = entryNext[e];
+        } else {
+            if (entryCount == entryId.length) {
+                entryId = Arrays.copyOf(entryId, entryCount * 2);
+                entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+            }
+            e = entryCount++;
+        }
+        entryId[e] = id;
+        entryNext[e] = next;
+        return e;
+    }
+    
+    @Override
+    void Link(int id) {
+        int cx1 = Cell(minX[id]), cy1 = Cell(minY[id]);
+        int cx2 = Cell(maxX[id]), cy2 = Cell(maxY[id]);
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                int b = Bucket(cx, cy);
+                buckets[b] = NewEntry(id, buckets[b]);
+            }
+        }
+    }
+    
+    @Override
+    void Unlink(int id) {
+        int cx1 = Cell(minX[id]), cy1 = Cell(minY[id]);
+        int cx2 = Cell(maxX[id]), cy2 = Cell(maxY[id]);
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                int b = Bucket(cx, cy);
+                int prev = -1;
+                for (int e = buckets[b]; e != -1; ) {
+                    int next = entryNext[e];
+                    if (entryId[e] == id) {
+                        if (prev == -1)
+                            buckets[b] = next;
+                        else
+                            entryNext[prev] = next;
+                        entryNext[e] = freeEntry;
+                        freeEntry = e;
+                    } else
+                        prev = e;
+                    e = next;
+                }
+            }
+        }
+    }
+    
+    @Override
+    boolean Relocates(int id, float x1, float y1, float x2, float y2) {
+        return Cell(x1) != Cell(minX[id]) || Cell(y1) != Cell(minY[id])
+            || Cell(x2) != Cell(maxX[id]) || Cell(y2) != Cell(maxY[id]);
+    }
+    
+    @Override
+    void Grow(int capacity) {}
+    
+    @Override
+    void Reset() {
+        Arrays.fill(buckets, -1);
+        entryCount = 0;
+        freeEntry = -1;
+    }
+    
+    @Override
+    int Collect(float x1, float y1, float x2, float y2, int[] out, int n) {
+        int cx1 = Cell(x1), cy1 = Cell(y1);
+        int cx2 = Cell(x2), cy2 = Cell(y2);
+        // a query covering more cells than there are buckets visits every bucket once instead
+        if ((long)(cx2 - cx1 + 1) * (cy2 - cy1 + 1) > buckets.length) {
+            for (int b = 0; b < buckets.length && n < out.length; b++)
+                for (int e = buckets[b]; e != -1; e = entryNext[e])
+                    n = Accept(entryId[e], x1, y1, x2, y2, out, n);
+            return n;
+        }
+        for (int cy = cy1; cy <= cy2; cy++)
+            for (int cx = cx1; cx <= cx2; cx++)
+                for (int e = buckets[Bucket(cx, cy)]; e != -1; e = entryNext[e])
+                    n = Accept(entryId[e], x1, y1, x2, y2, out, n);
+        return n;
+    }
+}
@@ -0,0 +1,35 @@
+package net.meloniumcraft.pge.core.types;
+
+import net.meloniumcraft.pge.backend.PGEBackend;
+
+/**
+ * A TrueType font at a fixed pixel height. Glyphs are rasterised the first time they
+ * are drawn into an atlas shared by every font of the backend, and the least recently
+ * used glyphs are evicted when it fills up.
+ */
+public final class Font {
+    private final PGEBackend backend;
+    private final int id;
+    private final float size;
+    
+    public Font(String path, float pixelHeight) { this(PGEBackend.Current(), path, pixelHeight); }
+    public Font(PGEBackend backend, String path, float pixelHeight) {
+        if (pixelHeight <= 0)
+            throw new IllegalArgumentException("Font: pixel height must be positive!");
+        this.backend = backend;
+        this.size = pixelHeight;
+        this.id = backend.CreateFont(path, pixelHeight);
+    }
+    
+    public int getId() {
+        return id;
+    }
+    
+    public float getSize() {
+        return size;
+    }
+    
+    public void Delete() {
+        backend.DeleteFont(this);
+    }
+}
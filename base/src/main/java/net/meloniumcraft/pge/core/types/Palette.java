@@ -0,0 +1,73 @@
+package net.meloniumcraft.pge.core.types;
+
+import net.meloniumcraft.pge.backend.PGEBackend;
+
+/**
+ * 256 packed {@code 0xRRGGBBAA} colours used by indexed sprites. Changes are uploaded
+ * the next time a sprite using the palette is drawn, so recolouring every sprite that
+ * shares a palette costs a single 1KB upload.
+ */
+public final class Palette {
+    public static final int SIZE = 256;
+    
+    private final PGEBackend backend;
+    private final int id;
+    private final int[] colours = new int[SIZE];
+    private boolean dirty = true;
+    
+    public Palette() { this(PGEBackend.Current()); }
+    public Palette(PGEBackend backend) { this.backend = backend; this.id = backend.CreatePalette(); }
+    public Palette(int[] rgba) { this(); Set(0, rgba); }
+    
+    public int getId() {
+        return id;
+    }
+    
+    public int Get(int index) {
+        return colours[index];
+    }
+    
+    public void Set(int index, Pixel p) {
+        Set(index, p.toRGBA());
+    }
+    
+    public void Set(int index, int rgba) {
+        colours[index] = rgba;
+        dirty = true;
+    }
+    
+    public void Set(int offset, int[] rgba) {
+        System.arraycopy(rgba, 0, colours, offset, rgba.length);
+        dirty = true;
+    }
+    
+    /**
+     * Rotates the entries {@code [first, first + count)} by one, the classic palette
+     * cycling used for water and fire.
+     */
+    public void Cycle(int first, int count) {
+        if (count < 2)
+            return;
+        int last = colours[first + count - 1];
+        System.arraycopy(colours, first, colours, first + 1, count - 1);
+        colours[first] = last;
+        dirty = true;
+    }
+    
+    // for backends: the colours to upload, and whether they changed since the last upload
+    public int[] getColours() {
+        return colours;
+    }
+    
+    public boolean isDirty() {
+        return dirty;
+    }
+    
+    public void ClearDirty() {
+        dirty = false;
+    }
+    
+    public void Delete() {
+        backend.DeletePalette(this);
+    }
+}
@@ -33,6 +33,16 @@ public final class Pixel {
     public static final Pixel           BLACK   = new Pixel((byte)  0, (byte)  0, (byte)  0);
     public static final Pixel           BLANK   = new Pixel((byte)  0, (byte)  0, (byte)  0, (byte)  0);
     
+    public enum Mode {
+        NORMAL, MASK, ALPHA, ADDITIVE, MULTIPLY, CUSTOM
+    }
+    
+    public enum BlendFactor {
+        ZERO, ONE,
+        SRC_COLOR, ONE_MINUS_SRC_COLOR, DST_COLOR, ONE_MINUS_DST_COLOR,
+        SRC_ALPHA, ONE_MINUS_SRC_ALPHA, DST_ALPHA, ONE_MINUS_DST_ALPHA
+    }
+    
     public Pixel()                                      { this((byte)0, (byte)0, (byte)0); }
     public Pixel(float r,  float g,  float b)           { this((byte)(r * 255), (byte)(g * 255), (byte)(b * 255)); }
     public Pixel(float r,  float g,  float b,  float a) { this((byte)(r * 255), (byte)(g * 255), (byte)(b * 255), (byte)(a * 255)); }
@@ -44,6 +54,10 @@ public final class Pixel {
         this.a = a;
     }
     
+    public static int   pack(int r, int g, int b, int a) { return (r & 0xff) << 24 | (g & 0xff) << 16 | (b & 0xff) << 8 | (a & 0xff);                   }
+    public static Pixel unpack(int rgba)                  { return new Pixel((byte)(rgba >>> 24), (byte)(rgba >>> 16), (byte)(rgba >>> 8), (byte)rgba); }
+    public int toRGBA()                                   { return pack(r, g, b, a);                                                                   }
+    
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,124 @@
+package net.meloniumcraft.pge.core.types;
+
+/**
+ * Blend kernels for packed {@code 0xRRGGBBAA} pixels. Red/blue and green/alpha are
+ * processed as two 16 bit lanes of one int, and divisions by 255 come from a lookup
+ * table or a shift trick, so no float math happens per pixel.
+ */
+public final class PixelBlend {
+    private PixelBlend() {}
+    
+    public interface Custom {
+        int blend(int src, int dst);
+    }
+    
+    private static final int LANES = 0x00ff00ff;
+    private static final byte[] MUL = new byte[256 * 256];
+    
+    static {
+        for (int a = 0; a < 256; a++)
+            for (int b = 0; b < 256; b++)
+                MUL[a << 8 | b] = (byte)((a * b + 127) / 255);
+    }
+    
+    public static int mul(int a, int b) {
+        return MUL[a << 8 | b] & 0xff;
+    }
+    
+    // divides both 16 bit lanes by 255 with rounding, each lane must be <= 255 * 255
+    private static int div255(int lanes) {
+        lanes += 0x00800080;
+        return (lanes + (lanes >>> 8 & LANES)) >>> 8 & LANES;
+    }
+    
+    private static int scale(int c, int a) {
+        return div255((c >>> 8 & LANES) * a) << 8 | div255((c & LANES) * a);
+    }
+    
+    public static int Mask(int src, int dst) {
+        return (src & 0xff) == 0xff ? src : dst;
+    }
+    
+    public static int Alpha(int src, int dst) {
+        int a = src & 0xff;
+        if (a == 0xff)
+            return src;
+        if (a == 0)
+            return dst;
+        int ia = 255 - a;
+        int rb = div255((src >>> 8 & LANES) * a + (dst >>> 8 & LANES) * ia);
+        int ga = div255((src & LANES) * a + (dst & LANES) * ia);
+        int outA = a + mul(dst & 0xff, ia);
+        return rb << 8 | ga & 0x00ff0000 | outA;
+    }
+    
+    public static int Additive(int src, int dst) {
+        int a = src & 0xff;
+        if (a == 0)
+            return dst;
+        int s = scale(src, a);
+        int rb = (s >>> 8 & LANES) + (dst >>> 8 & LANES);
+        int ga = (s & LANES) + (dst & LANES);
+        rb = saturate(rb);
+        ga = saturate(ga);
+        int outA = Math.min(255, (dst & 0xff) + a);
+        return rb << 8 | ga & 0x00ff0000 | outA;
+    }
+    
+    private static int saturate(int lanes) {
+        int overflow = lanes & 0x01000100;
+        return (lanes | overflow - (overflow >>> 8)) & LANES;
+    }
+    
+    public static int Multiply(int src, int dst) {
+        int a = src & 0xff;
+        if (a == 0)
+            return dst;
+        int m = Alpha(src, 0xffffffff);
+        int r = mul(dst >>> 24, m >>> 24);
+        int g = mul(dst >>> 16 & 0xff, m >>> 16 & 0xff);
+        int b = mul(dst >>> 8 & 0xff, m >>> 8 & 0xff);
+        return r << 24 | g << 16 | b << 8 | dst & 0xff;
+    }
+    
+    public static int Premultiply(int rgba) {
+        int a = rgba & 0xff;
+        if (a == 0xff)
+            return rgba;
+        return scale(rgba, a) & 0xffffff00 | a;
+    }
+    
+    public static void Blend(Pixel.Mode mode, int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        switch (mode) {
+            case NORMAL:
+                System.arraycopy(src, srcOffset, dst, dstOffset, count);
+                break;
+            case MASK:
+                for (int i = 0; i < count; i++) {
+                    int s = src[srcOffset + i];
+                    if ((s & 0xff) == 0xff)
+                        dst[dstOffset + i] = s;
+                }
+                break;
+            case ALPHA:
+                for (int i = 0; i < count; i++)
+                    dst[dstOffset + i] = Alpha(src[srcOffset + i], dst[dstOffset + i]);
+                break;
+            case ADDITIVE:
+                for (int i = 0; i < count; i++)
+                    dst[dstOffset + i] = Additive(src[srcOffset + i], dst[dstOffset + i]);
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < count; i++)
+                    dst[dstOffset + i] = Multiply(src[srcOffset + i], dst[dstOffset + i]);
+                break;
+            case CUSTOM:
+                throw new IllegalArgumentException("PixelBlend: CUSTOM needs a blend function!");
+        }
+    }
+    
+    public static void Blend(Custom custom, int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        for (int i = 0; i < count; i++)
+            dst[dstOffset + i] = custom.blend(src[srcOffset + i], dst[dstOffset + i]);
+    }
+}
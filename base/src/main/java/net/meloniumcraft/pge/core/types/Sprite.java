@@ -3,37 +3,122 @@ package net.meloniumcraft.pge.core.types;
 import net.meloniumcraft.pge.backend.PGEBackend;
 
 public final class Sprite {
-    private static PGEBackend backend;
-    
-    
+    private final PGEBackend backend;
     private final int id;
     
     private int width;
     private int height;
+    private Palette palette;
+    private Filter filter = Filter.NEAREST;
+    private boolean mipmaps;
     
-    public Sprite() { this.id = backend.CreateSprite(); }
+    public Sprite() { this(PGEBackend.Current()); }
+    public Sprite(PGEBackend backend) { this.backend = backend; this.id = backend.CreateSprite(); }
     public Sprite(String path) { this(path, true); }
     public Sprite(String path, boolean packed) { this(); LoadFromFile(path, packed); }
     public Sprite(int width, int height) { this(); this.width = width; this.height = height; }
+    public Sprite(int width, int height, byte[] indices, Palette palette) { this(); MakeIndexed(width, height, indices, palette); }
+    public Sprite(String path, Palette palette) { this(); LoadIndexedFromFile(path, palette); }
     
     public enum FLIP {
         NONE, HORIZONTAL, VERTICAL, BOTH
     }
     
+    public enum Filter {
+        NEAREST, LINEAR
+    }
+    
     public int getId() {
         return id;
     }
     
-    public static void setBackend(PGEBackend backend) {
-        if (Sprite.backend != null)
-            throw new IllegalStateException("Sprite: Tried to reassign the backend!");
-        Sprite.backend = backend;
+    public PGEBackend getBackend() {
+        return backend;
     }
     
     public void LoadFromFile(String path, boolean packed) {
         backend.LoadSpriteTexture(this, path, packed);
     }
     
+    /**
+     * Replaces the content with one byte per pixel, each an index into {@code palette}.
+     */
+    public void MakeIndexed(int width, int height, byte[] indices, Palette palette) {
+        if (indices.length < width * height)
+            throw new IllegalArgumentException("Sprite: expected " + width * height + " indices but got " + indices.length + "!");
+        this.palette = palette;
+        this.width = width;
+        this.height = height;
+        backend.MakeIndexedSprite(this, indices);
+    }
+    
+    /**
+     * Loads an image with at most 256 distinct colours as an indexed sprite, writing its
+     * colours into {@code palette} in order of first appearance.
+     */
+    public void LoadIndexedFromFile(String path, Palette palette) {
+        this.palette = palette;
+        backend.LoadIndexedSpriteTexture(this, path, palette);
+    }
+    
+    public boolean isIndexed() {
+        return palette != null;
+    }
+    
+    public Palette getPalette() {
+        return palette;
+    }
+    
+    public void setPalette(Palette palette) {
+        if (this.palette == null || palette == null)
+            throw new IllegalStateException("Sprite: Only indexed sprites can swap palettes!");
+        this.palette = palette;
+    }
+    
+    public Filter getFilter() {
+        return filter;
+    }
+    
+    public void setFilter(Filter filter) {
+        if (palette != null && filter != Filter.NEAREST)
+            throw new IllegalStateException("Sprite: Indexed sprites can only be filtered with NEAREST!");
+        this.filter = filter;
+        backend.UpdateSpriteFilter(this);
+    }
+    
+    public boolean isMipmapped() {
+        return mipmaps;
+    }
+    
+    /**
+     * Keeps a chain of halved copies that is sampled when the sprite is drawn smaller than
+     * its size, regenerated whenever the content changes. With the default NEAREST filter
+     * this picks the nearest texel of the nearest level, so pixel art keeps hard edges
+     * without shimmering when zoomed out.
+     */
+    public void EnableMipmaps(boolean b) {
+        if (palette != null && b)
+            throw new IllegalStateException("Sprite: Indexed sprites can't be mipmapped!");
+        mipmaps = b;
+        backend.UpdateSpriteFilter(this);
+    }
+    
+    /**
+     * Replaces the pixels with packed {@code 0xRRGGBBAA} colours, row by row from the top
+     * left, and regenerates the mipmaps if the sprite has them.
+     */
+    public void SetPixels(int[] rgba) {
+        if (palette != null)
+            throw new IllegalStateException("Sprite: Indexed sprites take indices, not colours!");
+        if (rgba.length < width * height)
+            throw new IllegalArgumentException("Sprite: expected " + width * height + " pixels but got " + rgba.length + "!");
+        backend.UpdateSpritePixels(this, rgba);
+    }
+    
+    public void Delete() {
+        backend.DeleteSprite(this);
+    }
+    
     public int getWidth() {
         return width;
     }
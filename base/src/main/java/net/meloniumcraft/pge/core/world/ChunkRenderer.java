@@ -0,0 +1,13 @@
+package net.meloniumcraft.pge.core.world;
+
+import net.meloniumcraft.pge.core.PixelGameEngine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Draws one chunk in chunk-local pixel coordinates. The chunk texture is the current
+ * draw target, so only immediate primitives and sprites end up in it, not decals.
+ */
+public interface ChunkRenderer {
+    void RenderChunk(PixelGameEngine pge, int cx, int cy, ByteBuffer data);
+}
@@ -0,0 +1,7 @@
+package net.meloniumcraft.pge.core.world;
+
+import java.nio.ByteBuffer;
+
+public interface ChunkSource {
+    ByteBuffer GetChunk(int cx, int cy);
+}
@@ -0,0 +1,47 @@
+package net.meloniumcraft.pge.core.world;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads fixed-size chunk records stored row by row in one file. Each chunk is mapped
+ * on request, so only the parts of the world that are actually visited are paged in.
+ */
+public final class MappedChunkSource implements ChunkSource, Closeable {
+    private final FileChannel channel;
+    private final int chunksX;
+    private final int chunksY;
+    private final int bytesPerChunk;
+    
+    public MappedChunkSource(Path file, int chunksX, int chunksY, int bytesPerChunk) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.chunksX = chunksX;
+        this.chunksY = chunksY;
+        this.bytesPerChunk = bytesPerChunk;
+        if (channel.size() < (long)chunksX * chunksY * bytesPerChunk) {
+            channel.close();
+            throw new IOException("MappedChunkSource: " + file + " is smaller than " + chunksX + "x" + chunksY + " chunks!");
+        }
+    }
+    
+    @Override
+    public ByteBuffer GetChunk(int cx, int cy) {
+        if (cx < 0 || cy < 0 || cx >= chunksX || cy >= chunksY)
+            return null;
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, ((long)cy * chunksX + cx) * bytesPerChunk, bytesPerChunk);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,227 @@
+package net.meloniumcraft.pge.core.world;
+
+import net.meloniumcraft.pge.core.PixelGameEngine;
+import net.meloniumcraft.pge.core.types.Decal;
+import net.meloniumcraft.pge.core.types.Pixel;
+import net.meloniumcraft.pge.core.types.Sprite;
+import net.meloniumcraft.pge.core.types.VF2D;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A large world split into square chunks, each cached in its own texture. A chunk is
+ * only re-rendered when it is dirty, and drawing the world costs one decal per visible
+ * chunk. Chunks outside the view are evicted, least recently drawn first, once their
+ * textures exceed the byte budget.
+ */
+public final class WorldCanvas {
+    private static final class Chunk {
+        final long key;
+        final Sprite sprite;
+        final Decal decal;
+        final VF2D pos = new VF2D();
+        ByteBuffer data;
+        boolean dirty = true;
+        // neighbours in draw order, the least recently drawn chunk comes first
+        Chunk older, newer;
+        
+        Chunk(long key, int size) {
+            this.key = key;
+            sprite = new Sprite(size, size);
+            decal = new Decal(sprite);
+        }
+    }
+    
+    private final PixelGameEngine pge;
+    private final int chunkSize;
+    private final ChunkSource source;
+    private final ChunkRenderer renderer;
+    private final int maxChunks;
+    // open addressing on the packed chunk coordinates, so lookups don't box a key
+    private Chunk[] table = new Chunk[64];
+    private int resident;
+    private Chunk oldest, newest;
+    private final VF2D unitScale = new VF2D(1, 1);
+    private int visibleChunks;
+    
+    public WorldCanvas(PixelGameEngine pge, int chunkSize, ChunkSource source, ChunkRenderer renderer, long textureBudget) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("WorldCanvas: chunk size must be positive!");
+        this.pge = pge;
+        this.chunkSize = chunkSize;
+        this.source = source;
+        this.renderer = renderer;
+        this.maxChunks = (int)Math.max(1, textureBudget / ((long)chunkSize * chunkSize * 4));
+    }
+    
+    private static long key(int cx, int cy) {
+        return (long)cx << 32 | cy & 0xffffffffL;
+    }
+    
+    private static int hash(long key) {
+        return (int)(key * 0x9e3779b97f4a7c15L >>> 32);
+    }
+    
+    private Chunk Find(long key) {
+        int mask = table.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Chunk chunk = table[i];
+            if (chunk == null || chunk.key == key)
+                return chunk;
+        }
+    }
+    
+    private void Insert(Chunk chunk) {
+        if ((resident + 1) * 2 > table.length) {
+            Chunk[] old = table;
+            table = new Chunk[old.length * 2];
+            for (Chunk c : old)
+                if (c != null)
+                    Place(c);
+        }
+        Place(chunk);
+        resident++;
+    }
+    
+    private void Place(Chunk chunk) {
+        int mask = table.length - 1;
+        int i = hash(chunk.key) & mask;
+        while (table[i] != null)
+            i = (i + 1) & mask;
+        table[i] = chunk;
+    }
+    
+    private void Remove(Chunk chunk) {
+        int mask = table.length - 1;
+        int i = hash(chunk.key) & mask;
+        while (table[i] != chunk)
+            i = (i + 1) & mask;
+        table[i] = null;
+        resident--;
+        // shift later chunks of the probe run back, so lookups don't stop at the hole
+        for (int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask) {
+            int home = hash(table[j].key) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                table[i] = table[j];
+                table[j] = null;
+                i = j;
+            }
+        }
+    }
+    
+    private void Unlink(Chunk chunk) {
+        if (chunk.older != null)
+            chunk.older.newer = chunk.newer;
+        else
+            oldest = chunk.newer;
+        if (chunk.newer != null)
+            chunk.newer.older = chunk.older;
+        else
+            newest = chunk.older;
+        chunk.older = null;
+        chunk.newer = null;
+    }
+    
+    private void Touch(Chunk chunk) {
+        if (chunk == newest)
+            return;
+        if (chunk.older != null || chunk == oldest)
+            Unlink(chunk);
+        chunk.older = newest;
+        if (newest != null)
+            newest.newer = chunk;
+        else
+            oldest = chunk;
+        newest = chunk;
+    }
+    
+    public int getChunkSize() {
+        return chunkSize;
+    }
+    
+    public int GetResidentChunks() {
+        return resident;
+    }
+    
+    public void MarkDirty(int cx, int cy) {
+        Chunk chunk = Find(key(cx, cy));
+        if (chunk != null)
+            chunk.dirty = true;
+    }
+    
+    public void MarkDirtyRect(int x, int y, int w, int h) {
+        int cx1 = Math.floorDiv(x, chunkSize);
+        int cy1 = Math.floorDiv(y, chunkSize);
+        int cx2 = Math.floorDiv(x + w - 1, chunkSize);
+        int cy2 = Math.floorDiv(y + h - 1, chunkSize);
+        for (int cy = cy1; cy <= cy2; cy++)
+            for (int cx = cx1; cx <= cx2; cx++)
+                MarkDirty(cx, cy);
+    }
+    
+    public void Draw(float cameraX, float cameraY) {
+        int cx1 = (int)Math.floor(cameraX / chunkSize);
+        int cy1 = (int)Math.floor(cameraY / chunkSize);
+        int cx2 = (int)Math.floor((cameraX + pge.ScreenWidth() - 1) / chunkSize);
+        int cy2 = (int)Math.floor((cameraY + pge.ScreenHeight() - 1) / chunkSize);
+        visibleChunks = (cx2 - cx1 + 1) * (cy2 - cy1 + 1);
+        
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                Chunk chunk = Acquire(cx, cy);
+                if (chunk == null)
+                    continue;
+                if (chunk.dirty)
+                    Render(chunk, cx, cy);
+                chunk.pos.x = cx * chunkSize - cameraX;
+                chunk.pos.y = cy * chunkSize - cameraY;
+                pge.DrawDecal(chunk.pos, chunk.decal, unitScale, Pixel.WHITE);
+            }
+        }
+        Evict();
+    }
+    
+    private Chunk Acquire(int cx, int cy) {
+        long k = key(cx, cy);
+        Chunk chunk = Find(k);
+        if (chunk == null) {
+            ByteBuffer data = source.GetChunk(cx, cy);
+            if (data == null)
+                return null;
+            chunk = new Chunk(k, chunkSize);
+            chunk.data = data;
+            Insert(chunk);
+        }
+        Touch(chunk);
+        return chunk;
+    }
+    
+    private void Render(Chunk chunk, int cx, int cy) {
+        pge.SetDrawTarget(chunk.sprite);
+        pge.Clear(Pixel.BLANK);
+        renderer.RenderChunk(pge, cx, cy, chunk.data.duplicate());
+        pge.SetDrawTarget(null);
+        chunk.dirty = false;
+    }
+    
+    private void Evict() {
+        // visible chunks were just touched, so they sit at the end of the access order
+        int evictable = resident - Math.max(maxChunks, visibleChunks);
+        while (evictable-- > 0 && oldest != null) {
+            Chunk chunk = oldest;
+            Unlink(chunk);
+            Remove(chunk);
+            chunk.sprite.Delete();
+        }
+    }
+    
+    public void Clear() {
+        for (Chunk chunk = oldest; chunk != null; chunk = chunk.newer)
+            chunk.sprite.Delete();
+        Arrays.fill(table, null);
+        resident = 0;
+        oldest = null;
+        newest = null;
+    }
+}